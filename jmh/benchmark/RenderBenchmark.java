@@ -0,0 +1,430 @@
+package benchmark;
+
+import delegate.FrameColorizer;
+import delegate.ParameterFile;
+import delegate.PngEncoder;
+import model.FrameBuffer;
+import model.MandelbrotCalculator;
+import model.MandelbrotStruct;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * JMH benchmarks of the rendering paths. Run with "gradle jmh", adding -PjmhIncludes=regex for a subset; results are
+ * written as JSON to build/results/jmh/results.json so runs of different versions can be compared.
+ *
+ * Covered: calcMandelbrotSet on standard views (home, seahorse valley, an interior view, a boundary-heavy view) at
+ * several iteration budgets, with each kernel, with and without smooth counts and with and without the histogram; the
+ * double-double and perturbation deep zoom paths; each arithmetic forced on a small frame, per pixel, against a
+ * plain BigDecimal loop, both where doubles still resolve the pixels (1e-10) and where they do not (1e-20); sampling boundary pixels for anti-aliasing; colouring a frame as
+ * drawPixels does, through the palette, the smooth gradient and the equalised table; PNG encoding; and saving and
+ * loading a parameter file as DataStorage does.
+ *
+ * @author rarpda
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+    final static int DEEP_ITERATIONS = 2000;
+    final static int COLOUR_ITERATIONS = 1024;
+    final static double RADIUS_SQUARED = 4.0; /* Escape radius squared, as the GUI uses */
+    final static String DEEP_CENTRE_REAL = "-0.743643887037158704752191506114774";
+    final static String DEEP_CENTRE_IMAG = "0.131825904205311970493132056385139";
+    /* The arithmetic comparison uses a small frame, as the BigDecimal loop takes milliseconds per pixel */
+    final static int ARITHMETIC_RESOLUTION = 16;
+    final static int ARITHMETIC_PIXELS = ARITHMETIC_RESOLUTION * ARITHMETIC_RESOLUTION;
+    /* 40 digits: the pixels at 1e-20 differ in the 22nd digit, and the rest absorbs rounding growing along an orbit */
+    final static MathContext BIG_DECIMAL_CONTEXT = new MathContext(40);
+
+    /**
+     * A frame of one of the standard views, with the calculator settings to render it with.
+     */
+    @State(Scope.Benchmark)
+    public static class ViewState {
+        @Param({"home", "seahorse", "interior", "boundary"})
+        public String view;
+        @Param({"256", "1024", "4096"})
+        public int maxIterations;
+        @Param({"SCALAR", "BATCHED", "VECTOR"})
+        public MandelbrotCalculator.Kernel kernel;
+        @Param({"false", "true"})
+        public boolean smooth;
+        @Param({"false", "true"})
+        public boolean histogram;
+        @Param("512")
+        public int resolution;
+
+        MandelbrotCalculator calculator;
+        FrameBuffer frame;
+        double[] bounds;
+
+        @Setup
+        public void setUp() {
+            bounds = viewBounds(view);
+            calculator = new MandelbrotCalculator();
+            calculator.setKernel(kernel);
+            frame = new FrameBuffer(resolution, resolution);
+            frame.setSmooth(smooth);
+            frame.setHistogramKept(histogram);
+        }
+    }
+
+    /**
+     * A frame of a view too deep for doubles, with the arithmetic picked for it.
+     */
+    @State(Scope.Benchmark)
+    public static class DeepState {
+        @Param({"DOUBLE_DOUBLE", "PERTURBATION"})
+        public MandelbrotCalculator.Arithmetic arithmetic;
+        @Param("1e-20")
+        public double span;
+        @Param("512")
+        public int resolution;
+
+        MandelbrotCalculator calculator;
+        FrameBuffer frame;
+        BigDecimal centreReal;
+        BigDecimal centreImag;
+        double step;
+
+        @Setup
+        public void setUp() {
+            calculator = new MandelbrotCalculator();
+            calculator.setDoubleDouble(arithmetic == MandelbrotCalculator.Arithmetic.DOUBLE_DOUBLE);
+            frame = new FrameBuffer(resolution, resolution);
+            centreReal = new BigDecimal(DEEP_CENTRE_REAL);
+            centreImag = new BigDecimal(DEEP_CENTRE_IMAG);
+            step = span / resolution;
+        }
+    }
+
+    /**
+     * A small frame at the deep centre with a span plain doubles still resolve, iterated with one arithmetic forced.
+     */
+    @State(Scope.Benchmark)
+    public static class ShallowArithmeticState {
+        @Param({"DOUBLE", "DOUBLE_DOUBLE", "PERTURBATION", "BIG_DECIMAL"})
+        public String arithmetic;
+        @Param("1e-10")
+        public double span;
+
+        ArithmeticFrame frame;
+
+        @Setup
+        public void setUp() {
+            frame = new ArithmeticFrame(span);
+        }
+    }
+
+    /**
+     * A small frame at the deep centre with a span too small for doubles, iterated with one arithmetic forced.
+     */
+    @State(Scope.Benchmark)
+    public static class DeepArithmeticState {
+        @Param({"DOUBLE_DOUBLE", "PERTURBATION", "BIG_DECIMAL"})
+        public String arithmetic;
+        @Param("1e-20")
+        public double span;
+
+        ArithmeticFrame frame;
+
+        @Setup
+        public void setUp() {
+            frame = new ArithmeticFrame(span);
+        }
+    }
+
+    /**
+     * A rendered seahorse valley frame whose boundary pixels are sampled 4 x 4 for anti-aliasing.
+     */
+    @State(Scope.Benchmark)
+    public static class BoundaryState {
+        @Param({"2", "8", "32"})
+        public int threshold;
+        @Param("512")
+        public int resolution;
+
+        final BigDecimal centreReal = new BigDecimal("-0.745");
+        final BigDecimal centreImag = new BigDecimal("0.105");
+        MandelbrotCalculator calculator;
+        FrameBuffer frame;
+        double step;
+
+        @Setup
+        public void setUp() {
+            step = 0.01 / resolution;
+            calculator = new MandelbrotCalculator();
+            frame = new FrameBuffer(resolution, resolution);
+            calculator.calcMandelbrotCentred(frame, centreReal, centreImag, step, step, COLOUR_ITERATIONS, RADIUS_SQUARED, () -> false);
+        }
+    }
+
+    /**
+     * A rendered home view frame with smooth counts and a histogram, and colourisers set up as the GUI's.
+     */
+    @State(Scope.Benchmark)
+    public static class ColourState {
+        @Param("512")
+        public int resolution;
+
+        FrameBuffer frame;
+        FrameColorizer colorizer;
+        FrameColorizer smoothColorizer;
+        FrameColorizer equalisedColorizer;
+        int[] argb;
+
+        @Setup
+        public void setUp() {
+            frame = new FrameBuffer(resolution, resolution);
+            frame.setSmooth(true);
+            frame.setHistogramKept(true);
+            double[] bounds = viewBounds("home");
+            new MandelbrotCalculator().calcMandelbrotSet(frame, bounds[0], bounds[1], bounds[2], bounds[3], COLOUR_ITERATIONS,
+                    RADIUS_SQUARED, () -> false);
+            colorizer = new FrameColorizer();
+            colorizer.setPalette(1.0, 0.0, 0.0, true, COLOUR_ITERATIONS);
+            smoothColorizer = new FrameColorizer();
+            smoothColorizer.setPalette(1.0, 0.0, 0.0, true, COLOUR_ITERATIONS);
+            smoothColorizer.setGradient(FrameColorizer.CLASSIC_GRADIENT);
+            smoothColorizer.setSmooth(true);
+            equalisedColorizer = new FrameColorizer();
+            equalisedColorizer.setPalette(1.0, 0.0, 0.0, true, COLOUR_ITERATIONS);
+            equalisedColorizer.setEqualised(true);
+            argb = new int[resolution * resolution];
+            colorizer.colorFrame(frame, argb); /*So pngEncode has an image to encode*/
+        }
+    }
+
+    /**
+     * A deep view's parameters and the temporary file they are saved to and loaded from.
+     */
+    @State(Scope.Benchmark)
+    public static class StorageState {
+        ParameterFile parameters;
+        File file;
+
+        @Setup
+        public void setUp() throws IOException {
+            MandelbrotStruct struct = new MandelbrotStruct();
+            struct.setCentre(new BigDecimal(DEEP_CENTRE_REAL), new BigDecimal(DEEP_CENTRE_IMAG));
+            struct.setSpan(new BigDecimal("1e-20"), new BigDecimal("1e-20"));
+            parameters = new ParameterFile(struct, "0xff0000ff");
+            file = File.createTempFile("benchmark", ".txt");
+            Files.write(file.toPath(), parameters.format().getBytes(StandardCharsets.UTF_8));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    /**
+     * @return minReal, maxReal, minImag and maxImag of a standard view.
+     */
+    static double[] viewBounds(String view) {
+        switch (view) {
+            case "home":
+                return new double[]{-2.0, 0.7, -1.25, 1.25};
+            case "seahorse":
+                return new double[]{-0.7500, -0.7400, 0.1000, 0.1100};
+            case "interior":
+                return new double[]{-0.1330, -0.1130, 0.7350, 0.7550}; /*Inside the period 3 bulb*/
+            case "boundary":
+                return new double[]{-0.74364389, -0.74364387, 0.13182589, 0.13182591};
+            default:
+                throw new IllegalArgumentException("Unknown view " + view);
+        }
+    }
+
+    @Benchmark
+    public int[] calcMandelbrotSet(ViewState state) {
+        double[] bounds = state.bounds;
+        state.calculator.calcMandelbrotSet(state.frame, bounds[0], bounds[1], bounds[2], bounds[3], state.maxIterations,
+                RADIUS_SQUARED, () -> false);
+        return state.frame.getPixels();
+    }
+
+    @Benchmark
+    public int[] calcMandelbrotCentred(DeepState state) {
+        state.calculator.calcMandelbrotCentred(state.frame, state.centreReal, state.centreImag, state.step, state.step,
+                DEEP_ITERATIONS, RADIUS_SQUARED, () -> false);
+        return state.frame.getPixels();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ARITHMETIC_PIXELS)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int[] iterateShallow(ShallowArithmeticState state) {
+        return state.frame.render(state.arithmetic);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ARITHMETIC_PIXELS)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int[] iterateDeep(DeepArithmeticState state) {
+        return state.frame.render(state.arithmetic);
+    }
+
+    @Benchmark
+    public int sampleBoundary(BoundaryState state) {
+        return state.calculator.sampleBoundary(state.frame, new MandelbrotStruct(), state.centreReal, state.centreImag, state.step, state.step,
+                COLOUR_ITERATIONS, RADIUS_SQUARED, state.threshold, 4, () -> false).getRefinedCount();
+    }
+
+    @Benchmark
+    public int[] colorFrame(ColourState state) {
+        state.colorizer.colorFrame(state.frame, state.argb);
+        return state.argb;
+    }
+
+    @Benchmark
+    public int[] colorFrameSmooth(ColourState state) {
+        state.smoothColorizer.colorFrame(state.frame, state.argb);
+        return state.argb;
+    }
+
+    @Benchmark
+    public int[] colorFrameEqualised(ColourState state) {
+        state.equalisedColorizer.colorFrame(state.frame, state.argb);
+        return state.argb;
+    }
+
+    @Benchmark
+    public void pngEncode(ColourState state, Blackhole blackhole) throws IOException {
+        try (PngEncoder encoder = new PngEncoder(new DiscardingStream(blackhole), state.resolution, state.resolution)) {
+            encoder.writeRows(state.argb, 0, state.resolution);
+        }
+    }
+
+    @Benchmark
+    public void storeData(StorageState state) throws IOException {
+        Files.write(state.file.toPath(), state.parameters.format().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public int loadData(StorageState state) throws IOException {
+        return ParameterFile.read(state.file).getParams().getMaxIterations();
+    }
+
+    /**
+     * A frame of ARITHMETIC_RESOLUTION pixels square centred on the deep centre, which can be rendered with any of the
+     * calculator's arithmetics or with a plain BigDecimal loop. Pixels are mapped as calcMandelbrotCentred maps them.
+     * At 1e-20 no pixel escapes within DEEP_ITERATIONS, so every arithmetic pays for the whole budget on every pixel.
+     */
+    static class ArithmeticFrame {
+        final MandelbrotCalculator calculator = new MandelbrotCalculator();
+        final FrameBuffer frame = new FrameBuffer(ARITHMETIC_RESOLUTION, ARITHMETIC_RESOLUTION);
+        final BigDecimal centreReal = new BigDecimal(DEEP_CENTRE_REAL);
+        final BigDecimal centreImag = new BigDecimal(DEEP_CENTRE_IMAG);
+        final double step;
+
+        ArithmeticFrame(double span) {
+            step = span / ARITHMETIC_RESOLUTION;
+        }
+
+        int[] render(String arithmetic) {
+            double half = ARITHMETIC_RESOLUTION / 2.0;
+            switch (arithmetic) {
+                case "DOUBLE":
+                    double minReal = centreReal.doubleValue() - half * step;
+                    double minImag = centreImag.doubleValue() - half * step;
+                    calculator.calcMandelbrotSet(frame, minReal, minReal + ARITHMETIC_RESOLUTION * step, minImag,
+                            minImag + ARITHMETIC_RESOLUTION * step, DEEP_ITERATIONS, RADIUS_SQUARED, () -> false);
+                    break;
+                case "DOUBLE_DOUBLE":
+                    calculator.calcMandelbrotDoubleDouble(frame, centreReal, centreImag, step, step, DEEP_ITERATIONS,
+                            RADIUS_SQUARED, () -> false);
+                    break;
+                case "PERTURBATION":
+                    calculator.calcMandelbrotPerturbed(frame, centreReal, centreImag, step, step, DEEP_ITERATIONS,
+                            RADIUS_SQUARED, () -> false);
+                    break;
+                case "BIG_DECIMAL":
+                    int[] pixels = frame.getPixels();
+                    for (int y = 0; y < ARITHMETIC_RESOLUTION; y++) {
+                        BigDecimal cImag = centreImag.add(new BigDecimal((y - half) * step));
+                        for (int x = 0; x < ARITHMETIC_RESOLUTION; x++) {
+                            BigDecimal cReal = centreReal.add(new BigDecimal((x - half) * step));
+                            pixels[frame.rowOffset(y) + x] = iterateBigDecimal(cReal, cImag, DEEP_ITERATIONS, RADIUS_SQUARED);
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown arithmetic " + arithmetic);
+            }
+            return frame.getPixels();
+        }
+    }
+
+    /**
+     * Function used to iterate one point with every value held as a BigDecimal of BIG_DECIMAL_CONTEXT's precision,
+     * counting iterations as calcMandel does.
+     * @return the number of iterations for Z to grow outside of the radius, or maxIterations if it never escaped.
+     */
+    static int iterateBigDecimal(BigDecimal cReal, BigDecimal cImag, int maxIterations, double radiusSquared) {
+        BigDecimal radius = new BigDecimal(radiusSquared);
+        BigDecimal two = BigDecimal.valueOf(2);
+        BigDecimal zr = BigDecimal.ZERO;
+        BigDecimal zi = BigDecimal.ZERO;
+        for (int iterations = 0; iterations < maxIterations; iterations++) {
+            BigDecimal zrSquared = zr.multiply(zr, BIG_DECIMAL_CONTEXT);
+            BigDecimal ziSquared = zi.multiply(zi, BIG_DECIMAL_CONTEXT);
+            if (zrSquared.add(ziSquared, BIG_DECIMAL_CONTEXT).compareTo(radius) > 0) {
+                return iterations + 1; /*calcMandel counts the iteration which found Z outside*/
+            }
+            BigDecimal nzi = two.multiply(zr).multiply(zi, BIG_DECIMAL_CONTEXT).add(cImag, BIG_DECIMAL_CONTEXT);
+            zr = zrSquared.subtract(ziSquared, BIG_DECIMAL_CONTEXT).add(cReal, BIG_DECIMAL_CONTEXT);
+            zi = nzi;
+        }
+        return maxIterations;
+    }
+
+    /**
+     * Output which hands everything written to it to the blackhole, so the encoding cannot be optimised away.
+     */
+    private static class DiscardingStream extends OutputStream {
+        private final Blackhole blackhole;
+
+        DiscardingStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int value) {
+            blackhole.consume(value);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            blackhole.consume(data);
+        }
+    }
+}
@@ -4,13 +4,10 @@ import delegate.MandelGuiDelegate.LogStruc;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
-import model.MandelbrotStruct;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
-import java.nio.file.Files;
-import java.util.List;
 
 
 /**
@@ -20,17 +17,6 @@ import java.util.List;
  */
 public class DataStorage {
 
-    
-    final static String COLOR_NAME = "Color";
-    final static String MAX_ITERATIONS_NAME = "Max Iterations";
-    final static String MAX_IMAG_NAME = "Max Imag";
-    final static String MIN_IMAG_NAME = "Min Imag";
-    final static String MAX_REAL_NAME = "Max Real";
-    final static String MIN_REAL_NAME = "Min Real";
-    final static String RADIUS_SQUARE_NAME = "Radius Squared";
-    final static int NUMBER_INPUTS_STORED = 7; /* Maximum number of inputs allowed*/
-    final static int PARAMETER_ELEMENT_COUNT = 2; /* Attribute name and value size */
-
     /**
      * Function used to store current parameters as data into file inputed.
      *
@@ -53,14 +39,7 @@ public class DataStorage {
             myFileWriter = new FileWriter(fileStore.getPath(), true); /* Open file and set it to append */
             logWriter = new BufferedWriter(myFileWriter); /* Initialise buffered writer. */
 
-            String dataLog = "";
-            dataLog += COLOR_NAME + "\t" + dataStore.getColorSelected() + "\n";
-            dataLog += MAX_ITERATIONS_NAME + "\t" + dataStore.getParams().getMaxIterations() + "\n";
-            dataLog += MAX_IMAG_NAME + "\t" + dataStore.getParams().getMaxImag() + "\n";
-            dataLog += MIN_IMAG_NAME + "\t" + dataStore.getParams().getMinImag() + "\n";
-            dataLog += MAX_REAL_NAME + "\t" + dataStore.getParams().getMaxReal() + "\n";
-            dataLog += MIN_REAL_NAME + "\t" + dataStore.getParams().getMinReal() + "\n";
-            dataLog += RADIUS_SQUARE_NAME + "\t" + dataStore.getParams().getRadiusSquared() + "\n";
+            String dataLog = new ParameterFile(dataStore.getParams(), String.valueOf(dataStore.getColorSelected())).format();
 
             logWriter.write(dataLog); /* Write data into file once it has been fetched. */
             dataStored = true;
@@ -122,48 +101,13 @@ public class DataStorage {
         LogStruc localLog = null;
         if (fileStore.exists()) {
             try {
-                List<String> stringData = Files.readAllLines(fileStore.toPath()); /* Read all the data */
-                /*Check format of input*/
-                if (stringData.size() == NUMBER_INPUTS_STORED) {
-                    localLog = new LogStruc();
-                    MandelbrotStruct localStruct = localLog.getParams();
-                    /*Process parameter*/
-                    for (int lineIndex = 0; lineIndex < NUMBER_INPUTS_STORED; lineIndex++) {
-                        /* Separate parameter*/
-                        String[] parameterArray = stringData.get(lineIndex).split("\t");
-
-                        /* Check parameter type and value pair exist. */
-                        if (parameterArray.length == PARAMETER_ELEMENT_COUNT) {
-                            String parameter = parameterArray[0];
-                            String parameterValue = parameterArray[1];
-                            /*Check if data is correct.*/
-                            if (parameter.contains(COLOR_NAME)) {
-                                if (parameterValue.matches(Color.WHITE.toString())) {
-                                    localLog.setColorSelected(Color.WHITE);
-                                } else {
-                                    localLog.setColorSelected(Color.valueOf(parameterValue));
-                                }
-                            } else if (parameter.contains(MAX_ITERATIONS_NAME)) {
-                                localStruct.setMaxIterations(Integer.parseInt(parameterValue));
-                            } else if (parameter.contains(MAX_IMAG_NAME)) {
-                                localStruct.setMaxImag(Double.parseDouble(parameterValue));
-                            } else if (parameter.contains(MIN_IMAG_NAME)) {
-                                localStruct.setMinImag(Double.parseDouble(parameterValue));
-                            } else if (parameter.contains(MAX_REAL_NAME)) {
-                                localStruct.setMaxReal(Double.parseDouble(parameterValue));
-                            } else if (parameter.contains(MIN_REAL_NAME)) {
-                                localStruct.setMinReal(Double.parseDouble(parameterValue));
-                            } else if (parameter.contains(RADIUS_SQUARE_NAME)) {
-                                localStruct.setRadiusSquared(Double.parseDouble(parameterValue));
-                            } else {
-                                /*Clear all*/
-                                throw new Exception("Input not valid");
-                            }
-                        } else {
-                            /*Clear struct*/
-                            throw new Exception("Input not valid");
-                        }
-                    }
+                ParameterFile parameterFile = ParameterFile.read(fileStore);
+                localLog = new LogStruc();
+                localLog.setParams(parameterFile.getParams());
+                if (parameterFile.isWhite()) {
+                    localLog.setColorSelected(Color.WHITE);
+                } else {
+                    localLog.setColorSelected(Color.valueOf(parameterFile.getColor()));
                 }
             } catch (Exception e) {
                 System.out.println(e.getMessage());
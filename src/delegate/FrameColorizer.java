@@ -0,0 +1,283 @@
+package delegate;
+
+import model.BoundarySamples;
+import model.FrameBuffer;
+import model.IterationHistogram;
+
+import java.util.Arrays;
+
+/**
+ * Colouring stage between the model's iteration values and the canvas.
+ * It keeps an ARGB palette indexed by iteration count, rebuilt only when the colour or iteration budget changes,
+ * and turns a whole frame into an ARGB pixel array ready to be written to the canvas in one call.
+ * It does not depend on JavaFX, so frames can be coloured off the application thread.
+ *
+ * In smooth mode, frames which carry smooth escape counts are coloured through a cyclic gradient instead, read at the
+ * fractional count so neighbouring pixels blend rather than step from one band to the next.
+ *
+ * In equalised mode the brightness of an escaped pixel is the share of escaped pixels with a lower or equal count, read
+ * from the frame's histogram, so the colour range is spread over the counts the frame actually has. The table this gives
+ * is kept for the histogram it was built from: recolouring the same frame only rebuilds it, from the histogram, when the
+ * colour changes, and never reads the iteration values again. Frames without a histogram are counted here instead.
+ *
+ * @author rarpda
+ */
+public class FrameColorizer {
+
+    private static final int OPAQUE_BLACK = 0xFF000000;
+    /* Entries in the gradient table, and the iterations it takes to go once round it */
+    private static final int GRADIENT_SIZE = 1024;
+    private static final float GRADIENT_PERIOD = 64;
+    /* Deep blue, blue, white, orange, near black: the classic escape-time gradient, used for white */
+    public static final int[] CLASSIC_GRADIENT = {0xFF000764, 0xFF206BCB, 0xFFEDFFFF, 0xFFFFAA00, 0xFF000200};
+
+    /* Settings the current palette was built for */
+    private double paletteRed = -1;
+    private double paletteGreen = -1;
+    private double paletteBlue = -1;
+    private boolean paletteScaled;
+    private int[] palette = new int[0];
+
+    private boolean smooth;
+    private int[] gradientStops = new int[0];
+    private int[] gradient = new int[GRADIENT_SIZE];
+
+    private boolean equalised;
+    /* Histogram and palette the equalised table was built for */
+    private IterationHistogram equalisedHistogram;
+    private int[] equalisedPalette;
+    private int[] equalisedLookup = new int[0];
+    private final IterationHistogram scratchHistogram = new IterationHistogram(0);
+
+    /**
+     * Function used to make sure the palette matches the given colour and iteration budget, rebuilding it if not.
+     * Pixels which reached maxIterations are black. Otherwise, if scaleBrightness is set the colour is scaled by
+     * value / maxIterations, and if not every escaped pixel gets the colour as it is.
+     *
+     * @param red             red component of the selected colour, 0 to 1.
+     * @param green           green component of the selected colour, 0 to 1.
+     * @param blue            blue component of the selected colour, 0 to 1.
+     * @param scaleBrightness true to scale the colour with the iteration count.
+     * @param maxIterations   the iteration budget the frame was rendered with.
+     */
+    public void setPalette(double red, double green, double blue, boolean scaleBrightness, int maxIterations) {
+        if (palette.length == maxIterations + 1 && red == paletteRed && green == paletteGreen && blue == paletteBlue
+                && scaleBrightness == paletteScaled) {
+            return; /*Already built*/
+        }
+        int[] newPalette = new int[maxIterations + 1];
+        double brightnessScale = 1.0 / maxIterations; /*Set up a brightness scale*/
+        for (int value = 0; value < maxIterations; value++) {
+            double brightness = scaleBrightness ? value * brightnessScale : 1.0;
+            newPalette[value] = toArgb(red * brightness, green * brightness, blue * brightness);
+        }
+        newPalette[maxIterations] = OPAQUE_BLACK; /*Did not escape*/
+        palette = newPalette;
+        paletteRed = red;
+        paletteGreen = green;
+        paletteBlue = blue;
+        paletteScaled = scaleBrightness;
+    }
+
+    public boolean isSmooth() {
+        return smooth;
+    }
+
+    /**
+     * Function used to choose between the palette and, for frames with smooth counts, the gradient.
+     * setPalette is still needed in smooth mode, to tell which pixels reached the iteration budget.
+     */
+    public void setSmooth(boolean smooth) {
+        this.smooth = smooth;
+    }
+
+    public boolean isEqualised() {
+        return equalised;
+    }
+
+    /**
+     * Function used to choose between the palette's linear brightness and histogram equalisation. Smooth mode, for frames
+     * with smooth counts, takes precedence over both.
+     */
+    public void setEqualised(boolean equalised) {
+        this.equalised = equalised;
+    }
+
+    /**
+     * Function used to make sure the gradient goes through the given colours, rebuilding it if not.
+     * The colours are spread evenly round the cycle, interpolated linearly, and the last blends back into the first.
+     *
+     * @param stops opaque ARGB colours, at least one.
+     */
+    public void setGradient(int[] stops) {
+        if (Arrays.equals(stops, gradientStops)) {
+            return; /*Already built*/
+        }
+        int[] newGradient = new int[GRADIENT_SIZE];
+        for (int entry = 0; entry < GRADIENT_SIZE; entry++) {
+            double position = (double) entry * stops.length / GRADIENT_SIZE;
+            int stop = (int) position;
+            double weight = position - stop;
+            int from = stops[stop];
+            int to = stops[(stop + 1) % stops.length];
+            newGradient[entry] = toArgb(blend(from >> 16, to >> 16, weight), blend(from >> 8, to >> 8, weight), blend(from, to, weight));
+        }
+        gradient = newGradient;
+        gradientStops = stops.clone();
+    }
+
+    /**
+     * Function used to interpolate one 8-bit channel of two colours.
+     * @return the channel, 0 to 1.
+     */
+    private static double blend(int from, int to, double weight) {
+        return ((from & 0xFF) * (1 - weight) + (to & 0xFF) * weight) / 255.0;
+    }
+
+    /**
+     * Function used to colour a frame through the palette, or through the gradient in smooth mode if the frame has smooth counts.
+     * The image is flipped vertically, as row 0 of the frame is the lowest imaginary value and belongs at the bottom.
+     *
+     * @param frame the iteration values.
+     * @param argb  output array of at least width * height pixels, row after row, top row first.
+     */
+    public void colorFrame(FrameBuffer frame, int[] argb) {
+        if (smooth && frame.getSmooth() != null) {
+            colorFrameSmooth(frame, argb);
+            return;
+        }
+        int[] values = frame.getPixels();
+        int[] lookup = equalised ? equalisedLookup(frame) : palette;
+        int lastIndex = lookup.length - 1;
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        for (int y = 0; y < height; y++) {
+            int source = frame.rowOffset(y);
+            int target = (height - 1 - y) * width;
+            for (int x = 0; x < width; x++) {
+                int value = values[source + x];
+                argb[target + x] = lookup[value < lastIndex ? value : lastIndex];
+            }
+        }
+    }
+
+    /**
+     * Function used to anti-alias a frame already coloured by colorFrame: each refined pixel is given the average of its
+     * samples' colours, each coloured as colorFrame would colour a pixel of that value.
+     *
+     * @param frame   the frame the samples were taken from.
+     * @param samples the boundary samples of the frame.
+     * @param argb    the frame's colours, as written by colorFrame.
+     */
+    public void colorSamples(FrameBuffer frame, BoundarySamples samples, int[] argb) {
+        int[] values = samples.getValues();
+        float[] smoothValues = samples.getSmooth();
+        boolean gradientColours = smooth && smoothValues != null;
+        int[] lookup = gradientColours ? palette : equalised ? equalisedLookup(frame) : palette;
+        int lastIndex = lookup.length - 1;
+        float entriesPerIteration = GRADIENT_SIZE / GRADIENT_PERIOD;
+        int samplesPerPixel = samples.getSamplesPerPixel();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        for (int refined = 0; refined < samples.getRefinedCount(); refined++) {
+            int pixelIndex = samples.getPixelIndex(refined);
+            int red = 0;
+            int green = 0;
+            int blue = 0;
+            for (int sample = refined * samplesPerPixel; sample < (refined + 1) * samplesPerPixel; sample++) {
+                int value = values[sample];
+                int colour;
+                if (value >= lastIndex) {
+                    colour = lookup[lastIndex];
+                } else if (gradientColours) {
+                    colour = gradient[(int) (smoothValues[sample] * entriesPerIteration) & (GRADIENT_SIZE - 1)];
+                } else {
+                    colour = lookup[value];
+                }
+                red += (colour >> 16) & 0xFF;
+                green += (colour >> 8) & 0xFF;
+                blue += colour & 0xFF;
+            }
+            int half = samplesPerPixel / 2; /*Round to nearest*/
+            int y = pixelIndex / width;
+            argb[(height - 1 - y) * width + pixelIndex % width] = OPAQUE_BLACK
+                    | ((red + half) / samplesPerPixel << 16)
+                    | ((green + half) / samplesPerPixel << 8)
+                    | (blue + half) / samplesPerPixel;
+        }
+    }
+
+    /**
+     * Function used to make sure the equalised table matches the frame's histogram and the palette's colour and budget,
+     * rebuilding it if not. Entry v is the colour scaled by the share of escaped pixels at or below v; the budget is black.
+     *
+     * @return the table, with as many entries as the palette.
+     */
+    private int[] equalisedLookup(FrameBuffer frame) {
+        int maxIterations = palette.length - 1;
+        IterationHistogram histogram = frame.getHistogram();
+        if (histogram == null || histogram.getMaxIterations() != maxIterations) {
+            scratchHistogram.clear(maxIterations); /*Not counted while computed (or for another budget), count it now*/
+            int[] values = frame.getPixels();
+            for (int y = 0; y < frame.getHeight(); y++) {
+                scratchHistogram.addRun(values, frame.rowOffset(y), frame.getWidth());
+            }
+            histogram = scratchHistogram;
+        } else if (histogram == equalisedHistogram && palette == equalisedPalette) {
+            return equalisedLookup; /*Same frame contents and colour as last time*/
+        }
+        int[] lookup = new int[maxIterations + 1];
+        double scale = 1.0 / Math.max(1, histogram.getEscapedCount());
+        long cumulative = 0;
+        for (int value = 0; value < maxIterations; value++) {
+            cumulative += histogram.getCount(value);
+            double brightness = cumulative * scale;
+            lookup[value] = toArgb(paletteRed * brightness, paletteGreen * brightness, paletteBlue * brightness);
+        }
+        lookup[maxIterations] = OPAQUE_BLACK; /*Did not escape*/
+        equalisedLookup = lookup;
+        equalisedHistogram = histogram == scratchHistogram ? null : histogram; /*The scratch one changes with the next frame*/
+        equalisedPalette = palette;
+        return lookup;
+    }
+
+    /**
+     * Function used to colour a frame through the gradient at each escaped pixel's smooth count, or its integer count where
+     * it has none. Pixels which reached maxIterations (the palette's last entry) are black.
+     */
+    private void colorFrameSmooth(FrameBuffer frame, int[] argb) {
+        int[] values = frame.getPixels();
+        float[] smoothValues = frame.getSmooth();
+        int[] lookup = gradient;
+        int lastIndex = palette.length - 1;
+        float entriesPerIteration = GRADIENT_SIZE / GRADIENT_PERIOD;
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        for (int y = 0; y < height; y++) {
+            int source = frame.rowOffset(y);
+            int target = (height - 1 - y) * width;
+            for (int x = 0; x < width; x++) {
+                int value = values[source + x];
+                if (value >= lastIndex) {
+                    argb[target + x] = OPAQUE_BLACK;
+                    continue;
+                }
+                float count = smoothValues[source + x];
+                if (count != count) {
+                    count = value; /*NaN: filled in without a smooth count*/
+                }
+                argb[target + x] = lookup[(int) (count * entriesPerIteration) & (GRADIENT_SIZE - 1)];
+            }
+        }
+    }
+
+    /**
+     * Function used to pack colour components into an opaque ARGB int, rounding the same way as JavaFX.
+     */
+    static int toArgb(double red, double green, double blue) {
+        return OPAQUE_BLACK
+                | ((int) Math.round(red * 255.0) << 16)
+                | ((int) Math.round(green * 255.0) << 8)
+                | (int) Math.round(blue * 255.0);
+    }
+}
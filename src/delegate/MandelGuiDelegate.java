@@ -1,8 +1,12 @@
 package delegate;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import javax.management.JMException;
 
 import com.sun.org.apache.xml.internal.utils.ObjectStack;
 import javafx.application.Application;
@@ -17,13 +21,17 @@ import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.TextField;
-import javafx.scene.image.PixelWriter;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.paint.Color;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import model.BoundarySamples;
+import model.FrameBuffer;
 import model.MandelModel;
+import model.MandelbrotCalculator;
 import model.MandelbrotStruct;
 
 
@@ -37,6 +45,12 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
     private static final int FRAME_HEIGHT = 850; /*Size of the Frame Height*/
     private static final int FRAME_WIDTH = 850; /* Size of the Frame Width*/
     private static final int MAX_STACK_SIZE = 30; /*Maximum size of both stacks */
+    private static final String TILE_DIRECTORY = ".mandelbrot-tiles"; /*Tile store, under the user's home directory*/
+    private static final long TILE_STORAGE_BYTES = 512L * 1024 * 1024; /*Disk space the tile store is cut back to*/
+    private static final String DEFAULT_POSTER_SIZE = "8192x8192"; /*Suggested poster export size*/
+    private static final int ANIMATION_FRAMES_PER_STEP = 30; /*Animation frames between two views of the history*/
+    private static final int METRICS_LINE_HEIGHT = 15; /*Spacing of the metrics overlay lines*/
+    private static final int JULIA_PREVIEW_MARGIN = 10; /*Gap between the Julia preview inset and the canvas corner*/
 
     /*Top level components*/
     private Stage stage;
@@ -53,9 +67,14 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
     private Button colorButton;
     private RadioButton zoomMode;
     private RadioButton panMode;
+    private RadioButton juliaMode;
     private Button undoButton;
     private Button redoButton;
     private CheckBox magnificationBox;
+    private CheckBox metricsBox;
+    private CheckBox smoothBox;
+    private CheckBox equaliseBox;
+    private CheckBox autoIterationsBox;
 
     /*Model*/
     private MandelModel model;
@@ -64,15 +83,20 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
     boolean mouseDragged = false;
     mouseMode currentDragMode = mouseMode.ZOOM;
     double xPressed, xDragged, yPressed, yDragged;
-    int[][] mandelbrookData;
+    FrameBuffer mandelbrookData;
 
     enum mouseMode {
         ZOOM,
         PAN,
+        JULIA,
     }
 
     private Color colorSelected = Color.WHITE;
     WritableImage canvasImage;
+    private final FrameColorizer colorizer = new FrameColorizer();
+    private int[] argbPixels = new int[0]; /*Coloured frame, reused between draws*/
+    private final FrameColorizer previewColorizer = new FrameColorizer(); /*Own palette, as previews have their own iteration count*/
+    private final int[] previewPixels = new int[MandelModel.JULIA_PREVIEW_SIZE * MandelModel.JULIA_PREVIEW_SIZE];
 
     /*Redo and undo stacks*/
     private ObjectStack undoStack = new ObjectStack(MAX_STACK_SIZE);
@@ -166,30 +190,54 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
             drawCanvas(mandelbrookData); /*Redraw with new color*/
         });
 
+        /*Let the model pick the iteration count, shown in the iteration field*/
+        autoIterationsBox = new CheckBox("Auto iterations");
+        autoIterationsBox.setOnAction(event -> {
+            model.setAutoIterations(autoIterationsBox.isSelected());
+            iterationField.setDisable(autoIterationsBox.isSelected());
+        });
+
         magnificationBox = new CheckBox("Magnification");
         magnificationBox.setOnAction(event -> {
             drawCanvas(mandelbrookData); /*Redraw canvas with the magnification scale*/
         });
 
+        /*Fractional escape counts through a gradient, which needs a render with the smooth counts*/
+        smoothBox = new CheckBox("Smooth");
+        smoothBox.setOnAction(event -> {
+            model.setSmoothCounts(smoothBox.isSelected());
+            colorizer.setSmooth(smoothBox.isSelected());
+            canvas.setCursor(Cursor.WAIT);
+            model.generateMandelbrot();
+        });
+
+        /*Histogram-equalised brightness, from the histogram the frame already carries, so no render is needed*/
+        equaliseBox = new CheckBox("Equalise");
+        equaliseBox.setOnAction(event -> {
+            colorizer.setEqualised(equaliseBox.isSelected());
+            drawCanvas(mandelbrookData); /*Recolour the current frame*/
+        });
+
+        metricsBox = new CheckBox("Metrics");
+        metricsBox.setOnAction(event -> {
+            drawCanvas(mandelbrookData); /*Redraw canvas with the render metrics*/
+        });
+
 
         zoomMode = new RadioButton("Zoom Mode");
         zoomMode.setOnAction(event -> {
-            currentDragMode = mouseMode.ZOOM; /*Set current mouse mode. If clicked when already selected it should stay selected. */
-            if (zoomMode.isSelected()) {
-                panMode.setSelected(false);
-            } else {
-                zoomMode.setSelected(true);
-            }
+            selectMouseMode(mouseMode.ZOOM); /*If clicked when already selected it should stay selected. */
         });
 
         panMode = new RadioButton("Pan Mode");
         panMode.setOnAction(event -> {
-            currentDragMode = mouseMode.PAN;/*Set current mouse mode. If clicked when already selected it should stay selected. */
-            if (panMode.isSelected()) {
-                zoomMode.setSelected(false);
-            } else {
-                panMode.setSelected(true);
-            }
+            selectMouseMode(mouseMode.PAN);
+        });
+
+        /*Preview the Julia set of the point under the mouse, and switch to it on a click*/
+        juliaMode = new RadioButton("Julia Mode");
+        juliaMode.setOnAction(event -> {
+            selectMouseMode(mouseMode.JULIA);
         });
 
         undoButton = new Button("Undo");
@@ -222,8 +270,7 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
         });
 
         /*Set zoom ON by default. */
-        zoomMode.setSelected(true);
-        panMode.setSelected(false);
+        selectMouseMode(mouseMode.ZOOM);
 
         toolbar.getItems().add(resetButton);
         toolbar.getItems().add(startButton);
@@ -232,9 +279,14 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
         toolbar.getItems().add(colorButton);
         toolbar.getItems().add(zoomMode);
         toolbar.getItems().add(panMode);
+        toolbar.getItems().add(juliaMode);
         toolbar.getItems().add(undoButton);
         toolbar.getItems().add(redoButton);
         toolbar.getItems().add(magnificationBox);
+        toolbar.getItems().add(smoothBox);
+        toolbar.getItems().add(equaliseBox);
+        toolbar.getItems().add(metricsBox);
+        toolbar.getItems().add(autoIterationsBox);
         mainPane.setCenter(toolbar);
     }
 
@@ -245,9 +297,7 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
      */
     private void resetUI() {
         colorSelected = Color.WHITE; /*default color*/
-        zoomMode.setSelected(true); /* default to ZOOM*/
-        currentDragMode = mouseMode.ZOOM;
-        panMode.setSelected(false);
+        selectMouseMode(mouseMode.ZOOM); /* default to ZOOM*/
         /*Clear stacks*/
         redoStack = new ObjectStack(MAX_STACK_SIZE);
         undoStack = new ObjectStack(MAX_STACK_SIZE);
@@ -272,6 +322,17 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
         alert.show(); /*Create and show alert*/
     }
 
+    /**
+     * Function used to tell the user that a long-running task has finished, using the inbuilt Alert class.
+     */
+    private void showInformationMessage(String title, String message) {
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle(title);
+        alert.setHeaderText(title);
+        alert.setContentText(message);
+        alert.show();
+    }
+
     private void updateModelParameters(LogStruc logUsed) {
         colorSelected = logUsed.colorSelected; /*Update parameters */
         model.setCurrentStruct(logUsed.getParams());
@@ -286,10 +347,14 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
         MenuItem load = new MenuItem("Load");
         MenuItem save = new MenuItem("Save");
         MenuItem saveImage = new MenuItem("Save Image");
+        MenuItem exportPoster = new MenuItem("Export Poster");
+        MenuItem exportAnimation = new MenuItem("Export Zoom Animation");
         /*Add items to the menu*/
         menuOption.getItems().add(load);
         menuOption.getItems().add(save);
         menuOption.getItems().add(saveImage);
+        menuOption.getItems().add(exportPoster);
+        menuOption.getItems().add(exportAnimation);
         menuBar.getMenus().add(menuOption);
 
         /*Listener for the load option*/
@@ -318,10 +383,115 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
             fileChooser.setSelectedExtensionFilter(new FileChooser.ExtensionFilter("Image Files", "*.png"));
             File newFile = fileChooser.showSaveDialog(stage);
             if (newFile != null) {
-                /*Store image*/
-                if (!DataStorage.storeImage(canvas.snapshot(null, null), newFile)) {
-                    showErrorMessage("Image could not be saved.");
+                if (mandelbrookData == null) {
+                    /*Nothing rendered yet, store what is on the canvas*/
+                    if (!DataStorage.storeImage(canvas.snapshot(null, null), newFile)) {
+                        showErrorMessage("Image could not be saved.");
+                    }
+                    return;
                 }
+                /*Sample the boundary pixels of the frame on screen, with the view it was rendered for, off the application thread*/
+                FrameBuffer frame = mandelbrookData.retain();
+                MandelbrotStruct struct = frame.getStruct();
+                Thread saveThread = new Thread(() -> {
+                    try {
+                        /*Every export has its own calculator and pool, so exports neither hold up the view nor share state*/
+                        BoundarySamples samples = new MandelbrotCalculator().sampleBoundary(frame, struct, struct.getCentreReal(), struct.getCentreImag(),
+                                struct.getSpanReal().doubleValue() / frame.getWidth(), struct.getSpanImag().doubleValue() / frame.getHeight(),
+                                struct.getMaxIterations(), struct.getRadiusSquared(), StripeExporter.DEFAULT_THRESHOLD, StripeExporter.DEFAULT_GRID_SIZE, () -> false);
+                        Platform.runLater(() -> {
+                            storeAntiAliased(frame, samples, newFile);
+                            frame.release();
+                        });
+                    } catch (RuntimeException e) {
+                        frame.release();
+                        System.out.println(e.getMessage());
+                        Platform.runLater(() -> showErrorMessage("Image could not be saved."));
+                    }
+                }, "Image save");
+                saveThread.setDaemon(true);
+                saveThread.start();
+            }
+        });
+
+        /*Listener for the poster export: the current view at any size, rendered and written a stripe at a time*/
+        exportPoster.setOnAction(event -> {
+            TextInputDialog sizeDialog = new TextInputDialog(DEFAULT_POSTER_SIZE);
+            sizeDialog.setTitle("Export poster");
+            sizeDialog.setHeaderText(null);
+            sizeDialog.setContentText("Size (width x height):");
+            String size = sizeDialog.showAndWait().orElse(null);
+            if (size == null) {
+                return;
+            }
+            int posterWidth;
+            int posterHeight;
+            try {
+                String[] dimensions = size.toLowerCase().split("x");
+                if (dimensions.length != 2) {
+                    throw new NumberFormatException(size);
+                }
+                posterWidth = Integer.parseInt(dimensions[0].trim());
+                posterHeight = Integer.parseInt(dimensions[1].trim());
+                if (posterWidth <= 0 || posterHeight <= 0) {
+                    throw new NumberFormatException(size);
+                }
+            } catch (RuntimeException e) {
+                showErrorMessage("Size must be given as width x height.");
+                return;
+            }
+            FileChooser fileChooser = new FileChooser();
+            fileChooser.setTitle("Export poster");
+            fileChooser.setSelectedExtensionFilter(new FileChooser.ExtensionFilter("Image Files", "*.png", "*.tif", "*.ppm"));
+            File newFile = fileChooser.showSaveDialog(stage);
+            if (newFile != null) {
+                ParameterFile poster = new ParameterFile(new MandelbrotStruct(currentLog.getParams()), String.valueOf(currentLog.getColorSelected()));
+                Thread exportThread = new Thread(() -> {
+                    StripeExporter posterExporter = new StripeExporter(new MandelbrotCalculator());
+                                try {
+                        long refined = posterExporter.export(poster, posterWidth, posterHeight, newFile);
+                        model.getMetrics().recordAntiAliasing(refined, (long) posterWidth * posterHeight);
+                        Platform.runLater(() -> showExportMetrics());
+                    } catch (IOException | RuntimeException e) {
+                        System.out.println(e.getMessage());
+                        Platform.runLater(() -> showErrorMessage("Poster could not be saved."));
+                    }
+                }, "Poster export");
+                exportThread.setDaemon(true);
+                exportThread.start();
+            }
+        });
+
+        /*Listener for the animation export: a zoom through the undo history, oldest view first, up to the current view*/
+        exportAnimation.setOnAction(event -> {
+            List<MandelbrotStruct> keyframes = new ArrayList<>();
+            for (int index = 0; index < undoStack.size(); index++) {
+                keyframes.add(new MandelbrotStruct(((LogStruc) undoStack.elementAt(index)).getParams()));
+            }
+            keyframes.add(new MandelbrotStruct(currentLog.getParams()));
+            List<MandelbrotStruct> frames = ZoomAnimator.frames(keyframes, ANIMATION_FRAMES_PER_STEP);
+            if (frames.size() < 2) {
+                showErrorMessage("Zoom or pan first: the animation runs through the views in the undo history.");
+                return;
+            }
+            DirectoryChooser directoryChooser = new DirectoryChooser();
+            directoryChooser.setTitle("Export zoom animation frames");
+            File directory = directoryChooser.showDialog(stage);
+            if (directory != null) {
+                String color = String.valueOf(currentLog.getColorSelected());
+                Thread exportThread = new Thread(() -> {
+                    ZoomAnimator animator = new ZoomAnimator(new MandelbrotCalculator(), FRAME_WIDTH, FRAME_HEIGHT, Runtime.getRuntime().availableProcessors());
+                    try {
+                        animator.render(frames, color, directory);
+                        String report = animator.getReport();
+                        Platform.runLater(() -> showInformationMessage("Animation saved", frames.size() + " frames written to " + directory + "\n\n" + report));
+                    } catch (IOException | RuntimeException e) {
+                        String cause = e.getMessage() != null ? e.getMessage() : e.toString();
+                        Platform.runLater(() -> showErrorMessage("Animation could not be saved: " + cause));
+                    }
+                }, "Animation export");
+                exportThread.setDaemon(true);
+                exportThread.start();
             }
         });
 
@@ -361,55 +531,104 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
     public void propertyChange(final PropertyChangeEvent event) {
 
         if ((event.getSource() == model) && event.getPropertyName().equals(MandelModel.DATA_READY_EVENT)) {
-            System.out.println("Event: " + MandelModel.DATA_READY_EVENT);
             Platform.runLater(new Runnable() {
                 public void run() {
-                    mandelbrookData = (int[][]) event.getNewValue();/*New Data*/
+                    if (mandelbrookData != null) {
+                        mandelbrookData.release(); /*Hand the old frame back to the model for reuse*/
+                    }
+                    mandelbrookData = (FrameBuffer) event.getNewValue();/*New Data*/
                     drawCanvas(mandelbrookData); /* Draw data*/
                 }
             });
+        } else if ((event.getSource() == model) && event.getPropertyName().equals(MandelModel.ITERATIONS_CHOSEN_EVENT)) {
+            Platform.runLater(new Runnable() {
+                public void run() {
+                    MandelbrotStruct chosen = (MandelbrotStruct) event.getNewValue();
+                    /*Only while that view is still the current one; a raised budget can arrive after the user moved on*/
+                    if (model.getCurrentStruct().isSameView(chosen)) {
+                        model.getCurrentStruct().setMaxIterations(chosen.getMaxIterations()); /*So the frame is coloured with its own budget*/
+                        iterationField.setText(Integer.toString(chosen.getMaxIterations()));
+                    }
+                }
+            });
+        } else if ((event.getSource() == model) && event.getPropertyName().equals(MandelModel.PREVIEW_READY_EVENT)) {
+            Platform.runLater(new Runnable() {
+                public void run() {
+                    FrameBuffer preview = (FrameBuffer) event.getNewValue();
+                    drawPixels(preview); /* Draw the coarse preview only, the final frame follows*/
+                    preview.release();
+                }
+            });
+        } else if ((event.getSource() == model) && event.getPropertyName().equals(MandelModel.ERROR_EVENT)) {
+            Platform.runLater(new Runnable() {
+                public void run() {
+                    showErrorMessage((String) event.getNewValue());
+                }
+            });
+        } else if ((event.getSource() == model) && event.getPropertyName().equals(MandelModel.JULIA_PREVIEW_EVENT)) {
+            Platform.runLater(new Runnable() {
+                public void run() {
+                    FrameBuffer preview = (FrameBuffer) event.getNewValue();
+                    /*Only while the mouse is still over the Mandelbrot set in Julia mode*/
+                    if (currentDragMode == mouseMode.JULIA && canvas.isHover() && !model.getCurrentStruct().isJulia()) {
+                        drawJuliaPreview(preview);
+                    }
+                    preview.release();
+                }
+            });
         }
     }
 
+    /**
+     * Function used to draw a Julia preview as an inset in the top right corner of the current frame.
+     *
+     * @param preview Frame of the Julia set under the mouse.
+     */
+    private void drawJuliaPreview(FrameBuffer preview) {
+        previewColorizer.setPalette(colorSelected.getRed(), colorSelected.getGreen(), colorSelected.getBlue(), colorSelected != Color.WHITE,
+                Math.min(model.getCurrentStruct().getMaxIterations(), MandelModel.JULIA_PREVIEW_MAX_ITERATIONS));
+        previewColorizer.colorFrame(preview, previewPixels);
+        double insetX = canvas.getWidth() - preview.getWidth() - JULIA_PREVIEW_MARGIN;
+        canvas.getGraphicsContext2D().drawImage(canvasImage, 0, 0); /*Remove the previous inset*/
+        canvas.getGraphicsContext2D().getPixelWriter().setPixels((int) insetX, JULIA_PREVIEW_MARGIN, preview.getWidth(), preview.getHeight(),
+                PixelFormat.getIntArgbPreInstance(), previewPixels, 0, preview.getWidth());
+        canvas.getGraphicsContext2D().setStroke(Color.GREEN);
+        canvas.getGraphicsContext2D().setLineWidth(1);
+        canvas.getGraphicsContext2D().strokeRect(insetX, JULIA_PREVIEW_MARGIN, preview.getWidth(), preview.getHeight());
+    }
+
+    /**
+     * Function used to set the mouse mode and select its button only.
+     */
+    private void selectMouseMode(mouseMode mode) {
+        currentDragMode = mode;
+        zoomMode.setSelected(mode == mouseMode.ZOOM);
+        panMode.setSelected(mode == mouseMode.PAN);
+        juliaMode.setSelected(mode == mouseMode.JULIA);
+    }
+
     /**
      * Function used to draw the canvas
      *
-     * @param dataArray Array containing drawing information.
+     * @param frame Frame containing drawing information.
      */
-    private void drawCanvas(int[][] dataArray) {
-        PixelWriter writer = canvas.getGraphicsContext2D().getPixelWriter();
-        double brightnessScale = 1.0 / model.getCurrentStruct().getMaxIterations(); /*Set up a brightness scale*/
-
-        /*iterate through array. each element is equivalent to a pixel in the canvas.*/
-        for (int height = 0; height < dataArray.length; height++) {
-            for (int width = 0; width < dataArray[height].length; width++) {
-                int value = dataArray[height][width]; /*Mandlebrook value*/
-                Color newColor; /*color to draw.*/
-                /*If it didn't escape draw a black pixel*/
-                if (value == model.getCurrentStruct().getMaxIterations()) {
-                    newColor = Color.BLACK;
-                } else {
-                    /*If color selected is white do not apply the brightness scaling.*/
-                    if (colorSelected != Color.WHITE) {
-                        /*Apply scalign to red, green and blue colors and  create new color.*/
-                        double red = colorSelected.getRed() * ((double) value * brightnessScale);
-                        double green = colorSelected.getGreen() * ((double) value * brightnessScale);
-                        double blue = colorSelected.getBlue() * ((double) value * brightnessScale);
-                        newColor = Color.color(red, green, blue);
-                    } else {
-                        newColor = colorSelected;
-                    }
-                }
-                /*Write new color.*/
-                writer.setColor(width, (FRAME_WIDTH - 1) - height, newColor);
-            }
-        }
+    private void drawCanvas(FrameBuffer frame) {
+        drawPixels(frame);
         /*Write the magnification scale if checkbox is ticked.*/
         if (magnificationBox.isSelected()) {
             canvas.getGraphicsContext2D().setLineWidth(1);
             canvas.getGraphicsContext2D().setStroke(Color.GREEN);
             canvas.getGraphicsContext2D().strokeText("Magnification value" + model.getMagnificationValue() + "x", 20, 20);
         }
+        /*Write the render metrics below it if checkbox is ticked.*/
+        if (metricsBox.isSelected()) {
+            canvas.getGraphicsContext2D().setLineWidth(1);
+            canvas.getGraphicsContext2D().setStroke(Color.GREEN);
+            String[] lines = model.getMetrics().getSummary().split(System.lineSeparator());
+            for (int line = 0; line < lines.length; line++) {
+                canvas.getGraphicsContext2D().strokeText(lines[line], 20, 20 + (line + 1) * METRICS_LINE_HEIGHT);
+            }
+        }
         /*Set cursor to default*/
         canvas.setCursor(Cursor.DEFAULT);
         /*Save a snapshot of canvas into a WritableImage to be displayed later if needed. */
@@ -417,6 +636,73 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
         iterationField.setText(Integer.toString(model.getCurrentStruct().getMaxIterations())); /* Always update the iteration field ot the current one. */
     }
 
+    /**
+     * Function used to colour the data into the canvas pixels.
+     *
+     * @param frame Frame containing drawing information.
+     */
+    private void drawPixels(FrameBuffer frame) {
+        /*Palette only changes when the color or iteration count does; white is drawn without brightness scaling.
+          The frame's own budget is used, which the current struct may not have caught up with.*/
+        colorizer.setPalette(colorSelected.getRed(), colorSelected.getGreen(), colorSelected.getBlue(),
+                colorSelected != Color.WHITE, frame.getStruct().getMaxIterations());
+        colorizer.setGradient(gradientStops(colorSelected));
+        if (argbPixels.length != frame.getWidth() * frame.getHeight()) {
+            argbPixels = new int[frame.getWidth() * frame.getHeight()];
+        }
+        long colourStart = System.nanoTime();
+        colorizer.colorFrame(frame, argbPixels);
+        long blitStart = System.nanoTime();
+        /*Write every pixel in one go.*/
+        canvas.getGraphicsContext2D().getPixelWriter().setPixels(0, 0, frame.getWidth(), frame.getHeight(),
+                PixelFormat.getIntArgbPreInstance(), argbPixels, 0, frame.getWidth());
+        model.getMetrics().recordDraw(blitStart - colourStart, System.nanoTime() - blitStart);
+    }
+
+
+    /**
+     * Function used to colour a frame as drawPixels does, anti-alias its boundary pixels and store it as an image.
+     *
+     * @param frame   the frame to store.
+     * @param samples the frame's boundary samples.
+     * @param file    the file to write.
+     */
+    private void storeAntiAliased(FrameBuffer frame, BoundarySamples samples, File file) {
+        int[] argb = new int[frame.getWidth() * frame.getHeight()];
+        colorizer.colorFrame(frame, argb);
+        colorizer.colorSamples(frame, samples, argb);
+        WritableImage image = new WritableImage(frame.getWidth(), frame.getHeight());
+        image.getPixelWriter().setPixels(0, 0, frame.getWidth(), frame.getHeight(), PixelFormat.getIntArgbPreInstance(), argb, 0, frame.getWidth());
+        if (DataStorage.storeImage(image, file)) {
+            model.getMetrics().recordAntiAliasing(samples.getRefinedCount(), argb.length);
+            showExportMetrics();
+        } else {
+            showErrorMessage("Image could not be saved.");
+        }
+    }
+
+    /**
+     * Function used to redraw the frame on screen if the metrics overlay is shown, so it includes the last export's
+     * anti-aliasing count.
+     */
+    private void showExportMetrics() {
+        if (metricsBox.isSelected() && mandelbrookData != null) {
+            drawCanvas(mandelbrookData);
+        }
+    }
+
+    /**
+     * Function used to pick the smooth colouring gradient for the selected colour: the classic blue and orange one for white,
+     * otherwise black through the colour to white.
+     */
+    private static int[] gradientStops(Color color) {
+        if (color == Color.WHITE) {
+            return FrameColorizer.CLASSIC_GRADIENT;
+        }
+        return new int[]{FrameColorizer.toArgb(0, 0, 0),
+                FrameColorizer.toArgb(color.getRed(), color.getGreen(), color.getBlue()),
+                FrameColorizer.toArgb(1, 1, 1)};
+    }
 
     /**
      * Function used to keep track of undo and redo stack.
@@ -434,7 +720,6 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
         previousLog = new LogStruc(currentLog); /*Update previous log*/
         redoStack = new ObjectStack(MAX_STACK_SIZE); /*Clear redo stack*/
         redoButton.setDisable(true); /*Disable redo button. */
-        System.out.println("Log stack size: " + undoStack.size());
     }
 
     @Override
@@ -446,6 +731,11 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
         toolbar = new ToolBar();
         this.canvas = new Canvas(FRAME_WIDTH, FRAME_HEIGHT);
         this.model = MandelModel.getInstance((int) this.canvas.getWidth(), (int) this.canvas.getHeight()); /*Pass the X and Y resolution*/
+        try {
+            model.getMetrics().register(); /*Visible in JConsole as mandelbrot:type=RenderMetrics*/
+        } catch (JMException e) {
+            System.out.println(e.getMessage()); /*The overlay still works*/
+        }
         menuBar = new MenuBar();
         setupComponents();
         setupMouseListener();
@@ -453,6 +743,12 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
         stage.setScene(scene);
         stage.show();
         model.addObserver(this);
+        try {
+            /*Keep rendered tiles between runs; opened once observing, so problems found opening it are shown*/
+            model.getTileCache().setStore(new TileStorage(new File(System.getProperty("user.home"), TILE_DIRECTORY), TILE_STORAGE_BYTES, model::reportError));
+        } catch (IOException e) {
+            model.reportError("Rendered tiles will not be kept between runs: " + e.getMessage()); /*Carry on with the memory cache only*/
+        }
 
         resetUI(); /*Always reset the UI*/
     }
@@ -493,6 +789,24 @@ public class MandelGuiDelegate extends Application implements PropertyChangeList
                         /*Mode unsupported. Ignore*/
                         break;
                 }
+            } else if (currentDragMode == mouseMode.JULIA && !model.getCurrentStruct().isJulia()) {
+                /*A click picks the Julia set's constant; zoom mode is restored to explore it*/
+                canvas.setCursor(Cursor.WAIT);
+                model.showJulia(event.getX(), event.getY());
+                addLog();
+                selectMouseMode(mouseMode.ZOOM);
+            }
+        });
+
+        canvas.setOnMouseMoved(event -> {
+            if (currentDragMode == mouseMode.JULIA && !model.getCurrentStruct().isJulia()) {
+                model.previewJulia(event.getX(), event.getY()); /*Drawn when JULIA_PREVIEW_EVENT arrives*/
+            }
+        });
+
+        canvas.setOnMouseExited(event -> {
+            if (currentDragMode == mouseMode.JULIA && canvasImage != null) {
+                canvas.getGraphicsContext2D().drawImage(canvasImage, 0, 0); /*Remove the preview inset*/
             }
         });
 
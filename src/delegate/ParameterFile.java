@@ -0,0 +1,193 @@
+package delegate;
+
+import model.MandelbrotStruct;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.List;
+
+
+/**
+ * The saved parameter format: one "name TAB value" line per parameter. It does not depend on JavaFX, so it can be
+ * read by the headless tools as well as by DataStorage; the colour is kept as the text JavaFX writes (0xRRGGBBAA).
+ *
+ * @author rarpda
+ */
+public class ParameterFile {
+
+    final static String COLOR_NAME = "Color";
+    final static String MAX_ITERATIONS_NAME = "Max Iterations";
+    final static String MAX_IMAG_NAME = "Max Imag";
+    final static String MIN_IMAG_NAME = "Min Imag";
+    final static String MAX_REAL_NAME = "Max Real";
+    final static String MIN_REAL_NAME = "Min Real";
+    final static String RADIUS_SQUARE_NAME = "Radius Squared";
+    final static String CENTRE_REAL_NAME = "Centre Real";
+    final static String CENTRE_IMAG_NAME = "Centre Imag";
+    final static String SPAN_REAL_NAME = "Real Span";
+    final static String SPAN_IMAG_NAME = "Imag Span";
+    final static String JULIA_REAL_NAME = "Julia Real";
+    final static String JULIA_IMAG_NAME = "Julia Imag";
+    final static int LEGACY_INPUTS_STORED = 7; /* Files saved before the exact view was stored */
+    final static int NUMBER_INPUTS_STORED = 11; /* Inputs of a Mandelbrot view*/
+    final static int JULIA_INPUTS_STORED = 13; /* Inputs of a Julia view, which adds its constant */
+    final static int PARAMETER_ELEMENT_COUNT = 2; /* Attribute name and value size */
+    final static String WHITE = "0xffffffff"; /* JavaFX's text for Color.WHITE */
+
+    private final MandelbrotStruct params;
+    private final String color;
+
+    /**
+     * @param params the view and iteration settings.
+     * @param color  the colour as JavaFX writes it, e.g. 0xff0000ff.
+     */
+    public ParameterFile(MandelbrotStruct params, String color) {
+        this.params = params;
+        this.color = color;
+    }
+
+    public MandelbrotStruct getParams() {
+        return params;
+    }
+
+    public String getColor() {
+        return color;
+    }
+
+    /**
+     * @return true if the colour is white, which is drawn without brightness scaling.
+     */
+    public boolean isWhite() {
+        return color == null || WHITE.equals(color);
+    }
+
+    /**
+     * Function used to split the colour into red, green and blue components from 0 to 1.
+     * Missing or unreadable colours give white.
+     */
+    public double[] getColorComponents() {
+        try {
+            long rgba = Long.parseLong(color.substring(2), 16);
+            return new double[]{((rgba >> 24) & 0xFF) / 255.0, ((rgba >> 16) & 0xFF) / 255.0, ((rgba >> 8) & 0xFF) / 255.0};
+        } catch (RuntimeException e) {
+            return new double[]{1.0, 1.0, 1.0};
+        }
+    }
+
+    /**
+     * Function used to write the parameters out as text, one line each.
+     */
+    public String format() {
+        String dataLog = "";
+        dataLog += COLOR_NAME + "\t" + color + "\n";
+        dataLog += MAX_ITERATIONS_NAME + "\t" + params.getMaxIterations() + "\n";
+        dataLog += MAX_IMAG_NAME + "\t" + params.getMaxImag() + "\n";
+        dataLog += MIN_IMAG_NAME + "\t" + params.getMinImag() + "\n";
+        dataLog += MAX_REAL_NAME + "\t" + params.getMaxReal() + "\n";
+        dataLog += MIN_REAL_NAME + "\t" + params.getMinReal() + "\n";
+        dataLog += RADIUS_SQUARE_NAME + "\t" + params.getRadiusSquared() + "\n";
+        /*Exact view, so deep zooms reload exactly; the bounds above stay for older readers*/
+        dataLog += CENTRE_REAL_NAME + "\t" + params.getCentreReal() + "\n";
+        dataLog += CENTRE_IMAG_NAME + "\t" + params.getCentreImag() + "\n";
+        dataLog += SPAN_REAL_NAME + "\t" + params.getSpanReal() + "\n";
+        dataLog += SPAN_IMAG_NAME + "\t" + params.getSpanImag() + "\n";
+        if (params.isJulia()) {
+            dataLog += JULIA_REAL_NAME + "\t" + params.getJuliaReal() + "\n";
+            dataLog += JULIA_IMAG_NAME + "\t" + params.getJuliaImag() + "\n";
+        }
+        return dataLog;
+    }
+
+    /**
+     * Function ot load parameters from a text file.
+     *
+     * @throws IOException if the file cannot be read or is not in the parameter format.
+     */
+    public static ParameterFile read(File file) throws IOException {
+        try {
+            return parse(Files.readAllLines(file.toPath()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Function used to read parameters from the lines of a saved file, either the current format (with the constant
+     * of a Julia view) or the older one without the exact view.
+     *
+     * @throws IllegalArgumentException if the lines are not in the parameter format.
+     */
+    public static ParameterFile parse(List<String> stringData) {
+        /*Check format of input*/
+        if (stringData.size() != NUMBER_INPUTS_STORED && stringData.size() != JULIA_INPUTS_STORED && stringData.size() != LEGACY_INPUTS_STORED) {
+            throw new IllegalArgumentException("Input not valid");
+        }
+        MandelbrotStruct localStruct = new MandelbrotStruct();
+        String color = null;
+        BigDecimal centreReal = null;
+        BigDecimal centreImag = null;
+        BigDecimal spanReal = null;
+        BigDecimal spanImag = null;
+        Double juliaReal = null;
+        Double juliaImag = null;
+        /*Process parameter*/
+        for (int lineIndex = 0; lineIndex < stringData.size(); lineIndex++) {
+            /* Separate parameter*/
+            String[] parameterArray = stringData.get(lineIndex).split("\t");
+
+            /* Check parameter type and value pair exist. */
+            if (parameterArray.length != PARAMETER_ELEMENT_COUNT) {
+                throw new IllegalArgumentException("Input not valid");
+            }
+            String parameter = parameterArray[0];
+            String parameterValue = parameterArray[1];
+            /*Check if data is correct.*/
+            if (parameter.contains(COLOR_NAME)) {
+                color = parameterValue;
+            } else if (parameter.contains(MAX_ITERATIONS_NAME)) {
+                localStruct.setMaxIterations(Integer.parseInt(parameterValue));
+            } else if (parameter.contains(MAX_IMAG_NAME)) {
+                localStruct.setMaxImag(Double.parseDouble(parameterValue));
+            } else if (parameter.contains(MIN_IMAG_NAME)) {
+                localStruct.setMinImag(Double.parseDouble(parameterValue));
+            } else if (parameter.contains(MAX_REAL_NAME)) {
+                localStruct.setMaxReal(Double.parseDouble(parameterValue));
+            } else if (parameter.contains(MIN_REAL_NAME)) {
+                localStruct.setMinReal(Double.parseDouble(parameterValue));
+            } else if (parameter.contains(RADIUS_SQUARE_NAME)) {
+                localStruct.setRadiusSquared(Double.parseDouble(parameterValue));
+            } else if (parameter.contains(CENTRE_REAL_NAME)) {
+                centreReal = new BigDecimal(parameterValue);
+            } else if (parameter.contains(CENTRE_IMAG_NAME)) {
+                centreImag = new BigDecimal(parameterValue);
+            } else if (parameter.contains(SPAN_REAL_NAME)) {
+                spanReal = new BigDecimal(parameterValue);
+            } else if (parameter.contains(SPAN_IMAG_NAME)) {
+                spanImag = new BigDecimal(parameterValue);
+            } else if (parameter.contains(JULIA_REAL_NAME)) {
+                juliaReal = Double.parseDouble(parameterValue);
+            } else if (parameter.contains(JULIA_IMAG_NAME)) {
+                juliaImag = Double.parseDouble(parameterValue);
+            } else {
+                throw new IllegalArgumentException("Input not valid");
+            }
+        }
+        /*The exact view replaces the rounded bounds when present*/
+        if (stringData.size() != LEGACY_INPUTS_STORED) {
+            if (centreReal == null || centreImag == null || spanReal == null || spanImag == null) {
+                throw new IllegalArgumentException("Input not valid");
+            }
+            localStruct.setCentre(centreReal, centreImag);
+            localStruct.setSpan(spanReal, spanImag);
+        }
+        if (stringData.size() == JULIA_INPUTS_STORED) {
+            if (juliaReal == null || juliaImag == null) {
+                throw new IllegalArgumentException("Input not valid");
+            }
+            localStruct.setJulia(juliaReal, juliaImag);
+        }
+        return new ParameterFile(localStruct, color);
+    }
+}
@@ -0,0 +1,199 @@
+package delegate;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+
+/**
+ * Streaming PNG writer (8-bit RGB) which needs neither JavaFX nor AWT, so images can be written headless.
+ * Rows are handed over in order, in as many calls as wanted, and are compressed as they arrive; only one row and
+ * the compressor's window are held, so the image never has to be in memory as a whole.
+ * Every row uses the Sub filter, which suits the smooth runs of colour in a render and costs one subtraction a byte.
+ *
+ * @author rarpda
+ */
+public class PngEncoder implements RowEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int BIT_DEPTH = 8;
+    private static final int COLOUR_TYPE_RGB = 2;
+    private static final int BYTES_PER_PIXEL = 3;
+    private static final byte FILTER_SUB = 1;
+    private static final int IDAT_CHUNK_BYTES = 1 << 16; /* Compressed bytes collected per IDAT chunk */
+
+    private final DataOutputStream output;
+    private final DeflaterOutputStream compressor;
+    private final Deflater deflater;
+    private final int width;
+    private final int height;
+    private final byte[] row;
+    private int rowsWritten;
+
+    /**
+     * Writes the PNG header; the rows then follow through writeRows.
+     *
+     * @param output where the image is written; closed by close().
+     * @param width  width of the image in pixels.
+     * @param height height of the image in pixels.
+     * @throws IOException if the header cannot be written.
+     */
+    public PngEncoder(OutputStream output, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image size must be positive: " + width + "x" + height);
+        }
+        this.output = new DataOutputStream(output);
+        this.width = width;
+        this.height = height;
+        this.row = new byte[1 + width * BYTES_PER_PIXEL];
+        this.output.write(SIGNATURE);
+        ImageHeader header = new ImageHeader(width, height);
+        writeChunk("IHDR", header.bytes, header.bytes.length);
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        compressor = new DeflaterOutputStream(new IdatStream(), deflater, IDAT_CHUNK_BYTES);
+    }
+
+    @Override
+    public void writeRows(int[] argb, int offset, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("Image has only " + height + " rows");
+        }
+        for (int rowIndex = 0; rowIndex < rows; rowIndex++) {
+            int source = offset + rowIndex * width;
+            row[0] = FILTER_SUB;
+            int previousRed = 0;
+            int previousGreen = 0;
+            int previousBlue = 0;
+            int target = 1;
+            for (int x = 0; x < width; x++) {
+                int pixel = argb[source + x];
+                int red = (pixel >> 16) & 0xFF;
+                int green = (pixel >> 8) & 0xFF;
+                int blue = pixel & 0xFF;
+                row[target++] = (byte) (red - previousRed);
+                row[target++] = (byte) (green - previousGreen);
+                row[target++] = (byte) (blue - previousBlue);
+                previousRed = red;
+                previousGreen = green;
+                previousBlue = blue;
+            }
+            compressor.write(row);
+        }
+        rowsWritten += rows;
+    }
+
+    /**
+     * Function used to finish the image and close the output.
+     *
+     * @throws IOException if the image is incomplete or cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsWritten != height) {
+                throw new IOException("Image closed after " + rowsWritten + " of " + height + " rows");
+            }
+            compressor.finish();
+            compressor.flush();
+            writeChunk("IEND", new byte[0], 0);
+            output.flush();
+        } finally {
+            deflater.end();
+            output.close();
+        }
+    }
+
+    /**
+     * Function used to write a whole image to a file.
+     *
+     * @param argb pixels as ARGB ints, row after row, top row first.
+     */
+    public static void write(File file, int[] argb, int width, int height) throws IOException {
+        try (PngEncoder encoder = new PngEncoder(new BufferedOutputStream(new FileOutputStream(file)), width, height)) {
+            encoder.writeRows(argb, 0, height);
+        }
+    }
+
+    /**
+     * Function used to write one chunk: length, type, data and the CRC of type and data.
+     */
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        output.writeInt(length);
+        output.write(typeBytes);
+        output.write(data, 0, length);
+        output.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * The IHDR fields.
+     */
+    private static class ImageHeader {
+        private final byte[] bytes = new byte[13];
+
+        ImageHeader(int width, int height) {
+            putInt(0, width);
+            putInt(4, height);
+            bytes[8] = BIT_DEPTH;
+            bytes[9] = COLOUR_TYPE_RGB;
+            bytes[10] = 0; /*Deflate*/
+            bytes[11] = 0; /*Adaptive filtering*/
+            bytes[12] = 0; /*Not interlaced*/
+        }
+
+        private void putInt(int index, int value) {
+            bytes[index] = (byte) (value >>> 24);
+            bytes[index + 1] = (byte) (value >>> 16);
+            bytes[index + 2] = (byte) (value >>> 8);
+            bytes[index + 3] = (byte) value;
+        }
+    }
+
+    /**
+     * Receives the compressed stream and writes it out as IDAT chunks of up to IDAT_CHUNK_BYTES.
+     */
+    private class IdatStream extends OutputStream {
+        private final byte[] buffer = new byte[IDAT_CHUNK_BYTES];
+        private int count;
+
+        @Override
+        public void write(int value) throws IOException {
+            if (count == buffer.length) {
+                flush();
+            }
+            buffer[count++] = (byte) value;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length) {
+                    flush();
+                }
+                int copied = Math.min(length, buffer.length - count);
+                System.arraycopy(data, offset, buffer, count, copied);
+                count += copied;
+                offset += copied;
+                length -= copied;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                writeChunk("IDAT", buffer, count);
+                count = 0;
+            }
+        }
+    }
+}
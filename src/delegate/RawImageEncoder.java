@@ -0,0 +1,152 @@
+package delegate;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Streaming writer for uncompressed 8-bit RGB images: binary PPM, or baseline TIFF with the whole image in one strip.
+ * Both have a header whose size is known before any pixel, after which the rows are written out as they arrive,
+ * so the cost per row is a copy and only one row is held. Much faster than PNG, at three bytes a pixel on disk.
+ *
+ * @author rarpda
+ */
+public class RawImageEncoder implements RowEncoder {
+
+    private static final int BYTES_PER_PIXEL = 3;
+    private static final long TIFF_MAX_BYTES = 0xFFFFFFFFL; /* Offsets in a TIFF are 32 bit */
+    private static final int TIFF_ENTRIES = 10;
+    private static final int TIFF_IFD_OFFSET = 8;
+    private static final int TIFF_BITS_OFFSET = TIFF_IFD_OFFSET + 2 + TIFF_ENTRIES * 12 + 4; /* Just after the IFD */
+    private static final int TIFF_DATA_OFFSET = TIFF_BITS_OFFSET + 3 * 2;
+    private static final short TIFF_SHORT = 3;
+    private static final short TIFF_LONG = 4;
+
+    /**
+     * The supported file formats.
+     */
+    public enum Format {
+        /** Netpbm binary pixmap (P6). */
+        PPM,
+        /** Baseline TIFF, little-endian, no compression. */
+        TIFF
+    }
+
+    private final DataOutputStream output;
+    private final int width;
+    private final int height;
+    private final byte[] row;
+    private int rowsWritten;
+
+    /**
+     * Writes the header of the given format; the rows then follow through writeRows.
+     *
+     * @param output where the image is written; closed by close().
+     * @throws IOException if the header cannot be written, or the image is too large for a TIFF.
+     */
+    public RawImageEncoder(OutputStream output, Format format, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image size must be positive: " + width + "x" + height);
+        }
+        this.output = new DataOutputStream(output);
+        this.width = width;
+        this.height = height;
+        this.row = new byte[width * BYTES_PER_PIXEL];
+        if (format == Format.PPM) {
+            this.output.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+        } else {
+            writeTiffHeader();
+        }
+    }
+
+    /**
+     * Function used to write the TIFF header and its one image file directory, pointing at a single strip.
+     */
+    private void writeTiffHeader() throws IOException {
+        long imageBytes = (long) width * height * BYTES_PER_PIXEL;
+        if (TIFF_DATA_OFFSET + imageBytes > TIFF_MAX_BYTES) {
+            throw new IOException("Image of " + width + "x" + height + " is too large for a TIFF");
+        }
+        output.write(new byte[]{'I', 'I', 42, 0});
+        writeLittleInt(TIFF_IFD_OFFSET);
+        writeLittleShort(TIFF_ENTRIES);
+        /*Entries in ascending tag order*/
+        writeTiffEntry(256, TIFF_LONG, 1, width); /*ImageWidth*/
+        writeTiffEntry(257, TIFF_LONG, 1, height); /*ImageLength*/
+        writeTiffEntry(258, TIFF_SHORT, 3, TIFF_BITS_OFFSET); /*BitsPerSample, 8,8,8 after the directory*/
+        writeTiffEntry(259, TIFF_SHORT, 1, 1); /*Compression: none*/
+        writeTiffEntry(262, TIFF_SHORT, 1, 2); /*PhotometricInterpretation: RGB*/
+        writeTiffEntry(273, TIFF_LONG, 1, TIFF_DATA_OFFSET); /*StripOffsets*/
+        writeTiffEntry(277, TIFF_SHORT, 1, BYTES_PER_PIXEL); /*SamplesPerPixel*/
+        writeTiffEntry(278, TIFF_LONG, 1, height); /*RowsPerStrip*/
+        writeTiffEntry(279, TIFF_LONG, 1, (int) imageBytes); /*StripByteCounts*/
+        writeTiffEntry(284, TIFF_SHORT, 1, 1); /*PlanarConfiguration: interleaved*/
+        writeLittleInt(0); /*No further directory*/
+        for (int sample = 0; sample < BYTES_PER_PIXEL; sample++) {
+            writeLittleShort(8);
+        }
+    }
+
+    /**
+     * Function used to write one directory entry. Values of a single SHORT sit in the first two bytes of the value field.
+     */
+    private void writeTiffEntry(int tag, short type, int count, int value) throws IOException {
+        writeLittleShort(tag);
+        writeLittleShort(type);
+        writeLittleInt(count);
+        if (type == TIFF_SHORT && count == 1) {
+            writeLittleShort(value);
+            writeLittleShort(0);
+        } else {
+            writeLittleInt(value);
+        }
+    }
+
+    private void writeLittleShort(int value) throws IOException {
+        output.write(value);
+        output.write(value >>> 8);
+    }
+
+    private void writeLittleInt(int value) throws IOException {
+        writeLittleShort(value);
+        writeLittleShort(value >>> 16);
+    }
+
+    @Override
+    public void writeRows(int[] argb, int offset, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("Image has only " + height + " rows");
+        }
+        for (int rowIndex = 0; rowIndex < rows; rowIndex++) {
+            int source = offset + rowIndex * width;
+            int target = 0;
+            for (int x = 0; x < width; x++) {
+                int pixel = argb[source + x];
+                row[target++] = (byte) (pixel >> 16);
+                row[target++] = (byte) (pixel >> 8);
+                row[target++] = (byte) pixel;
+            }
+            output.write(row);
+        }
+        rowsWritten += rows;
+    }
+
+    /**
+     * Function used to finish the image and close the output.
+     *
+     * @throws IOException if the image is incomplete or cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsWritten != height) {
+                throw new IOException("Image closed after " + rowsWritten + " of " + height + " rows");
+            }
+            output.flush();
+        } finally {
+            output.close();
+        }
+    }
+}
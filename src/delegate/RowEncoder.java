@@ -0,0 +1,24 @@
+package delegate;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+
+/**
+ * An image writer which takes the image a few rows at a time, top row first, so images larger than the heap can be
+ * written. close() finishes the file once every row has been written.
+ *
+ * @author rarpda
+ */
+public interface RowEncoder extends Closeable {
+
+    /**
+     * Function used to append rows to the image.
+     *
+     * @param argb   pixels as ARGB ints (the alpha is dropped), row after row, one image width each.
+     * @param offset index in argb of the first pixel of the first row.
+     * @param rows   the number of rows to write.
+     * @throws IOException if the rows cannot be written.
+     */
+    void writeRows(int[] argb, int offset, int rows) throws IOException;
+}
@@ -0,0 +1,200 @@
+package delegate;
+
+import model.BoundarySamples;
+import model.FrameBuffer;
+import model.MandelbrotCalculator;
+import model.MandelbrotStruct;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Exports a view at any resolution without holding the image: it is rendered in horizontal stripes, top first, and
+ * each stripe is coloured and streamed into the encoder before the next is needed. At most two stripes are held, one
+ * being rendered while the previous one is encoded on a separate thread, so memory depends on the width alone
+ * (about 12 bytes a pixel of a stripe of STRIPE_PIXELS pixels: 24 MB, whatever the height).
+ *
+ * Each stripe is rendered with calcMandelbrotCentred around its own centre, on the same pixel lattice as the whole
+ * view, so every depth the GUI can reach exports with the arithmetic it needs.
+ *
+ * With anti-aliasing on, the boundary pixels of each stripe are then sampled on a jittered sub-pixel grid (see
+ * MandelbrotCalculator.sampleBoundary) and given the average colour of their samples. Boundaries are found within a
+ * stripe, so a pixel on a stripe's first or last row is only refined for the neighbours inside it.
+ *
+ * @author rarpda
+ */
+public class StripeExporter {
+
+    final static int STRIPE_PIXELS = 1 << 21; /* Pixels rendered per stripe */
+    final static String PPM_SUFFIX = ".ppm";
+    final static String TIFF_SUFFIX = ".tif";
+    final static String TIFF_LONG_SUFFIX = ".tiff";
+    /* Anti-aliasing: samples along each side of a refined pixel, and the iteration difference that makes a boundary */
+    final static int DEFAULT_GRID_SIZE = 4;
+    final static int DEFAULT_THRESHOLD = 8;
+    private static final BigDecimal HALF = new BigDecimal("0.5");
+
+    private final MandelbrotCalculator calculator;
+    private int gridSize; /* 0 when anti-aliasing is off */
+    private int threshold = DEFAULT_THRESHOLD;
+
+    /**
+     * @param calculator the calculator stripes are rendered with.
+     */
+    public StripeExporter(MandelbrotCalculator calculator) {
+        this.calculator = calculator;
+    }
+
+    /**
+     * Function used to turn adaptive anti-aliasing on with DEFAULT_GRID_SIZE x DEFAULT_GRID_SIZE samples per boundary pixel, or off.
+     */
+    public void setAntiAliasing(boolean antiAliasing) {
+        setAntiAliasing(antiAliasing ? DEFAULT_GRID_SIZE : 0, threshold);
+    }
+
+    /**
+     * Function used to set up adaptive anti-aliasing.
+     *
+     * @param gridSize  samples along each side of a refined pixel, 0 (or 1) for none.
+     * @param threshold the largest difference in iterations between neighbouring pixels that is not a boundary.
+     */
+    public void setAntiAliasing(int gridSize, int threshold) {
+        this.gridSize = gridSize > 1 ? gridSize : 0;
+        this.threshold = threshold;
+    }
+
+    public boolean isAntiAliasing() {
+        return gridSize > 0;
+    }
+
+    /**
+     * Function used to export a view, in the format given by the file's suffix (.ppm, .tif or .tiff; anything else
+     * is written as PNG).
+     *
+     * @param parameters the view, iteration settings and colour.
+     * @param width      width of the image in pixels.
+     * @param height     height of the image in pixels.
+     * @return the number of pixels refined by anti-aliasing.
+     * @throws IOException if the image cannot be written.
+     */
+    public long export(ParameterFile parameters, int width, int height, File file) throws IOException {
+        String name = file.getName().toLowerCase();
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        RowEncoder encoder;
+        try {
+            if (name.endsWith(PPM_SUFFIX)) {
+                encoder = new RawImageEncoder(output, RawImageEncoder.Format.PPM, width, height);
+            } else if (name.endsWith(TIFF_SUFFIX) || name.endsWith(TIFF_LONG_SUFFIX)) {
+                encoder = new RawImageEncoder(output, RawImageEncoder.Format.TIFF, width, height);
+            } else {
+                encoder = new PngEncoder(output, width, height);
+            }
+        } catch (IOException | RuntimeException e) {
+            output.close();
+            file.delete();
+            throw e;
+        }
+        try (RowEncoder closing = encoder) {
+            return export(parameters, width, height, closing);
+        } catch (IOException | RuntimeException e) {
+            file.delete(); /*Never leave a partial image*/
+            throw e;
+        }
+    }
+
+    /**
+     * Function used to render a view stripe by stripe into an encoder, top row first. The encoder is not closed.
+     *
+     * @param parameters the view, iteration settings and colour.
+     * @param width      width of the image in pixels.
+     * @param height     height of the image in pixels.
+     * @return the number of pixels refined by anti-aliasing.
+     * @throws IOException if the encoder fails.
+     */
+    public long export(ParameterFile parameters, int width, int height, RowEncoder encoder) throws IOException {
+        MandelbrotStruct struct = parameters.getParams();
+        calculator.setFractal(struct);
+        int stripeRows = Math.max(1, Math.min(height, STRIPE_PIXELS / width));
+        double realStep = struct.getSpanReal().doubleValue() / width;
+        double imagStep = struct.getSpanImag().doubleValue() / height;
+        BigDecimal exactImagStep = new BigDecimal(imagStep);
+        FrameColorizer colorizer = new FrameColorizer();
+        double[] color = parameters.getColorComponents();
+        colorizer.setPalette(color[0], color[1], color[2], !parameters.isWhite(), struct.getMaxIterations());
+        FrameBuffer frame = new FrameBuffer(width, stripeRows);
+        int[][] stripes = {new int[width * stripeRows], new int[width * stripeRows]}; /*One being encoded, one being filled*/
+        ExecutorService encoderThread = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Stripe encoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Future<?> encoding = null;
+        long refined = 0;
+        try {
+            for (int topRow = 0, stripeIndex = 0; topRow < height; topRow += stripeRows, stripeIndex++) {
+                int rows = Math.min(stripeRows, height - topRow);
+                if (rows != frame.getHeight()) {
+                    frame = new FrameBuffer(width, rows); /*Last, shorter stripe*/
+                }
+                /*Image rows run top down while frame rows run up the imaginary axis, so the stripe starts at frame row height - topRow - rows*/
+                int bottomRow = height - topRow - rows;
+                BigDecimal stripeCentreImag = struct.getCentreImag().add(exactImagStep.multiply(
+                        BigDecimal.valueOf(2L * bottomRow + rows - height).multiply(HALF)));
+                calculator.calcMandelbrotCentred(frame, struct.getCentreReal(), stripeCentreImag, realStep, imagStep,
+                        struct.getMaxIterations(), struct.getRadiusSquared(), () -> false);
+                int[] argb = stripes[stripeIndex % 2]; /*Its last user, two stripes back, was waited for below*/
+                colorizer.colorFrame(frame, argb);
+                if (gridSize > 0) {
+                    BoundarySamples samples = calculator.sampleBoundary(frame, struct, struct.getCentreReal(), stripeCentreImag, realStep, imagStep,
+                            struct.getMaxIterations(), struct.getRadiusSquared(), threshold, gridSize, () -> false);
+                    colorizer.colorSamples(frame, samples, argb);
+                    refined += samples.getRefinedCount();
+                }
+                waitFor(encoding); /*Rows must reach the encoder in order*/
+                encoding = encoderThread.submit(() -> {
+                    encoder.writeRows(argb, 0, rows);
+                    return null;
+                });
+            }
+            waitFor(encoding);
+            return refined;
+        } finally {
+            encoderThread.shutdown();
+            try {
+                encoderThread.awaitTermination(1, TimeUnit.MINUTES); /*Never leave a stripe being written past a failure*/
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Function used to wait for a stripe to be encoded, passing on the encoder's failure.
+     */
+    private static void waitFor(Future<?> encoding) throws IOException {
+        if (encoding == null) {
+            return;
+        }
+        try {
+            encoding.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
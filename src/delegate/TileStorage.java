@@ -0,0 +1,397 @@
+package delegate;
+
+import model.TileCache;
+import model.TileStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+
+/**
+ * Disk store of rendered tiles, so they outlive the program.
+ * The tiles of a frame not already held are written to one segment file, which is memory-mapped read-only once written;
+ * tiles are then read straight out of the mapping. A segment starts with a small index (tile identity and offset of
+ * each tile), which is all that is read when the store is opened.
+ *
+ * Segments are written to a temporary file, forced to disk and then renamed into place, so neither a crash nor a power
+ * failure leaves a half written segment under a segment name, and a tile is only indexed once its data is on disk.
+ * When the segments take more than the size limit, the least recently used ones are unmapped and deleted.
+ *
+ * Failures never stop a render; they are described to the error handler given when the store is opened. After a
+ * segment cannot be written, no more are tried.
+ *
+ * Segment layout (big-endian): magic, tile count, then per tile its identity (length and UTF-8 bytes) and the offset
+ * of its data; then per tile startX, endX, startY, endY and the filled rectangle of iteration values, row after row.
+ *
+ * @author rarpda
+ */
+public class TileStorage implements TileStore {
+
+    final static String SEGMENT_PREFIX = "segment-";
+    final static String SEGMENT_SUFFIX = ".tiles";
+    final static String TEMPORARY_SUFFIX = ".tmp";
+    final static int SEGMENT_MAGIC = 0x4d544c31; /* "MTL1" */
+    final static int TILE_HEADER_INTS = 4; /* startX, endX, startY, endY */
+    /* Unsafe.invokeCleaner, which unmaps a buffer at once; null where the JDK does not offer it */
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null; /*Mappings are then released by the garbage collector*/
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    /* Segments by sequence number, least recently used first */
+    private final LinkedHashMap<Long, Segment> segments = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, TileLocation> index = new HashMap<>();
+    private final Consumer<String> errorHandler;
+    private long totalBytes;
+    private long nextSequence;
+    private boolean writable = true;
+
+    /**
+     * Opens (or creates) a store in the given directory, reading the index of every segment already there.
+     *
+     * @param directory    directory holding the segment files.
+     * @param maxBytes     size the segments are cut back to once exceeded.
+     * @param errorHandler told about failures the store carries on past, e.g. the model's reportError.
+     * @throws IOException if the directory cannot be created.
+     */
+    public TileStorage(File directory, long maxBytes, Consumer<String> errorHandler) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.errorHandler = errorHandler;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create tile directory " + directory);
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list tile directory " + directory);
+        }
+        List<File> segmentFiles = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(TEMPORARY_SUFFIX)) {
+                file.delete(); /*Left by a write that never finished*/
+            } else if (file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX)) {
+                segmentFiles.add(file);
+            }
+        }
+        /*Oldest first, so newer copies of a tile replace older ones in the index*/
+        segmentFiles.sort((first, second) -> Long.compare(sequenceOf(first), sequenceOf(second)));
+        for (File file : segmentFiles) {
+            long sequence = sequenceOf(file);
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            try {
+                addSegment(openSegment(file, sequence));
+            } catch (IOException | RuntimeException e) {
+                errorHandler.accept("Tile segment " + file + " could not be read and was deleted: " + e.getMessage());
+                file.delete(); /*Unreadable segment*/
+            }
+        }
+        evict();
+    }
+
+    /**
+     * @return the number of bytes taken by the segment files.
+     */
+    public synchronized long getSizeBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return the number of tiles that can be loaded.
+     */
+    public synchronized int getTileCount() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized TileCache.Tile load(String tileId) {
+        TileLocation location = index.get(tileId);
+        if (location == null) {
+            return null;
+        }
+        segments.get(location.segment.sequence); /*Mark as recently used*/
+        try {
+            ByteBuffer view = location.segment.mapping.duplicate();
+            view.position(location.offset);
+            IntBuffer data = view.asIntBuffer();
+            int startX = data.get();
+            int endX = data.get();
+            int startY = data.get();
+            int endY = data.get();
+            if (startX < 0 || startX > endX || endX > TileCache.TILE_SIZE || startY < 0 || startY > endY || endY > TileCache.TILE_SIZE) {
+                throw new IOException("Corrupt tile " + tileId);
+            }
+            int[] pixels = new int[TileCache.TILE_SIZE * TileCache.TILE_SIZE];
+            for (int y = startY; y < endY; y++) {
+                data.get(pixels, y * TileCache.TILE_SIZE + startX, endX - startX);
+            }
+            return new TileCache.Tile(startX, endX, startY, endY, pixels);
+        } catch (IOException | RuntimeException e) {
+            errorHandler.accept("Stored tile could not be read: " + e.getMessage());
+            index.remove(tileId); /*Recomputed and stored again by the cache*/
+            return null;
+        }
+    }
+
+    /**
+     * Writes the tiles this store does not hold yet, or holds less of, as a new segment. The file is written without
+     * holding the store's lock, so loads carry on meanwhile.
+     */
+    @Override
+    public void store(Map<String, TileCache.Tile> tiles) {
+        Map<String, TileCache.Tile> missing = new LinkedHashMap<>();
+        long sequence;
+        synchronized (this) {
+            if (!writable) {
+                return;
+            }
+            for (Map.Entry<String, TileCache.Tile> entry : tiles.entrySet()) {
+                TileLocation location = index.get(entry.getKey());
+                if (location == null || !location.covers(entry.getValue())) {
+                    missing.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (missing.isEmpty()) {
+                return;
+            }
+            sequence = nextSequence++;
+        }
+        File segmentFile = new File(directory, SEGMENT_PREFIX + sequence + SEGMENT_SUFFIX);
+        File temporaryFile = new File(directory, SEGMENT_PREFIX + sequence + TEMPORARY_SUFFIX);
+        try {
+            writeSegment(temporaryFile, missing);
+            Files.move(temporaryFile.toPath(), segmentFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Segment segment = openSegment(segmentFile, sequence);
+            synchronized (this) {
+                addSegment(segment);
+                evict();
+            }
+        } catch (IOException | RuntimeException e) {
+            temporaryFile.delete();
+            synchronized (this) {
+                writable = false; /*e.g. a full disk, which would fail every later frame too*/
+            }
+            errorHandler.accept("Tiles could not be saved, so new ones are only kept in memory: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Function used to write a whole segment to a file with a single channel write.
+     */
+    private static void writeSegment(File file, Map<String, TileCache.Tile> tiles) throws IOException {
+        List<byte[]> ids = new ArrayList<>(tiles.size());
+        List<TileCache.Tile> tileList = new ArrayList<>(tiles.size());
+        long indexBytes = 2 * Integer.BYTES;
+        long dataBytes = 0;
+        for (Map.Entry<String, TileCache.Tile> entry : tiles.entrySet()) {
+            byte[] id = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            TileCache.Tile tile = entry.getValue();
+            ids.add(id);
+            tileList.add(tile);
+            indexBytes += Integer.BYTES + id.length + Long.BYTES;
+            dataBytes += Integer.BYTES * (TILE_HEADER_INTS + (long) (tile.getEndX() - tile.getStartX()) * (tile.getEndY() - tile.getStartY()));
+        }
+        if (indexBytes + dataBytes > Integer.MAX_VALUE) {
+            throw new IOException("Tile segment too large: " + (indexBytes + dataBytes) + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) (indexBytes + dataBytes));
+        buffer.putInt(SEGMENT_MAGIC);
+        buffer.putInt(tileList.size());
+        long offset = indexBytes;
+        for (int tileIndex = 0; tileIndex < tileList.size(); tileIndex++) {
+            TileCache.Tile tile = tileList.get(tileIndex);
+            buffer.putInt(ids.get(tileIndex).length);
+            buffer.put(ids.get(tileIndex));
+            buffer.putLong(offset);
+            offset += Integer.BYTES * (TILE_HEADER_INTS + (long) (tile.getEndX() - tile.getStartX()) * (tile.getEndY() - tile.getStartY()));
+        }
+        IntBuffer data = buffer.asIntBuffer(); /*Shares the bytes after the index*/
+        for (TileCache.Tile tile : tileList) {
+            data.put(tile.getStartX());
+            data.put(tile.getEndX());
+            data.put(tile.getStartY());
+            data.put(tile.getEndY());
+            for (int y = tile.getStartY(); y < tile.getEndY(); y++) {
+                data.put(tile.getPixels(), y * TileCache.TILE_SIZE + tile.getStartX(), tile.getEndX() - tile.getStartX());
+            }
+        }
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true); /*On disk before the segment is renamed and indexed*/
+        }
+    }
+
+    /**
+     * Function used to map a segment read-only and read its index.
+     */
+    private static Segment openSegment(File file, long sequence) throws IOException {
+        MappedByteBuffer mapping;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); /*Stays valid after the channel closes*/
+        }
+        Segment segment = new Segment(file, sequence, mapping);
+        try {
+            if (mapping.getInt() != SEGMENT_MAGIC) {
+                throw new IOException("Not a tile segment: " + file);
+            }
+            int tileCount = mapping.getInt();
+            for (int tileIndex = 0; tileIndex < tileCount; tileIndex++) {
+                byte[] id = new byte[mapping.getInt()];
+                mapping.get(id);
+                long offset = mapping.getLong();
+                if (offset < 0 || offset + Integer.BYTES * TILE_HEADER_INTS > mapping.capacity()) {
+                    throw new IOException("Corrupt tile segment: " + file);
+                }
+                segment.ids.add(new String(id, StandardCharsets.UTF_8));
+                segment.offsets.add((int) offset);
+            }
+        } catch (IOException | RuntimeException e) {
+            unmap(mapping); /*So the caller can delete the file*/
+            throw e;
+        }
+        return segment;
+    }
+
+    /**
+     * Function used to make a segment's tiles loadable, in place of older copies.
+     */
+    private void addSegment(Segment segment) {
+        segments.put(segment.sequence, segment);
+        totalBytes += segment.bytes;
+        for (int tileIndex = 0; tileIndex < segment.ids.size(); tileIndex++) {
+            index.put(segment.ids.get(tileIndex), new TileLocation(segment, segment.offsets.get(tileIndex)));
+        }
+    }
+
+    /**
+     * Function used to delete least recently used segments until the store is within its size limit.
+     * The newest segment is always kept. Every use of a mapping happens under the store's lock, and a segment is out of
+     * the index before it is unmapped, so no tile is read from a released mapping.
+     */
+    private void evict() {
+        Iterator<Segment> oldest = segments.values().iterator();
+        while (totalBytes > maxBytes && segments.size() > 1 && oldest.hasNext()) {
+            Segment segment = oldest.next();
+            oldest.remove();
+            totalBytes -= segment.bytes;
+            for (String id : segment.ids) {
+                TileLocation location = index.get(id);
+                if (location != null && location.segment == segment) {
+                    index.remove(id);
+                }
+            }
+            MappedByteBuffer mapping = segment.mapping;
+            segment.mapping = null;
+            unmap(mapping);
+            if (!segment.file.delete()) {
+                errorHandler.accept("Tile segment " + segment.file + " could not be deleted");
+            }
+        }
+    }
+
+    /**
+     * Function used to release a mapping now rather than whenever it is garbage collected, so its file can be deleted
+     * on every platform. The buffer, and any view of it, must not be used again. Where the JDK does not allow this
+     * the mapping is left to the garbage collector.
+     */
+    private static void unmap(MappedByteBuffer mapping) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, mapping);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            /*Left to the garbage collector*/
+        }
+    }
+
+    /**
+     * @return the sequence number in a segment's file name, or -1 if it has none.
+     */
+    private static long sequenceOf(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * One mapped segment file and the tiles in it.
+     */
+    private static class Segment {
+        private final File file;
+        private final long sequence;
+        private final long bytes;
+        private MappedByteBuffer mapping; /* null once evicted */
+        private final List<String> ids = new ArrayList<>();
+        private final List<Integer> offsets = new ArrayList<>();
+
+        Segment(File file, long sequence, MappedByteBuffer mapping) {
+            this.file = file;
+            this.sequence = sequence;
+            this.mapping = mapping;
+            this.bytes = mapping.capacity();
+        }
+    }
+
+    /**
+     * Where a tile's data starts.
+     */
+    private static class TileLocation {
+        private final Segment segment;
+        private final int offset;
+
+        TileLocation(Segment segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        /**
+         * @return true if the stored tile holds at least the rectangle the given one does.
+         */
+        boolean covers(TileCache.Tile tile) {
+            IntBuffer header = segment.mapping.duplicate().position(offset).slice().asIntBuffer();
+            return header.get(0) <= tile.getStartX() && tile.getEndX() <= header.get(1)
+                    && header.get(2) <= tile.getStartY() && tile.getEndY() <= header.get(3);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package delegate;
+
+import model.FrameBuffer;
+import model.FrameBufferPool;
+import model.MandelbrotCalculator;
+import model.MandelbrotStruct;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Renders a zoom animation through a list of keyframes into numbered PNG files (frame-00000.png, ...).
+ *
+ * Between two keyframes the span changes by the same factor every frame (the zoom is interpolated on a log scale)
+ * and the centre moves so that the point the two views share stays still on screen, which is how a zoom into a point
+ * looks. The iteration budget moves linearly with the zoom depth.
+ *
+ * Frames go through three stages, each on its own thread(s) and joined by bounded queues: compute (the calculator's
+ * fork-join pool renders one frame at a time), colour, and PNG encode (several threads, as deflating is the slowest
+ * step per pixel). So frame N + 1 is being computed while frame N is coloured or encoded, and no more than a few
+ * frames are ever held. Each stage records how long it was busy, giving its frames per second.
+ *
+ * @author rarpda
+ */
+public class ZoomAnimator {
+
+    final static String FRAME_PREFIX = "frame-";
+    final static String FRAME_SUFFIX = ".png";
+    final static int QUEUE_CAPACITY = 2; /* Frames waiting between two stages */
+    private static final MathContext SPAN_CONTEXT = MathContext.DECIMAL64;
+    private static final double LN_10 = Math.log(10);
+
+    private final MandelbrotCalculator calculator;
+    private final int width;
+    private final int height;
+    private final int encoderThreads;
+    private final Stage computeStage;
+    private final Stage colourStage;
+    private final Stage encodeStage;
+    private final AtomicLong elapsedNanos = new AtomicLong(); /* Wall time of the last render */
+
+    /**
+     * @param calculator     the calculator frames are rendered with.
+     * @param width          width of every frame in pixels.
+     * @param height         height of every frame in pixels.
+     * @param encoderThreads the number of frames encoded at once.
+     */
+    public ZoomAnimator(MandelbrotCalculator calculator, int width, int height, int encoderThreads) {
+        this.calculator = calculator;
+        this.width = width;
+        this.height = height;
+        this.encoderThreads = Math.max(1, encoderThreads);
+        this.computeStage = new Stage("compute", 1);
+        this.colourStage = new Stage("colour", 1);
+        this.encodeStage = new Stage("encode", this.encoderThreads);
+    }
+
+    /**
+     * Function used to list the views of an animation: framesPerSegment frames from each keyframe towards the next,
+     * then the last keyframe. Consecutive keyframes showing the same view are merged. There is no path between
+     * keyframes of different fractals, so the animation cuts from one to the next after a single frame.
+     *
+     * @param keyframes the views to pass through, in order.
+     */
+    public static List<MandelbrotStruct> frames(List<MandelbrotStruct> keyframes, int framesPerSegment) {
+        List<MandelbrotStruct> distinct = new ArrayList<>();
+        for (MandelbrotStruct keyframe : keyframes) {
+            if (distinct.isEmpty() || !sameView(distinct.get(distinct.size() - 1), keyframe)) {
+                distinct.add(keyframe);
+            }
+        }
+        List<MandelbrotStruct> frames = new ArrayList<>();
+        for (int segment = 0; segment + 1 < distinct.size(); segment++) {
+            MandelbrotStruct from = distinct.get(segment);
+            MandelbrotStruct to = distinct.get(segment + 1);
+            if (!sameFractal(from, to)) {
+                frames.add(new MandelbrotStruct(from)); /*Hard cut*/
+                continue;
+            }
+            for (int frame = 0; frame < framesPerSegment; frame++) {
+                frames.add(interpolate(from, to, frame / (double) framesPerSegment));
+            }
+        }
+        if (!distinct.isEmpty()) {
+            frames.add(new MandelbrotStruct(distinct.get(distinct.size() - 1)));
+        }
+        return frames;
+    }
+
+    private static boolean sameView(MandelbrotStruct first, MandelbrotStruct second) {
+        return first.getCentreReal().compareTo(second.getCentreReal()) == 0
+                && first.getCentreImag().compareTo(second.getCentreImag()) == 0
+                && first.getSpanReal().compareTo(second.getSpanReal()) == 0
+                && first.getSpanImag().compareTo(second.getSpanImag()) == 0
+                && sameFractal(first, second);
+    }
+
+    /**
+     * @return true if both views show the Mandelbrot set, or the Julia set of the same constant.
+     */
+    private static boolean sameFractal(MandelbrotStruct first, MandelbrotStruct second) {
+        if (first.isJulia() != second.isJulia()) {
+            return false;
+        }
+        return !first.isJulia() || (first.getJuliaReal() == second.getJuliaReal() && first.getJuliaImag() == second.getJuliaImag());
+    }
+
+    /**
+     * Function used to find the view a fraction t of the way (in zoom depth) from one view to another.
+     * Works at any depth: spans are scaled through their decimal exponents, and the centre is always found from
+     * whichever end it is closer to, so its error stays small next to the span of that frame.
+     *
+     * Views of different fractals have nothing in between, so from is returned until t reaches 1.
+     *
+     * @param t 0 for from, 1 for to.
+     */
+    public static MandelbrotStruct interpolate(MandelbrotStruct from, MandelbrotStruct to, double t) {
+        if (!sameFractal(from, to)) {
+            return new MandelbrotStruct(t < 1 ? from : to);
+        }
+        double log10Ratio = log10(to.getSpanReal()) - log10(from.getSpanReal());
+        if (log10Ratio > 0) {
+            return interpolate(to, from, 1 - t); /*Zoom out: the same path run backwards, keeping the ratio below 1*/
+        }
+        MandelbrotStruct struct = new MandelbrotStruct(from);
+        double log10ImagRatio = log10(to.getSpanImag()) - log10(from.getSpanImag());
+        struct.setSpan(scale(from.getSpanReal(), t * log10Ratio), scale(from.getSpanImag(), t * log10ImagRatio));
+        struct.setCentre(interpolateCentre(from.getCentreReal(), to.getCentreReal(), log10Ratio, t),
+                interpolateCentre(from.getCentreImag(), to.getCentreImag(), log10ImagRatio, t));
+        struct.setMaxIterations((int) Math.round(from.getMaxIterations() + (to.getMaxIterations() - from.getMaxIterations()) * t));
+        return struct;
+    }
+
+    /**
+     * Function used to move a centre coordinate along the zoom. With r the span ratio, the fraction of the way
+     * covered is (1 - r^t) / (1 - r); the remaining fraction, r^t (1 - r^(1 - t)) / (1 - r), is used when smaller.
+     */
+    private static BigDecimal interpolateCentre(BigDecimal from, BigDecimal to, double log10Ratio, double t) {
+        BigDecimal distance = to.subtract(from);
+        double lnRatio = log10Ratio * LN_10;
+        if (lnRatio == 0) {
+            return from.add(distance.multiply(new BigDecimal(t), SPAN_CONTEXT)); /*Pan*/
+        }
+        double covered = Math.expm1(t * lnRatio) / Math.expm1(lnRatio);
+        if (covered <= 0.5) {
+            return from.add(distance.multiply(new BigDecimal(covered), SPAN_CONTEXT));
+        }
+        BigDecimal remaining = scale(new BigDecimal(Math.expm1((1 - t) * lnRatio) / Math.expm1(lnRatio)), t * log10Ratio);
+        return to.subtract(distance.multiply(remaining, SPAN_CONTEXT));
+    }
+
+    /**
+     * @return value * 10^exponent, without leaving BigDecimal, so no depth underflows.
+     */
+    private static BigDecimal scale(BigDecimal value, double exponent) {
+        int whole = (int) Math.floor(exponent);
+        return value.multiply(new BigDecimal(Math.pow(10, exponent - whole)), SPAN_CONTEXT).scaleByPowerOfTen(whole);
+    }
+
+    /**
+     * @return the decimal logarithm of a positive value, for any magnitude.
+     */
+    private static double log10(BigDecimal value) {
+        int exponent = value.precision() - value.scale() - 1;
+        return Math.log10(value.scaleByPowerOfTen(-exponent).doubleValue()) + exponent;
+    }
+
+    /**
+     * Function used to render the frames into the directory, overwriting frames already there.
+     *
+     * @param frames views to render, in order; see frames().
+     * @param color  the colour as JavaFX writes it, or null for white.
+     * @throws IOException if a frame cannot be written; rendering stops at the first failure.
+     */
+    public void render(List<MandelbrotStruct> frames, String color, File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        ParameterFile colourSettings = new ParameterFile(null, color);
+        double[] components = colourSettings.getColorComponents();
+        boolean scaleBrightness = !colourSettings.isWhite();
+        BlockingQueue<Item> computed = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Item> coloured = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        /*Every coloured image there can be at once: one per queue slot and per stage thread*/
+        BlockingQueue<int[]> freeImages = new ArrayBlockingQueue<>(QUEUE_CAPACITY + encoderThreads + 1);
+        while (freeImages.remainingCapacity() > 0) {
+            freeImages.add(new int[width * height]);
+        }
+        FrameBufferPool framePool = new FrameBufferPool(width, height, QUEUE_CAPACITY + 2);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+
+        threads.add(new Thread(() -> runStage(failure, threads, () -> {
+            for (int index = 0; index < frames.size(); index++) {
+                MandelbrotStruct struct = frames.get(index);
+                FrameBuffer frame = framePool.acquire();
+                long start = System.nanoTime();
+                calculator.setFractal(struct);
+                calculator.calcMandelbrotCentred(frame, struct.getCentreReal(), struct.getCentreImag(),
+                        struct.getSpanReal().doubleValue() / width, struct.getSpanImag().doubleValue() / height,
+                        struct.getMaxIterations(), struct.getRadiusSquared(), () -> failure.get() != null);
+                computeStage.record(start);
+                computed.put(new Item(index, struct.getMaxIterations(), frame, null));
+            }
+            computed.put(Item.END);
+        }), "Animation compute"));
+
+        threads.add(new Thread(() -> runStage(failure, threads, () -> {
+            FrameColorizer colorizer = new FrameColorizer();
+            for (Item item = computed.take(); item != Item.END; item = computed.take()) {
+                int[] image = freeImages.take();
+                long start = System.nanoTime();
+                colorizer.setPalette(components[0], components[1], components[2], scaleBrightness, item.maxIterations);
+                colorizer.colorFrame(item.frame, image);
+                item.frame.release();
+                colourStage.record(start);
+                coloured.put(new Item(item.index, item.maxIterations, null, image));
+            }
+            for (int encoder = 0; encoder < encoderThreads; encoder++) {
+                coloured.put(Item.END); /*One for each encoder*/
+            }
+        }), "Animation colour"));
+
+        for (int encoder = 0; encoder < encoderThreads; encoder++) {
+            threads.add(new Thread(() -> runStage(failure, threads, () -> {
+                for (Item item = coloured.take(); item != Item.END; item = coloured.take()) {
+                    long start = System.nanoTime();
+                    PngEncoder.write(new File(directory, String.format("%s%05d%s", FRAME_PREFIX, item.index, FRAME_SUFFIX)), item.image, width, height);
+                    encodeStage.record(start);
+                    freeImages.put(item.image);
+                }
+            }), "Animation encode " + encoder));
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+            threads.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+        }
+        elapsedNanos.set(System.nanoTime() - start);
+        Exception cause = failure.get();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause != null) {
+            throw new IOException("Animation failed: " + cause, cause);
+        }
+    }
+
+    /**
+     * Function used to run one stage, stopping every stage at its first failure.
+     */
+    private static void runStage(AtomicReference<Exception> failure, List<Thread> threads, StageWork work) {
+        try {
+            work.run();
+        } catch (InterruptedException e) {
+            /*Stopped because another stage failed*/
+        } catch (Exception e) {
+            if (failure.compareAndSet(null, e)) {
+                for (Thread thread : threads) {
+                    if (thread != Thread.currentThread()) {
+                        thread.interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return one line per stage with the frames it handled and its rate, and the rate of the whole pipeline.
+     */
+    public String getReport() {
+        double elapsedSeconds = elapsedNanos.get() / 1e9;
+        long frames = encodeStage.frames.get();
+        return computeStage + "\n" + colourStage + "\n" + encodeStage + "\n"
+                + String.format("pipeline: %d frames in %.2f s, %.2f fps", frames, elapsedSeconds, elapsedSeconds > 0 ? frames / elapsedSeconds : 0);
+    }
+
+    public double getComputeFramesPerSecond() {
+        return computeStage.getFramesPerSecond();
+    }
+
+    public double getColourFramesPerSecond() {
+        return colourStage.getFramesPerSecond();
+    }
+
+    public double getEncodeFramesPerSecond() {
+        return encodeStage.getFramesPerSecond();
+    }
+
+    /**
+     * Work done by the thread(s) of one stage.
+     */
+    private interface StageWork {
+        void run() throws Exception;
+    }
+
+    /**
+     * A frame passed between stages: its iteration values after compute, its colours after colouring.
+     */
+    private static class Item {
+        private static final Item END = new Item(-1, 0, null, null); /* No more frames */
+        private final int index;
+        private final int maxIterations;
+        private final FrameBuffer frame;
+        private final int[] image;
+
+        Item(int index, int maxIterations, FrameBuffer frame, int[] image) {
+            this.index = index;
+            this.maxIterations = maxIterations;
+            this.frame = frame;
+            this.image = image;
+        }
+    }
+
+    /**
+     * Frames handled by a stage and the time its threads spent on them (not waiting on a queue).
+     */
+    private static class Stage {
+        private final String name;
+        private final int threads;
+        private final AtomicLong frames = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        Stage(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        void record(long startNanos) {
+            busyNanos.addAndGet(System.nanoTime() - startNanos);
+            frames.incrementAndGet();
+        }
+
+        /**
+         * @return the frames per second the stage can take when never kept waiting, with all its threads busy.
+         */
+        double getFramesPerSecond() {
+            long busy = busyNanos.get();
+            return busy > 0 ? frames.get() * threads * 1e9 / busy : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d frames, %.2f fps (%d thread%s)", name, frames.get(), getFramesPerSecond(), threads, threads == 1 ? "" : "s");
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package main;
+
+import delegate.ParameterFile;
+import delegate.ZoomAnimator;
+import model.MandelbrotCalculator;
+import model.MandelbrotStruct;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Command-line zoom animation renderer: passes through the views of two or more parameter files saved from the GUI
+ * (for instance a start and an end view, or every step of an exploration) and writes the frames as numbered PNGs.
+ * Needs no display. The colour is taken from the first file.
+ *
+ * Usage: AnimationRenderer [-w width] [-h height] [-o directory] [-n framesPerSegment] [-e encoderThreads] file file...
+ *
+ * @author rarpda
+ */
+public class AnimationRenderer {
+
+    final static int DEFAULT_RESOLUTION = 850; /* Same as the GUI's canvas */
+    final static int DEFAULT_FRAMES_PER_SEGMENT = 60;
+
+    public static void main(String[] args) {
+        int width = DEFAULT_RESOLUTION;
+        int height = DEFAULT_RESOLUTION;
+        int framesPerSegment = DEFAULT_FRAMES_PER_SEGMENT;
+        int encoderThreads = Runtime.getRuntime().availableProcessors();
+        File outputDirectory = new File(".");
+        List<ParameterFile> keyframes = new ArrayList<>();
+        /*Read options and keyframes*/
+        try {
+            for (int index = 0; index < args.length; index++) {
+                String argument = args[index];
+                if (argument.equals("-w")) {
+                    width = Integer.parseInt(args[++index]);
+                } else if (argument.equals("-h")) {
+                    height = Integer.parseInt(args[++index]);
+                } else if (argument.equals("-o")) {
+                    outputDirectory = new File(args[++index]);
+                } else if (argument.equals("-n")) {
+                    framesPerSegment = Integer.parseInt(args[++index]);
+                } else if (argument.equals("-e")) {
+                    encoderThreads = Integer.parseInt(args[++index]);
+                } else {
+                    keyframes.add(ParameterFile.read(new File(argument)));
+                }
+            }
+            if (keyframes.size() < 2 || width <= 0 || height <= 0 || framesPerSegment <= 0 || encoderThreads <= 0) {
+                throw new IllegalArgumentException("At least two keyframes are needed");
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: AnimationRenderer [-w width] [-h height] [-o directory] [-n framesPerSegment] [-e encoderThreads] file file...");
+            System.exit(2);
+            return;
+        }
+        List<MandelbrotStruct> views = new ArrayList<>();
+        for (ParameterFile keyframe : keyframes) {
+            views.add(keyframe.getParams());
+        }
+        ZoomAnimator animator = new ZoomAnimator(new MandelbrotCalculator(), width, height, encoderThreads);
+        try {
+            animator.render(ZoomAnimator.frames(views, framesPerSegment), keyframes.get(0).getColor(), outputDirectory);
+            System.out.println(animator.getReport());
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
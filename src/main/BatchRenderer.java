@@ -0,0 +1,169 @@
+package main;
+
+import delegate.ParameterFile;
+import delegate.StripeExporter;
+import model.MandelbrotCalculator;
+import model.MandelbrotStruct;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Command-line renderer which needs no display: every job is rendered with MandelbrotCalculator, coloured as the
+ * GUI would colour it and written as a PNG, PPM or TIFF, a stripe at a time. Nothing here touches JavaFX or AWT.
+ *
+ * Jobs are parameter files saved from the GUI, or views given on the command line. Several jobs are in flight at
+ * once, so one job's colouring and encoding overlap the next one's calculation, which is itself spread over the
+ * calculator's fork-join pool.
+ *
+ * With -a, boundary pixels are anti-aliased with jittered sub-pixel samples (see StripeExporter.setAntiAliasing).
+ *
+ * Usage: BatchRenderer [-w width] [-h height] [-o directory] [-f png|ppm|tiff] [-j jobs] [-a] (file | --view minReal maxReal minImag maxImag maxIterations [colour])...
+ *
+ * @author rarpda
+ */
+public class BatchRenderer {
+
+    final static int DEFAULT_RESOLUTION = 850; /* Same as the GUI's canvas */
+    final static String VIEW_OPTION = "--view";
+    final static String DEFAULT_FORMAT = "png";
+    final static List<String> FORMATS = Arrays.asList("png", "ppm", "tiff");
+
+    /* Jobs run side by side and a calculator renders one view at a time, so each job thread has its own */
+    private final ThreadLocal<StripeExporter> exporters = ThreadLocal.withInitial(() -> new StripeExporter(new MandelbrotCalculator()));
+    private volatile boolean antiAliasing;
+    private final int width;
+    private final int height;
+    private final File outputDirectory;
+    private final String suffix;
+
+    /**
+     * @param width           width of every image in pixels.
+     * @param height          height of every image in pixels.
+     * @param outputDirectory directory the images are written to.
+     * @param format          png, ppm or tiff.
+     */
+    public BatchRenderer(int width, int height, File outputDirectory, String format) {
+        this.width = width;
+        this.height = height;
+        this.outputDirectory = outputDirectory;
+        this.suffix = "." + format;
+    }
+
+    /**
+     * Function used to turn adaptive anti-aliasing of boundary pixels on or off.
+     */
+    public void setAntiAliasing(boolean antiAliasing) {
+        this.antiAliasing = antiAliasing;
+    }
+
+    /**
+     * Function used to render one job and write it to name plus the format's suffix in the output directory.
+     * The image is rendered in stripes (see StripeExporter), so any resolution fits in memory. Jobs may be rendered
+     * on several threads at once; each thread renders with its own calculator.
+     *
+     * @return the file written.
+     * @throws IOException if the image cannot be written.
+     */
+    public File render(String name, ParameterFile parameters) throws IOException {
+        File output = new File(outputDirectory, name + suffix);
+        StripeExporter exporter = exporters.get();
+        exporter.setAntiAliasing(antiAliasing);
+        exporter.export(parameters, width, height, output);
+        return output;
+    }
+
+    public static void main(String[] args) {
+        int width = DEFAULT_RESOLUTION;
+        int height = DEFAULT_RESOLUTION;
+        int jobThreads = Runtime.getRuntime().availableProcessors();
+        File outputDirectory = new File(".");
+        String format = DEFAULT_FORMAT;
+        boolean antiAliasing = false;
+        List<String> names = new ArrayList<>();
+        List<ParameterFile> jobs = new ArrayList<>();
+        /*Read options and jobs*/
+        try {
+            for (int index = 0; index < args.length; index++) {
+                String argument = args[index];
+                if (argument.equals("-w")) {
+                    width = Integer.parseInt(args[++index]);
+                } else if (argument.equals("-h")) {
+                    height = Integer.parseInt(args[++index]);
+                } else if (argument.equals("-o")) {
+                    outputDirectory = new File(args[++index]);
+                } else if (argument.equals("-f")) {
+                    format = args[++index];
+                    if (!FORMATS.contains(format)) {
+                        throw new IllegalArgumentException("Unknown format " + format);
+                    }
+                } else if (argument.equals("-a")) {
+                    antiAliasing = true;
+                } else if (argument.equals("-j")) {
+                    jobThreads = Integer.parseInt(args[++index]);
+                } else if (argument.equals(VIEW_OPTION)) {
+                    MandelbrotStruct struct = new MandelbrotStruct();
+                    BigDecimal minReal = new BigDecimal(args[++index]);
+                    BigDecimal maxReal = new BigDecimal(args[++index]);
+                    BigDecimal minImag = new BigDecimal(args[++index]);
+                    BigDecimal maxImag = new BigDecimal(args[++index]);
+                    struct.setMaxIterations(Integer.parseInt(args[++index]));
+                    struct.setCentre(minReal.add(maxReal).divide(BigDecimal.valueOf(2)), minImag.add(maxImag).divide(BigDecimal.valueOf(2)));
+                    struct.setSpan(maxReal.subtract(minReal), maxImag.subtract(minImag));
+                    String color = null; /*White*/
+                    if (index + 1 < args.length && args[index + 1].startsWith("0x")) {
+                        color = args[++index];
+                    }
+                    names.add("view-" + names.size());
+                    jobs.add(new ParameterFile(struct, color));
+                } else {
+                    File file = new File(argument);
+                    String name = file.getName();
+                    names.add(name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name);
+                    jobs.add(ParameterFile.read(file));
+                }
+            }
+            if (jobs.isEmpty() || width <= 0 || height <= 0 || jobThreads <= 0) {
+                throw new IllegalArgumentException("Nothing to render");
+            }
+            if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+                throw new IOException("Cannot create output directory " + outputDirectory);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: BatchRenderer [-w width] [-h height] [-o directory] [-f png|ppm|tiff] [-j jobs] [-a] "
+                    + "(file | " + VIEW_OPTION + " minReal maxReal minImag maxImag maxIterations [0xRRGGBBAA])...");
+            System.exit(2);
+            return;
+        }
+        /*Render the jobs, a few at a time*/
+        BatchRenderer renderer = new BatchRenderer(width, height, outputDirectory, format);
+        renderer.setAntiAliasing(antiAliasing);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(jobThreads, jobs.size()));
+        List<Future<File>> results = new ArrayList<>();
+        for (int jobIndex = 0; jobIndex < jobs.size(); jobIndex++) {
+            String name = names.get(jobIndex);
+            ParameterFile job = jobs.get(jobIndex);
+            results.add(executor.submit(() -> renderer.render(name, job)));
+        }
+        executor.shutdown();
+        int failures = 0;
+        for (int jobIndex = 0; jobIndex < results.size(); jobIndex++) {
+            try {
+                System.out.println("Wrote " + results.get(jobIndex).get());
+            } catch (Exception e) {
+                failures++;
+                System.err.println(names.get(jobIndex) + ": " + e.getMessage());
+            }
+        }
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -3,6 +3,8 @@ package main;
 import delegate.MandelGuiDelegate;
 import javafx.application.Application;
 
+import java.util.Arrays;
+
 /**
  * This project makes an attempt at CS5030's Practical 4 on GUIs.
  * The code is based on the example provided in the
@@ -11,8 +13,14 @@ import javafx.application.Application;
  * */
 public class main {
 
+	final static String BATCH_OPTION = "--batch";
+
 	public static void main(String[] args) {
-		// TODO Auto-generated method stub
+		/*Render without a display when asked to (see BatchRenderer)*/
+		if (args.length > 0 && args[0].equals(BATCH_OPTION)) {
+			BatchRenderer.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 		Application.launch(MandelGuiDelegate.class, args);
 	}
 
@@ -0,0 +1,55 @@
+package model;
+
+/**
+ * Sub-pixel samples of the pixels of a frame which lie on a boundary, as taken by MandelbrotCalculator.sampleBoundary
+ * for adaptive anti-aliasing. Each refined pixel has gridSize x gridSize samples, one in each cell of a grid over the
+ * pixel, jittered within its cell; the colours of a pixel's samples are averaged in place of the pixel's own colour.
+ *
+ * @author rarpda
+ */
+public class BoundarySamples {
+
+    private final int[] pixelIndices;
+    private final int samplesPerPixel;
+    private final int[] values;
+    private final float[] smooth;
+
+    BoundarySamples(int[] pixelIndices, int samplesPerPixel, boolean smooth) {
+        this.pixelIndices = pixelIndices;
+        this.samplesPerPixel = samplesPerPixel;
+        this.values = new int[pixelIndices.length * samplesPerPixel];
+        this.smooth = smooth ? new float[values.length] : null;
+    }
+
+    /**
+     * @return the number of pixels which were refined.
+     */
+    public int getRefinedCount() {
+        return pixelIndices.length;
+    }
+
+    public int getSamplesPerPixel() {
+        return samplesPerPixel;
+    }
+
+    /**
+     * @return the index in the frame's getPixels() of the n-th refined pixel. Refined pixels are in frame order.
+     */
+    public int getPixelIndex(int refined) {
+        return pixelIndices[refined];
+    }
+
+    /**
+     * @return the iteration values of every sample, getSamplesPerPixel() for each refined pixel in turn.
+     */
+    public int[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return the smooth counts of the samples, laid out as getValues(), or null if the frame keeps none.
+     */
+    public float[] getSmooth() {
+        return smooth;
+    }
+}
@@ -0,0 +1,16 @@
+package model;
+
+/**
+ * Solver which iterates every pixel of the tile.
+ *
+ * @author rarpda
+ */
+public class BruteForceSolver implements MandelbrotSolver {
+
+    @Override
+    public void solveTile(FrameBuffer frame, int startX, int endX, int startY, int endY, PixelCalculator pixels) {
+        for (int y = startY; y < endY; y++) {
+            pixels.calcRow(frame, startX, endX, y);
+        }
+    }
+}
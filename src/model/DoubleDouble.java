@@ -0,0 +1,63 @@
+package model;
+
+import java.math.BigDecimal;
+
+/**
+ * Error-free transformations for double-double arithmetic, where a number is held as the unevaluated sum hi + lo
+ * of two doubles with |lo| <= ulp(hi) / 2, giving about 106 bits of precision.
+ * Each method returns the rounding error of one double operation, so callers keep the hi and lo parts in local
+ * variables and never allocate.
+ *
+ * @author rarpda
+ */
+final class DoubleDouble {
+
+    private DoubleDouble() {
+    }
+
+    /**
+     * Function used to find the error of a + b, for any a and b (Knuth's two-sum).
+     *
+     * @param sum a + b rounded to a double.
+     * @return the exact value of (a + b) - sum.
+     */
+    static double twoSumError(double a, double b, double sum) {
+        double bVirtual = sum - a;
+        return (a - (sum - bVirtual)) + (b - bVirtual);
+    }
+
+    /**
+     * Function used to find the error of a + b when |a| >= |b| (Dekker's fast two-sum), used to renormalise a result.
+     *
+     * @param sum a + b rounded to a double.
+     * @return the exact value of (a + b) - sum.
+     */
+    static double fastTwoSumError(double a, double b, double sum) {
+        return b - (sum - a);
+    }
+
+    /**
+     * Function used to find the error of a * b with a single fused multiply-add.
+     *
+     * @param product a * b rounded to a double.
+     * @return the exact value of (a * b) - product.
+     */
+    static double twoProdError(double a, double b, double product) {
+        return Math.fma(a, b, -product);
+    }
+
+    /**
+     * @return the double nearest to value, used as the hi part.
+     */
+    static double hi(BigDecimal value) {
+        return value.doubleValue();
+    }
+
+    /**
+     * @param hi the hi part of value, as returned by hi(value).
+     * @return the lo part of value, the remainder after hi rounded to a double.
+     */
+    static double lo(BigDecimal value, double hi) {
+        return value.subtract(new BigDecimal(hi)).doubleValue();
+    }
+}
@@ -0,0 +1,242 @@
+package model;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Iteration values of a frame, stored row after row in a single int array.
+ * Pixel (x, y) is at index y * getWidth() + x. A frame can also keep a fractional (smooth) escape count for every pixel
+ * in a float array laid out the same way, see setSmooth, and the histogram of its iteration values, see setHistogramKept. Buffers handed out by a FrameBufferPool are reference counted:
+ * whoever is given one calls release() when done with it, and retain() before passing it on to be kept elsewhere.
+ * A buffer which is never released is simply garbage collected.
+ *
+ * @author rarpda
+ */
+public class FrameBuffer {
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    private float[] smooth; /* NaN where only the integer count is known */
+    private final FrameBufferPool pool;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private ResumeState resumeState;
+    private boolean histogramKept;
+    private IterationHistogram histogram; /* Never changed once attached, so copies of the frame share it */
+    private MandelbrotStruct struct; /* The view the values belong to, set by the model before publishing */
+
+    /**
+     * Creates a buffer which is not part of any pool.
+     */
+    public FrameBuffer(int width, int height) {
+        this(width, height, null);
+    }
+
+    FrameBuffer(int width, int height, FrameBufferPool pool) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+        this.pool = pool;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the backing array, row after row.
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Starts (or stops) keeping smooth escape counts alongside the integer ones. A new smooth array holds NaN everywhere.
+     *
+     * @param smooth true to keep a smooth array, false to drop it.
+     */
+    public void setSmooth(boolean smooth) {
+        if (!smooth) {
+            this.smooth = null;
+        } else if (this.smooth == null) {
+            this.smooth = new float[pixels.length];
+            Arrays.fill(this.smooth, Float.NaN);
+        }
+    }
+
+    /**
+     * @return the smooth escape counts, row after row, or null if the frame does not keep them. A value is only meaningful
+     * for a pixel which escaped; it is NaN where the pixel's value was filled in or copied from somewhere without one.
+     */
+    public float[] getSmooth() {
+        return smooth;
+    }
+
+    /**
+     * Asks the calculator to count the frame's iteration values while it fills the frame, so they need not be counted again
+     * by whoever colours or inspects it.
+     */
+    public void setHistogramKept(boolean histogramKept) {
+        this.histogramKept = histogramKept;
+    }
+
+    public boolean isHistogramKept() {
+        return histogramKept;
+    }
+
+    /**
+     * @return the histogram of the frame's current values, or null if they were not all counted as they were computed
+     * or assembled (e.g. only part of the frame was recomputed by calcMandelbrotRegion). Must not be changed.
+     */
+    public IterationHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Attaches (or with null, detaches) the histogram of the frame's current values.
+     */
+    void setHistogram(IterationHistogram histogram) {
+        this.histogram = histogram;
+    }
+
+    /**
+     * @return the view (including the iteration budget) the frame was rendered for, or null if it was not published by
+     * the model. Frames are rendered asynchronously, so this can differ from the model's current struct. Must not be changed.
+     */
+    public MandelbrotStruct getStruct() {
+        return struct;
+    }
+
+    void setStruct(MandelbrotStruct struct) {
+        this.struct = struct;
+    }
+
+    /**
+     * @return the index in getPixels() of the first pixel of row y.
+     */
+    public int rowOffset(int y) {
+        return y * width;
+    }
+
+    public int get(int x, int y) {
+        return pixels[y * width + x];
+    }
+
+    /**
+     * @return the state the calculator records final orbits into while filling this frame, or null if none is attached.
+     */
+    ResumeState getResumeState() {
+        return resumeState;
+    }
+
+    /**
+     * Attaches (or with null, detaches) the state the calculator records final orbits into while filling this frame.
+     */
+    void setResumeState(ResumeState resumeState) {
+        this.resumeState = resumeState;
+    }
+
+    public void set(int x, int y, int value) {
+        pixels[y * width + x] = value;
+    }
+
+    /**
+     * Sets pixels [startX, endX) of row y to the given value, with no smooth value.
+     */
+    public void fillRow(int y, int startX, int endX, int value) {
+        fillRow(y, startX, endX, value, Float.NaN);
+    }
+
+    /**
+     * Sets pixels [startX, endX) of row y to the given value, and their smooth values (if kept) to smoothValue.
+     */
+    public void fillRow(int y, int startX, int endX, int value, float smoothValue) {
+        int offset = y * width;
+        Arrays.fill(pixels, offset + startX, offset + endX, value);
+        if (smooth != null) {
+            Arrays.fill(smooth, offset + startX, offset + endX, smoothValue);
+        }
+    }
+
+    /**
+     * Copies every pixel of another buffer of the same size into this one, with its smooth values if both keep them,
+     * and shares its histogram.
+     */
+    public void copyFrom(FrameBuffer other) {
+        copyRun(other, 0, 0, pixels.length);
+        histogram = other.histogram;
+    }
+
+    /**
+     * Copies a run of pixels from another buffer, with their smooth values if both keep them.
+     *
+     * @param source      the buffer to copy from.
+     * @param sourceIndex index in source of the first pixel.
+     * @param targetIndex index in this buffer of the first pixel.
+     * @param length      the number of pixels.
+     */
+    public void copyRun(FrameBuffer source, int sourceIndex, int targetIndex, int length) {
+        System.arraycopy(source.pixels, sourceIndex, pixels, targetIndex, length);
+        if (smooth != null) {
+            if (source.smooth != null) {
+                System.arraycopy(source.smooth, sourceIndex, smooth, targetIndex, length);
+            } else {
+                Arrays.fill(smooth, targetIndex, targetIndex + length, Float.NaN);
+            }
+        }
+    }
+
+    /**
+     * Marks a run of pixels, written straight into getPixels(), as having no smooth value.
+     */
+    void clearSmooth(int index, int length) {
+        if (smooth != null) {
+            Arrays.fill(smooth, index, index + length, Float.NaN);
+        }
+    }
+
+    /**
+     * Copies the frame into a new [height][width] array.
+     */
+    public int[][] toArray() {
+        int[][] array = new int[height][];
+        for (int y = 0; y < height; y++) {
+            array[y] = Arrays.copyOfRange(pixels, y * width, (y + 1) * width);
+        }
+        return array;
+    }
+
+    /**
+     * Adds a reference to this buffer, to be matched by a later release().
+     *
+     * @return this buffer.
+     */
+    public FrameBuffer retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Drops a reference to this buffer. Once the last one is dropped the buffer goes back to its pool and must not be used.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0 && pool != null) {
+            pool.recycle(this);
+        }
+    }
+
+    /**
+     * Called by the pool when handing the buffer out again.
+     */
+    void reset() {
+        references.set(1);
+        resumeState = null;
+        histogram = null;
+        struct = null;
+        clearSmooth(0, pixels.length);
+    }
+}
@@ -0,0 +1,53 @@
+package model;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small pool of FrameBuffers of one size, so that renders reuse the same few arrays instead of allocating a new frame each time.
+ *
+ * @author rarpda
+ */
+public class FrameBufferPool {
+
+    private final int width;
+    private final int height;
+    private final int capacity;
+    private final ConcurrentLinkedDeque<FrameBuffer> freeBuffers = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger freeCount = new AtomicInteger();
+
+    /**
+     * @param width    width of the frames handed out.
+     * @param height   height of the frames handed out.
+     * @param capacity the most released buffers kept for reuse; any more are left to the garbage collector.
+     */
+    public FrameBufferPool(int width, int height, int capacity) {
+        this.width = width;
+        this.height = height;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Hands out a buffer with a single reference. Its contents are whatever the previous user left in it.
+     */
+    public FrameBuffer acquire() {
+        FrameBuffer buffer = freeBuffers.pollFirst();
+        if (buffer == null) {
+            return new FrameBuffer(width, height, this);
+        }
+        freeCount.decrementAndGet();
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * Takes back a buffer whose last reference has been released.
+     */
+    void recycle(FrameBuffer buffer) {
+        if (freeCount.incrementAndGet() <= capacity) {
+            freeBuffers.offerFirst(buffer);
+        } else {
+            freeCount.decrementAndGet();
+        }
+    }
+}
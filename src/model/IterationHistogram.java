@@ -0,0 +1,99 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Number of pixels of a frame at each iteration value, from 0 to maxIterations (the pixels which never escaped).
+ * While a frame is computed every worker thread counts into its own histogram, and the calculator merges them once
+ * the frame is complete; a histogram attached to a frame is not changed after that, so it can be shared between
+ * copies of the frame and read from any thread.
+ *
+ * @author rarpda
+ */
+public class IterationHistogram {
+
+    private long[] counts;
+
+    /**
+     * @param maxIterations the largest value counted.
+     */
+    public IterationHistogram(int maxIterations) {
+        this.counts = new long[maxIterations + 1];
+    }
+
+    /**
+     * Creates a copy of another histogram, able to count values up to maxIterations.
+     */
+    IterationHistogram(IterationHistogram other, int maxIterations) {
+        this.counts = Arrays.copyOf(other.counts, Math.max(maxIterations + 1, other.counts.length));
+    }
+
+    public int getMaxIterations() {
+        return counts.length - 1;
+    }
+
+    /**
+     * @return the number of pixels at the given value.
+     */
+    public long getCount(int value) {
+        return counts[value];
+    }
+
+    /**
+     * @return the number of pixels below maxIterations.
+     */
+    public long getEscapedCount() {
+        long total = 0;
+        for (int value = 0; value < counts.length - 1; value++) {
+            total += counts[value];
+        }
+        return total;
+    }
+
+    /**
+     * Method to count one pixel. Values above maxIterations are counted as maxIterations.
+     */
+    public void add(int value) {
+        counts[Math.min(value, counts.length - 1)]++;
+    }
+
+    /**
+     * Method to count a run of pixels.
+     */
+    public void addRun(int[] pixels, int offset, int length) {
+        long[] histogram = counts;
+        int last = histogram.length - 1;
+        for (int index = offset; index < offset + length; index++) {
+            int value = pixels[index];
+            histogram[value < last ? value : last]++;
+        }
+    }
+
+    /**
+     * Method to move one pixel from one value to another, as when it is iterated further.
+     */
+    void move(int from, int to) {
+        counts[Math.min(from, counts.length - 1)]--;
+        add(to);
+    }
+
+    /**
+     * Method to add every count of another histogram into this one, which must count at least as many values.
+     */
+    void merge(IterationHistogram other) {
+        for (int value = 0; value < other.counts.length; value++) {
+            counts[value] += other.counts[value];
+        }
+    }
+
+    /**
+     * Method to set every count back to zero, counting values up to maxIterations from now on.
+     */
+    public void clear(int maxIterations) {
+        if (counts.length != maxIterations + 1) {
+            counts = new long[maxIterations + 1];
+        } else {
+            Arrays.fill(counts, 0);
+        }
+    }
+}
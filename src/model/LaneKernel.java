@@ -0,0 +1,28 @@
+package model;
+
+/**
+ * Escape-time loop which iterates a run of points in step, used by MandelbrotCalculator's VECTOR kernel.
+ * The implementation, VectorLaneKernel, is built against the JDK's incubating Vector API in the vector source set and
+ * is looked up by name, so the calculator still loads (and falls back to its batched loop) where that module is absent.
+ *
+ * @author rarpda
+ */
+interface LaneKernel {
+
+    /**
+     * Iterates Z_n+1 = Z_n^2 + C for points [0, length), a group of lanes at a time. Each point performs exactly the
+     * operations of calcMandel in the same order and only counts iterations while it is active; a point which escapes
+     * keeps its last Z. A group stops once fewer than two of its points are active or after maxIterations iterations.
+     * Points past the last whole group are left untouched.
+     *
+     * @param zr       the real components of Z, updated.
+     * @param zi       the imaginary components of Z, updated.
+     * @param cr       the real components of C.
+     * @param cImaginary the imaginary component of C, shared by every point.
+     * @param counts   the iterations done by each point, updated.
+     * @param active   true for each point still iterating, cleared when it escapes.
+     * @param length   the number of points.
+     * @param maxIterations the most iterations run on any group.
+     */
+    void iterate(double[] zr, double[] zi, double[] cr, double cImaginary, int[] counts, boolean[] active, int length, int maxIterations, double radiusSquared);
+}
@@ -2,6 +2,14 @@ package model;
 
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -22,10 +30,101 @@ public class MandelModel {
      * the instance of the singleton MandelModel class
      */
     static private MandelModel instance = null;
+    /*
+     * Both events carry a FrameBuffer as their new value, whose getStruct() is the view it was rendered for. Each listener
+     * is given its own reference to it, and must release() the buffer once it no longer needs it so the buffer can be
+     * reused for a later frame.
+     */
     final static public String DATA_READY_EVENT = "dataReady";
+    final static public String PREVIEW_READY_EVENT = "previewReady";
+    /*
+     * Fired in auto-iterations mode with a copy of the view about to be rendered (a MandelbrotStruct) holding the budget
+     * chosen for it. Raised budgets are fired from the render thread, by which time the view may have been left.
+     */
+    final static public String ITERATIONS_CHOSEN_EVENT = "iterationsChosen";
+    /* Carries a FrameBuffer, released as above, with the Julia set of the point asked for by previewJulia */
+    final static public String JULIA_PREVIEW_EVENT = "juliaPreview";
+    /* Carries a String describing a failure rendering carried on past, e.g. of the tile cache's disk store */
+    final static public String ERROR_EVENT = "error";
+    /* Width and height of a Julia preview, and the most iterations it is given so it keeps up with the mouse */
+    final static public int JULIA_PREVIEW_SIZE = 192;
+    final static public int JULIA_PREVIEW_MAX_ITERATIONS = 256;
+    /* Previews kept for reuse: the one on screen, the one being rendered and one spare */
+    final static private int JULIA_PREVIEW_POOL_SIZE = 3;
+    /* Digits kept beyond the span when rounding a view, so the centre stays far finer than a pixel */
+    final static private int VIEW_GUARD_DIGITS = 20;
+    final static private MathContext SPAN_CONTEXT = new MathContext(VIEW_GUARD_DIGITS);
+    /* Released frames kept for reuse: the model's last frame, the one on screen, the one being rendered and a preview */
+    final static private int FRAME_POOL_SIZE = 4;
+    /* Grid step of the first progressive pass: 4 computes 1/16 of the pixels, then 1/4 (step 2), then all of them */
+    final static private int PROGRESSIVE_START_STEP = 4;
+    /* Tiles kept in memory, 4 KB each: several full frames, enough to step back and forth through recent views */
+    final static private int TILE_CACHE_TILES = 4096;
+    /* Frames whose tiles may wait to be written to the tile cache's store; past that the oldest frame's are skipped */
+    final static private int TILE_WRITE_QUEUE = 4;
+    /* Auto-iterations: budget added for every tenfold (linear) zoom, and the most it will ever pick */
+    final static private int AUTO_ITERATIONS_PER_DECADE = 100;
+    final static private int AUTO_MAX_ITERATIONS = 1 << 20;
+    /* A frame is unfinished when more than this share of pixels hit the cap... */
+    final static private double AUTO_CAPPED_SHARE = 0.01;
+    /* ...and more than this share escaped in the top half of the budget, so the capped ones are not all interior */
+    final static private double AUTO_LATE_SHARE = 0.005;
     MandelbrotStruct currentStruct = new MandelbrotStruct();
     MandelbrotCalculator calculator = new MandelbrotCalculator();
 
+    /**
+     * Generation counter. Every request to render bumps it, and a render only publishes its data if it is still the latest.
+     */
+    private final AtomicLong renderGeneration = new AtomicLong();
+    /**
+     * Single background thread doing the renders. At most one render waits behind the running one;
+     * a newer request replaces the waiting one instead of queueing behind it.
+     */
+    private final ThreadPoolExecutor renderExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1), runnable -> {
+        Thread renderThread = new Thread(runnable, "mandelbrot-render");
+        renderThread.setDaemon(true);
+        return renderThread;
+    }, new ThreadPoolExecutor.DiscardOldestPolicy());
+    /*
+     * Background thread writing finished frames' tiles to the tile cache's store, so neither the render thread nor the
+     * published frame waits on the disk. Unlike renders, up to TILE_WRITE_QUEUE frames wait their turn instead of replacing each other.
+     */
+    private final ThreadPoolExecutor tileWriter = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(TILE_WRITE_QUEUE), runnable -> {
+        Thread writerThread = new Thread(runnable, "tile-writer");
+        writerThread.setDaemon(true);
+        return writerThread;
+    }, new ThreadPoolExecutor.DiscardOldestPolicy());
+    private boolean progressive = true;
+    private final FrameBufferPool framePool;
+    private final TileCache tileCache = new TileCache(TILE_CACHE_TILES);
+    private final RenderMetrics metrics = new RenderMetrics(calculator, tileCache);
+    /* Last published frame and the parameters it was rendered with. Only touched on the render thread. */
+    private FrameBuffer lastFrame;
+    private MandelbrotStruct lastStruct;
+    /* Final orbits of lastFrame's pixels, if it was computed with doubles, and a second state to record the next frame into */
+    private ResumeState lastResume;
+    private ResumeState spareResume;
+    private volatile boolean autoIterations = false;
+    /* Ratio of the last auto budget to the one the zoom depth alone suggests, carried over to the next view */
+    private volatile double autoBoost = 1;
+    private volatile int chosenIterations = MandelbrotCalculator.INITIAL_MAX_ITERATIONS;
+    private volatile boolean smoothCounts = false;
+    /*
+     * Julia previews have their own thread, calculator and generation counter, so following the mouse neither waits
+     * behind nor cancels the main render. As with renders, a newer request replaces the waiting one.
+     */
+    private final AtomicLong previewGeneration = new AtomicLong();
+    private final ThreadPoolExecutor previewExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1), runnable -> {
+        Thread previewThread = new Thread(runnable, "julia-preview");
+        previewThread.setDaemon(true);
+        return previewThread;
+    }, new ThreadPoolExecutor.DiscardOldestPolicy());
+    private final MandelbrotCalculator previewCalculator = new MandelbrotCalculator();
+    private final FrameBufferPool previewPool = new FrameBufferPool(JULIA_PREVIEW_SIZE, JULIA_PREVIEW_SIZE, JULIA_PREVIEW_POOL_SIZE);
+
     public MandelbrotStruct getCurrentStruct() {
         return currentStruct;
     }
@@ -35,43 +134,152 @@ public class MandelModel {
         this.currentStruct = currentStruct;
     }
 
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    /**
+     * Enables coarse-to-fine rendering. When on, PREVIEW_READY_EVENT is fired with a blocky preview after each
+     * coarse pass, before DATA_READY_EVENT delivers the full resolution frame.
+     */
+    public void setProgressive(boolean progressive) {
+        this.progressive = progressive;
+    }
+
+    public boolean isAutoIterations() {
+        return autoIterations;
+    }
+
+    /**
+     * Enables auto-iterations mode, where maxIterations is picked for every render instead of taken from the current struct.
+     * The budget starts from the zoom depth, scaled by what previous frames needed; while a frame still has a significant
+     * share of pixels at the cap that are escaping late, it is rendered again with twice the budget (resuming the
+     * unescaped pixels). Each budget chosen is reported with ITERATIONS_CHOSEN_EVENT.
+     */
+    public void setAutoIterations(boolean autoIterations) {
+        this.autoIterations = autoIterations;
+    }
+
+    public boolean isSmoothCounts() {
+        return smoothCounts;
+    }
+
+    /**
+     * Enables smooth escape counts: every frame rendered from then on carries a fractional count for each escaped pixel
+     * (FrameBuffer.getSmooth) for banding-free colouring. The tile cache only holds integer counts, so while this is on
+     * frames are not assembled from cached tiles (they are still stored, for when it is turned off).
+     */
+    public void setSmoothCounts(boolean smoothCounts) {
+        this.smoothCounts = smoothCounts;
+    }
+
+    /**
+     * @return the budget auto-iterations mode chose last.
+     */
+    public int getChosenIterations() {
+        return chosenIterations;
+    }
+
+    /**
+     * @return the cache of rendered tiles, e.g. for its hit and miss counts.
+     */
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+
+    /**
+     * @return the timings and counters of recent frames. Compute times are recorded here; the view records its own draw times.
+     */
+    public RenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Function used to report a failure which rendering carried on past, e.g. of the tile cache's store, with ERROR_EVENT.
+     * May be called from any thread.
+     *
+     * @param message description of the failure for the user.
+     */
+    public void reportError(String message) {
+        notifier.firePropertyChange(ERROR_EVENT, null, message);
+    }
+
+    /**
+     * Function used to check whether the current view is too deep for plain double arithmetic,
+     * in which case it is rendered in double-double arithmetic or with the perturbation engine.
+     *
+     * @return true if the current view is rendered as a deep zoom.
+     */
+    public boolean isDeepZoom() {
+        return isDeepZoom(currentStruct);
+    }
+
+    private boolean isDeepZoom(MandelbrotStruct struct) {
+        double realStep = struct.getSpanReal().doubleValue() / xResolution;
+        double imagStep = struct.getSpanImag().doubleValue() / yResolution;
+        double magnitude = Math.max(Math.abs(struct.getCentreReal().doubleValue()) + struct.getSpanReal().doubleValue() / 2,
+                Math.abs(struct.getCentreImag().doubleValue()) + struct.getSpanImag().doubleValue() / 2);
+        return MandelbrotCalculator.arithmeticFor(Math.min(realStep, imagStep), magnitude) != MandelbrotCalculator.Arithmetic.DOUBLE;
+    }
+
     /**
      * Function to calculate the remapping for panning (going from x,y domain to real,imaginary)
+     * The change is snapped to whole pixels so the new sample points line up with the previous frame's,
+     * which lets the render shift that frame and only compute the newly exposed strips.
      **/
     public void calculateMapping(double changeX, double changeY) {
-        /*Check difference to know which way to increase*/
-        double rangeReal = currentStruct.getMaxReal() - currentStruct.getMinReal();
-        double rangeImag = currentStruct.getMaxImag() - currentStruct.getMinImag();
-        double changeThisX = changeX * (rangeReal / xResolution);
-        double changeThisY = changeY * (rangeImag / yResolution);
+        MandelbrotStruct baseStruct = new MandelbrotStruct(currentStruct);
+        int pixelsX = (int) Math.round(changeX);
+        int pixelsY = (int) Math.round(changeY);
+        /*Move the centre by whole pixel steps, exactly*/
+        BigDecimal realStep = pixelStep(currentStruct.getSpanReal(), xResolution);
+        BigDecimal imagStep = pixelStep(currentStruct.getSpanImag(), yResolution);
+        BigDecimal centreReal = currentStruct.getCentreReal().add(realStep.multiply(BigDecimal.valueOf(pixelsX)));
+        BigDecimal centreImag = currentStruct.getCentreImag().add(imagStep.multiply(BigDecimal.valueOf(pixelsY)));
 
         /*Update values */
-        currentStruct.setMinImag(currentStruct.getMinImag() + changeThisY);
-        currentStruct.setMinReal(currentStruct.getMinReal() + changeThisX);
-        currentStruct.setMaxImag(currentStruct.getMaxImag() + changeThisY);
-        currentStruct.setMaxReal(currentStruct.getMaxReal() + changeThisX);
-        generateMandelbrot(); /*Generate new model */
+        currentStruct.setCentre(roundToSpan(centreReal, currentStruct.getSpanReal()), roundToSpan(centreImag, currentStruct.getSpanImag()));
+        submitRender(baseStruct, pixelsX, pixelsY); /*Generate new model */
     }
     /**
      * Function used to calculate remapping for zooming (going from x,y domain to real,imaginary)
+     * The new view is worked out from the exact centre and span, so repeated zooms do not drift.
      **/
     public void calculateMapping(double newXValue, double newYValue, double squareLength) {
         /*Update map*/
-        double rangeReal = currentStruct.getMaxReal() - currentStruct.getMinReal();
-        double rangeImag = currentStruct.getMaxImag() - currentStruct.getMinImag();
-        double newStartReal = newXValue * (rangeReal / xResolution) + currentStruct.getMinReal();
-        double newEndReal = newStartReal + squareLength * rangeReal / xResolution;
-        double newEndImag = currentStruct.getMaxImag() - newYValue * (rangeImag / yResolution);
-        double newStartImag = newEndImag - squareLength * rangeImag / yResolution;
+        BigDecimal realStep = pixelStep(currentStruct.getSpanReal(), xResolution);
+        BigDecimal imagStep = pixelStep(currentStruct.getSpanImag(), yResolution);
+        BigDecimal length = new BigDecimal(squareLength);
+        BigDecimal halfLength = length.multiply(new BigDecimal("0.5"));
+        /*x runs left to right from minReal, y runs top to bottom from maxImag*/
+        BigDecimal centreReal = currentStruct.getMinRealExact().add(realStep.multiply(new BigDecimal(newXValue).add(halfLength)));
+        BigDecimal centreImag = currentStruct.getMaxImagExact().subtract(imagStep.multiply(new BigDecimal(newYValue).add(halfLength)));
+        BigDecimal spanReal = realStep.multiply(length).round(SPAN_CONTEXT);
+        BigDecimal spanImag = imagStep.multiply(length).round(SPAN_CONTEXT);
 
         /*Update values*/
-        currentStruct.setMinImag(newStartImag);
-        currentStruct.setMinReal(newStartReal);
-        currentStruct.setMaxImag(newEndImag);
-        currentStruct.setMaxReal(newEndReal);
+        currentStruct.setSpan(spanReal, spanImag);
+        currentStruct.setCentre(roundToSpan(centreReal, spanReal), roundToSpan(centreImag, spanImag));
         generateMandelbrot(); /*Generate new model*/
     }
 
+    /**
+     * Function used to work out the size of a pixel, to well beyond double precision.
+     */
+    private static BigDecimal pixelStep(BigDecimal span, double resolution) {
+        return span.divide(new BigDecimal(resolution), SPAN_CONTEXT);
+    }
+
+    /**
+     * Function used to drop digits of a coordinate that are far finer than the view can show, so that
+     * the numbers do not keep growing with every zoom.
+     */
+    private static BigDecimal roundToSpan(BigDecimal value, BigDecimal span) {
+        int spanExponent = span.precision() - span.scale() - 1; /*span is about 10^spanExponent*/
+        int scale = VIEW_GUARD_DIGITS - spanExponent;
+        return value.scale() > scale ? value.setScale(scale, RoundingMode.HALF_EVEN) : value;
+    }
+
 
     /**
      * Method to return an instance of the Singleton MandelModel.
@@ -83,6 +291,69 @@ public class MandelModel {
         return instance;
     }
 
+    /**
+     * Function used to switch to the Julia set of the point under a position of the current view, shown from its starting
+     * view with the current maxIterations and escape radius. resetModel returns to the Mandelbrot set.
+     *
+     * @param x horizontal position in pixels, from the left.
+     * @param y vertical position in pixels, from the top.
+     */
+    public void showJulia(double x, double y) {
+        currentStruct = juliaStruct(currentStruct, x, y, currentStruct.getMaxIterations());
+        generateMandelbrot();
+    }
+
+    /**
+     * Function used to queue a small render of the Julia set of the point under a position of the current view, fired
+     * with JULIA_PREVIEW_EVENT once done. A preview still waiting or in flight is dropped.
+     *
+     * @param x horizontal position in pixels, from the left.
+     * @param y vertical position in pixels, from the top.
+     */
+    public void previewJulia(double x, double y) {
+        final MandelbrotStruct previewStruct = juliaStruct(currentStruct, x, y, Math.min(currentStruct.getMaxIterations(), JULIA_PREVIEW_MAX_ITERATIONS));
+        final long generation = previewGeneration.incrementAndGet();
+        previewExecutor.execute(() -> renderJuliaPreview(previewStruct, generation));
+    }
+
+    /**
+     * Function used to build the starting view of the Julia set whose constant is the point under a position of a view.
+     */
+    private MandelbrotStruct juliaStruct(MandelbrotStruct view, double x, double y, int maxIterations) {
+        /*x runs left to right from minReal, y runs top to bottom from maxImag*/
+        double juliaReal = view.getMinReal() + x * view.getSpanReal().doubleValue() / xResolution;
+        double juliaImag = view.getMaxImag() - y * view.getSpanImag().doubleValue() / yResolution;
+        MandelbrotStruct struct = new MandelbrotStruct();
+        struct.setCentre(BigDecimal.ZERO, BigDecimal.ZERO);
+        struct.setSpan(new BigDecimal(MandelbrotCalculator.INITIAL_JULIA_SPAN_REAL), new BigDecimal(MandelbrotCalculator.INITIAL_JULIA_SPAN_IMAGINARY));
+        struct.setMaxIterations(maxIterations);
+        struct.setRadiusSquared(view.getRadiusSquared());
+        struct.setJulia(juliaReal, juliaImag);
+        return struct;
+    }
+
+    /**
+     * Function run on the preview thread to compute and publish a Julia preview.
+     */
+    private void renderJuliaPreview(MandelbrotStruct previewStruct, long generation) {
+        RenderToken token = () -> previewGeneration.get() != generation;
+        if (token.isCancelled()) {
+            return; /*Superseded before it started*/
+        }
+        FrameBuffer preview = previewPool.acquire();
+        previewCalculator.setFractal(previewStruct);
+        try {
+            previewCalculator.calcMandelbrotSet(preview, previewStruct.getMinReal(), previewStruct.getMaxReal(), previewStruct.getMinImag(), previewStruct.getMaxImag(), previewStruct.getMaxIterations(), previewStruct.getRadiusSquared(), token);
+        } catch (CancellationException e) {
+            preview.release();
+            return; /*The mouse has moved on*/
+        }
+        if (!token.isCancelled()) {
+            publish(JULIA_PREVIEW_EVENT, preview);
+        }
+        preview.release();
+    }
+
     public void resetModel() {
         currentStruct = new MandelbrotStruct();
         generateMandelbrot();
@@ -92,16 +363,82 @@ public class MandelModel {
      * @return the magnification scale.
      * */
     public int getMagnificationValue() {
-        double rangeReal = currentStruct.getMaxReal() - currentStruct.getMinReal();
-        double rangeImag = currentStruct.getMaxImag() - currentStruct.getMinImag();
+        int magnificationScale = (int) (getMagnification(currentStruct) * 100.0);
+        return magnificationScale;
+    }
+
+    /**
+     * Function used to work out how many times smaller than the starting view a view's area is.
+     */
+    private static double getMagnification(MandelbrotStruct struct) {
+        double rangeReal = struct.getSpanReal().doubleValue();
+        double rangeImag = struct.getSpanImag().doubleValue();
 
         double startingRangeReal = MandelbrotCalculator.INITIAL_MAX_REAL - MandelbrotCalculator.INITIAL_MIN_REAL;
         double startingRangeImage = MandelbrotCalculator.INITIAL_MAX_IMAGINARY - MandelbrotCalculator.INITIAL_MIN_IMAGINARY;
+        if (struct.isJulia()) {
+            startingRangeReal = MandelbrotCalculator.INITIAL_JULIA_SPAN_REAL;
+            startingRangeImage = MandelbrotCalculator.INITIAL_JULIA_SPAN_IMAGINARY;
+        }
 
         double currentSize = rangeReal * rangeImag; /*Size of */
         double startingSize = startingRangeReal * startingRangeImage;
-        int magnificationScale = (int) ((startingSize / currentSize) * 100.0);
-        return magnificationScale;
+        return startingSize / currentSize;
+    }
+
+    /**
+     * Function used to pick the budget of a new view in auto-iterations mode: a base growing with the number of decades
+     * zoomed in, times the boost learnt from the previous frames.
+     */
+    private int chooseIterations(MandelbrotStruct struct) {
+        return (int) Math.min(AUTO_MAX_ITERATIONS, Math.round(depthBudget(struct) * autoBoost));
+    }
+
+    /**
+     * @return the budget the zoom depth of a view alone suggests.
+     */
+    private static double depthBudget(MandelbrotStruct struct) {
+        double decades = Math.max(0, Math.log10(getMagnification(struct)) / 2); /*Area ratio to linear zoom*/
+        return MandelbrotCalculator.INITIAL_MAX_ITERATIONS + AUTO_ITERATIONS_PER_DECADE * decades;
+    }
+
+    /**
+     * Function used to read the escape histogram of a finished frame in auto-iterations mode, and decide whether its
+     * budget was too small. The boost carried to later views is updated either way. The histogram counted while the frame
+     * was computed is used if it has one, otherwise the pixels are counted here.
+     *
+     * @return twice the frame's budget if it should be rendered again with it, otherwise 0.
+     */
+    private int nextAutoIterations(FrameBuffer frame, MandelbrotStruct renderStruct) {
+        int maxIterations = renderStruct.getMaxIterations();
+        int lateThreshold = maxIterations / 2;
+        int[] pixels = frame.getPixels();
+        IterationHistogram histogram = frame.getHistogram();
+        long capped = 0;
+        long late = 0;
+        if (histogram != null && histogram.getMaxIterations() == maxIterations) {
+            capped = histogram.getCount(maxIterations);
+            for (int value = lateThreshold + 1; value < maxIterations; value++) {
+                late += histogram.getCount(value);
+            }
+        } else {
+            for (int value : pixels) {
+                if (value >= maxIterations) {
+                    capped++;
+                } else if (value > lateThreshold) {
+                    late++;
+                }
+            }
+        }
+        boolean unfinished = capped > pixels.length * AUTO_CAPPED_SHARE && late > pixels.length * AUTO_LATE_SHARE;
+        if (unfinished && maxIterations * 2 <= AUTO_MAX_ITERATIONS) {
+            autoBoost = Math.max(1, 2.0 * maxIterations / depthBudget(renderStruct));
+            return maxIterations * 2;
+        }
+        if (late <= pixels.length * AUTO_LATE_SHARE / 10) {
+            autoBoost = Math.max(1, autoBoost / 2); /*Plenty of headroom, let later views start lower*/
+        }
+        return 0;
     }
 
     /**
@@ -112,19 +449,292 @@ public class MandelModel {
         this.xResolution = xResolution;
         this.yResolution = yResolution;
         notifier = new PropertyChangeSupport(this);
+        framePool = new FrameBufferPool(xResolution, yResolution, FRAME_POOL_SIZE);
     }
 
     /*
     * Generate new model based on the inputs.
+    * The render runs on a background thread; any render still in flight is cancelled and
+    * DATA_READY_EVENT is only fired for the most recent request.
     * */
     public void generateMandelbrot() {
-        int[][] newGrid = calculator.calcMandelbrotSet((int) xResolution, (int) yResolution, currentStruct.getMinReal(), currentStruct.getMaxReal(), currentStruct.getMinImag(), currentStruct.getMaxImag(), currentStruct.getMaxIterations(), currentStruct.getRadiusSquared());
+        submitRender(null, 0, 0);
+    }
+
+    /**
+     * Function used to queue a render of the current parameters, cancelling any render in flight.
+     *
+     * @param baseStruct the view the current one was panned from, or null if it was not a pan.
+     * @param pixelsX    horizontal pan in pixels from baseStruct.
+     * @param pixelsY    vertical pan in pixels from baseStruct.
+     */
+    private void submitRender(MandelbrotStruct baseStruct, int pixelsX, int pixelsY) {
+        if (autoIterations) {
+            currentStruct.setMaxIterations(chooseIterations(currentStruct));
+            chosenIterations = currentStruct.getMaxIterations();
+        }
+        final MandelbrotStruct renderStruct = new MandelbrotStruct(currentStruct); /*Snapshot so later edits do not leak into this render*/
+        if (autoIterations) {
+            notifier.firePropertyChange(ITERATIONS_CHOSEN_EVENT, null, new MandelbrotStruct(renderStruct));
+        }
+        final long generation = renderGeneration.incrementAndGet();
+        renderExecutor.execute(() -> render(renderStruct, generation, baseStruct, pixelsX, pixelsY));
+    }
+
+    /**
+     * Function run on the render thread to compute and publish a single frame.
+     *
+     * @param renderStruct parameters to render.
+     * @param generation   the generation this render was requested under.
+     * @param baseStruct   the view this one was panned from, or null.
+     * @param pixelsX      horizontal pan in pixels from baseStruct.
+     * @param pixelsY      vertical pan in pixels from baseStruct.
+     */
+    private void render(MandelbrotStruct renderStruct, long generation, MandelbrotStruct baseStruct, int pixelsX, int pixelsY) {
+        RenderToken token = () -> renderGeneration.get() != generation;
+        if (token.isCancelled()) {
+            return; /*Superseded before it started*/
+        }
+        calculator.setFractal(renderStruct);
+        metrics.beginFrame();
+        FrameBuffer newFrame = framePool.acquire();
+        boolean smooth = smoothCounts;
+        newFrame.setSmooth(smooth);
+        newFrame.setHistogramKept(true);
+        TileCache.Grid grid = tileCache.grid(renderStruct, (int) xResolution, (int) yResolution);
+        boolean[] cached = new boolean[grid.getColumns() * grid.getRows()];
+        IterationHistogram tileCounts = new IterationHistogram(renderStruct.getMaxIterations()); /*Of the cached tiles, counted as they are copied*/
+        int cachedCount = smooth ? 0 : loadCachedTiles(newFrame, grid, cached, tileCounts);
+        boolean deep = isDeepZoom(renderStruct);
+        ResumeState resume = null; /*Orbits recorded by this render, for a later raise of maxIterations*/
+        try {
+            if (cachedCount == cached.length) {
+                /*Every tile has been rendered before, nothing left to compute*/
+                newFrame.setHistogram(tileCounts);
+            } else if (!deep && isRaisedBudget(renderStruct)) {
+                resume = lastResume;
+                lastResume = null; /*Updated in place, so it no longer matches lastFrame*/
+                renderResumed(newFrame, renderStruct, resume, token);
+            } else if (deep) {
+                renderDeep(newFrame, renderStruct, token);
+            } else {
+                resume = spareResume != null ? spareResume : new ResumeState((int) xResolution, (int) yResolution);
+                spareResume = null;
+                resume.clear(renderStruct.getMaxIterations());
+                newFrame.setResumeState(resume);
+                if (baseStruct != null && baseStruct.equals(lastStruct)
+                        && Math.abs(pixelsX) < xResolution && Math.abs(pixelsY) < yResolution) {
+                    renderPan(newFrame, renderStruct, pixelsX, pixelsY, token);
+                } else if (cachedCount > 0) {
+                    renderMissingTiles(newFrame, renderStruct, grid, cached, tileCounts, token);
+                } else if (progressive) {
+                    renderProgressive(newFrame, renderStruct, token);
+                } else {
+                    calculator.calcMandelbrotSet(newFrame, renderStruct.getMinReal(), renderStruct.getMaxReal(), renderStruct.getMinImag(), renderStruct.getMaxImag(), renderStruct.getMaxIterations(), renderStruct.getRadiusSquared(), token);
+                }
+            }
+        } catch (CancellationException e) {
+            discard(newFrame, resume);
+            return; /*A newer render has been requested*/
+        }
+        newFrame.setResumeState(null);
+        if (!token.isCancelled()) {
+            if (lastFrame != null) {
+                lastFrame.release();
+            }
+            if (lastResume != null) {
+                spareResume = lastResume;
+            }
+            lastResume = resume; /*null if this frame was not computed with doubles*/
+            lastFrame = newFrame; /*The model keeps the render's own reference*/
+            lastStruct = renderStruct;
+            metrics.endFrame(); /*Before publishing, so the view's overlay shows this frame*/
+            newFrame.setStruct(renderStruct);
+            publish(DATA_READY_EVENT, newFrame);
+            if (cachedCount < cached.length) {
+                tileCache.store(grid, newFrame, tileWriter); /*Still held as lastFrame, so not reused while its tiles are copied*/
+            }
+            if (autoIterations) {
+                int raisedIterations = nextAutoIterations(newFrame, renderStruct);
+                if (raisedIterations > 0 && !token.isCancelled()) {
+                    /*Same view with twice the budget, which resumes the unescaped pixels of this frame*/
+                    MandelbrotStruct raisedStruct = new MandelbrotStruct(renderStruct);
+                    raisedStruct.setMaxIterations(raisedIterations);
+                    chosenIterations = raisedIterations;
+                    notifier.firePropertyChange(ITERATIONS_CHOSEN_EVENT, null, new MandelbrotStruct(raisedStruct));
+                    render(raisedStruct, generation, null, 0, 0);
+                }
+            }
+        } else {
+            discard(newFrame, resume);
+        }
+    }
+
+    /**
+     * Function used to drop a render that will not be published, keeping its state array for reuse.
+     */
+    private void discard(FrameBuffer frame, ResumeState resume) {
+        frame.setResumeState(null);
+        frame.release();
+        if (resume != null) {
+            spareResume = resume;
+        }
+    }
+
+    /**
+     * Function used to check whether a view is the last published one with only a larger maxIterations,
+     * and the final orbits of that frame are known.
+     */
+    private boolean isRaisedBudget(MandelbrotStruct renderStruct) {
+        if (lastFrame == null || lastResume == null || lastResume.getMaxIterations() != lastStruct.getMaxIterations()
+                || renderStruct.getMaxIterations() <= lastStruct.getMaxIterations()) {
+            return false;
+        }
+        return renderStruct.isSameView(lastStruct);
+    }
+
+    /**
+     * Function used to render the last frame again with a larger maxIterations, only iterating further the pixels
+     * which had not escaped, from where they stopped.
+     *
+     * @param frame  the frame to render into.
+     * @param resume the final orbits of the last frame, updated to the new budget.
+     */
+    private void renderResumed(FrameBuffer frame, MandelbrotStruct renderStruct, ResumeState resume, RenderToken token) {
+        frame.copyFrom(lastFrame);
+        frame.setResumeState(resume);
+        calculator.resumeMandelbrotSet(frame, renderStruct.getMinReal(), renderStruct.getMaxReal(), renderStruct.getMinImag(), renderStruct.getMaxImag(), renderStruct.getMaxIterations(), renderStruct.getRadiusSquared(), token);
+    }
+
+    /**
+     * Function used to fire an event carrying a frame, giving every listener its own reference to it.
+     */
+    private void publish(String eventName, FrameBuffer frame) {
+        for (int listener = 0; listener < notifier.getPropertyChangeListeners().length; listener++) {
+            frame.retain();
+        }
+        notifier.firePropertyChange(eventName, null, frame);
+    }
+
+    /**
+     * Function used to render a deep zoom from the exact centre of the view, leaving the calculator to pick the arithmetic.
+     *
+     * @param frame the frame to render into.
+     */
+    private void renderDeep(FrameBuffer frame, MandelbrotStruct renderStruct, RenderToken token) {
+        double realStep = renderStruct.getSpanReal().doubleValue() / xResolution;
+        double imagStep = renderStruct.getSpanImag().doubleValue() / yResolution;
+        calculator.calcMandelbrotCentred(frame, renderStruct.getCentreReal(), renderStruct.getCentreImag(), realStep, imagStep, renderStruct.getMaxIterations(), renderStruct.getRadiusSquared(), token);
+    }
+
+    /**
+     * Function used to fill a frame with every tile of the grid the cache holds.
+     *
+     * @param cached set to true for each tile (row after row) that was found.
+     * @param counts histogram the pixels of the tiles found are added to.
+     * @return the number of tiles found.
+     */
+    private int loadCachedTiles(FrameBuffer frame, TileCache.Grid grid, boolean[] cached, IterationHistogram counts) {
+        int found = 0;
+        for (int row = 0; row < grid.getRows(); row++) {
+            for (int column = 0; column < grid.getColumns(); column++) {
+                if (tileCache.load(grid, column, row, frame, counts)) {
+                    cached[row * grid.getColumns() + column] = true;
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
 
-        notifier.firePropertyChange(DATA_READY_EVENT, null, newGrid);
-        System.out.println(currentStruct.getMinReal() + " " + currentStruct.getMaxReal());
-        System.out.println(currentStruct.getMinImag() + " " + currentStruct.getMaxImag());
+    /**
+     * Function used to compute the tiles of a frame the cache did not hold, a run of neighbouring tiles at a time.
+     * The frame is given the histogram of the cached tiles with the computed ones added.
+     *
+     * @param cached which tiles (row after row) are already in the frame.
+     * @param counts the histogram of the cached tiles, added to.
+     */
+    private void renderMissingTiles(FrameBuffer frame, MandelbrotStruct renderStruct, TileCache.Grid grid, boolean[] cached, IterationHistogram counts, RenderToken token) {
+        for (int row = 0; row < grid.getRows(); row++) {
+            int startY = Math.max(0, grid.tileStartY(row));
+            int endY = Math.min(frame.getHeight(), grid.tileStartY(row + 1));
+            int column = 0;
+            while (column < grid.getColumns()) {
+                if (cached[row * grid.getColumns() + column]) {
+                    column++;
+                    continue;
+                }
+                int runStart = column;
+                while (column < grid.getColumns() && !cached[row * grid.getColumns() + column]) {
+                    column++;
+                }
+                calcRegion(frame, renderStruct, Math.max(0, grid.tileStartX(runStart)), Math.min(frame.getWidth(), grid.tileStartX(column)), startY, endY, counts, token);
+            }
+        }
+        frame.setHistogram(counts);
+    }
+
+    /**
+     * Function used to render a panned frame from the last published one.
+     * The overlapping part is copied across shifted by the pan; only the exposed column and row strips are computed.
+     * The frame's histogram is counted as the rows are copied and the strips computed.
+     *
+     * @param frame the frame to render into.
+     */
+    private void renderPan(FrameBuffer frame, MandelbrotStruct renderStruct, int pixelsX, int pixelsY, RenderToken token) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        /*Pixel (x, y) of the new frame is pixel (x + pixelsX, y + pixelsY) of the old one*/
+        int keptStartX = Math.max(0, -pixelsX);
+        int keptEndX = Math.min(width, width - pixelsX);
+        int keptStartY = Math.max(0, -pixelsY);
+        int keptEndY = Math.min(height, height - pixelsY);
+        IterationHistogram counts = new IterationHistogram(renderStruct.getMaxIterations());
+        for (int y = keptStartY; y < keptEndY; y++) {
+            frame.copyRun(lastFrame, lastFrame.rowOffset(y + pixelsY) + keptStartX + pixelsX, frame.rowOffset(y) + keptStartX, keptEndX - keptStartX);
+            counts.addRun(frame.getPixels(), frame.rowOffset(y) + keptStartX, keptEndX - keptStartX);
+        }
+
+        /*Exposed columns over the full height, then exposed rows between them*/
+        int stripStartX = pixelsX > 0 ? keptEndX : 0;
+        int stripEndX = pixelsX > 0 ? width : keptStartX;
+        calcRegion(frame, renderStruct, stripStartX, stripEndX, 0, height, counts, token);
+        int stripStartY = pixelsY > 0 ? keptEndY : 0;
+        int stripEndY = pixelsY > 0 ? height : keptStartY;
+        calcRegion(frame, renderStruct, keptStartX, keptEndX, stripStartY, stripEndY, counts, token);
+        frame.setHistogram(counts);
     }
 
+    /**
+     * Function used to compute a rectangle of a frame, skipping empty rectangles.
+     *
+     * @param counts histogram the rectangle's values are added to.
+     */
+    private void calcRegion(FrameBuffer frame, MandelbrotStruct renderStruct, int startX, int endX, int startY, int endY, IterationHistogram counts, RenderToken token) {
+        if (startX < endX && startY < endY) {
+            calculator.calcMandelbrotRegion(frame, startX, endX, startY, endY, renderStruct.getMinReal(), renderStruct.getMaxReal(), renderStruct.getMinImag(), renderStruct.getMaxImag(), renderStruct.getMaxIterations(), renderStruct.getRadiusSquared(), counts, token);
+        }
+    }
+
+    /**
+     * Function used to render a frame in coarse-to-fine passes, publishing a preview after every pass but the last.
+     * Each pass only computes the pixels the previous passes have not, so the total work equals a single full render.
+     *
+     * @param frame the frame to render into.
+     */
+    private void renderProgressive(FrameBuffer frame, MandelbrotStruct renderStruct, RenderToken token) {
+        for (int pixelStep = PROGRESSIVE_START_STEP; pixelStep >= 1; pixelStep /= 2) {
+            calculator.calcMandelbrotPass(frame, pixelStep, pixelStep == PROGRESSIVE_START_STEP, renderStruct.getMinReal(), renderStruct.getMaxReal(), renderStruct.getMinImag(), renderStruct.getMaxImag(), renderStruct.getMaxIterations(), renderStruct.getRadiusSquared(), token);
+            if (pixelStep > 1 && !token.isCancelled()) {
+                /*Publish a copy, the next pass keeps writing into frame while the preview is drawn*/
+                FrameBuffer preview = framePool.acquire();
+                preview.copyFrom(frame);
+                preview.setStruct(renderStruct);
+                publish(PREVIEW_READY_EVENT, preview);
+                preview.release();
+            }
+        }
+    }
 
     /**
      * Utility method to permit an observer to add themselves as an observer to the model's change support object.
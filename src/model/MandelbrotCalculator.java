@@ -28,6 +28,14 @@ of the authors and should not be interpreted as representing official policies,
 either expressed or implied, of the FreeBSD Project.
 */
 
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * The MandelbrotCalculator class contains methods which establish the Mandelbrot set.
  * The calcMandelbrotSet method below iterates over X,Y positions and establishes for specified parameter values a 2-D array containing
@@ -51,10 +59,344 @@ public class MandelbrotCalculator {
     protected static final double INITIAL_MIN_IMAGINARY = -1.25;
     protected static final double INITIAL_MAX_IMAGINARY = 1.25;
     protected static final int INITIAL_MAX_ITERATIONS = 50;
+    // Starting view of a Julia set, centred on 0 with the same aspect as the Mandelbrot one
+    protected static final double INITIAL_JULIA_SPAN_REAL = 3.24;
+    protected static final double INITIAL_JULIA_SPAN_IMAGINARY = 3.0;
 
     // Default parameter values
     protected static final double DEFAULT_RADIUS_SQUARED = 4.0;
 
+    // Token used when a render can never be cancelled
+    private static final RenderToken NEVER_CANCELLED = () -> false;
+
+    // Number of rows or tiles below which a task is computed directly rather than split further
+    private static final int SPLIT_THRESHOLD = 4;
+
+    // Width and height of the square tiles a region is handed to the solver in
+    private static final int TILE_SIZE = 32;
+
+    // Number of points iterated together by the batched kernel
+    private static final int LANES = 4;
+
+    // Iterations the batched kernel runs before handing the lanes still active over to iterateFrom. Points that last this long
+    // are mostly inside the set, where cycle detection pays off more than the interleaving.
+    private static final int BATCHED_ITERATION_LIMIT = 256;
+
+    // The Vector API loop of the VECTOR kernel, or null if jdk.incubator.vector is not available to this JVM
+    private static final LaneKernel VECTOR_KERNEL = loadVectorKernel();
+
+    // Smallest radiusSquared for which every orbit of a point inside the set stays inside the radius (|Z| <= 2)
+    private static final double BOUNDED_ORBIT_RADIUS_SQUARED = 4.0;
+
+    // Smallest pixel spacing, relative to the size of the coordinates, each arithmetic is used down to. Both leave about
+    // 2^13 ulps per pixel, so rounding errors amplified along an orbit stay well below a pixel.
+    private static final double DOUBLE_RELATIVE_SPACING = 0x1p-40;
+    private static final double DOUBLE_DOUBLE_RELATIVE_SPACING = 0x1p-93;
+    /* Refined pixels sampled per fork-join index by sampleBoundary */
+    private static final int BOUNDARY_CHUNK = 64;
+    /* Mixed with a pixel's index to seed its jitter, so the same view always gets the same samples */
+    private static final long JITTER_SEED = 0x9E3779B97F4A7C15L;
+
+    private final ForkJoinPool pool;
+    private boolean parallel = true;
+    private MandelbrotSolver solver = new BruteForceSolver();
+    private Kernel kernel = Kernel.BATCHED;
+
+    /**
+     * The escape-time loop used for runs of pixels along a row.
+     */
+    public enum Kernel {
+        /** One point at a time, with every interior shortcut. */
+        SCALAR,
+        /** Four interleaved points per loop, hiding the latency of the multiply chain. */
+        BATCHED,
+        /** A vector of points per loop with the JDK Vector API, or BATCHED where the module is absent. */
+        VECTOR
+    }
+
+    /**
+     * The arithmetic a view is iterated with, from cheapest to deepest.
+     */
+    public enum Arithmetic {
+        /** C and Z held as doubles. */
+        DOUBLE,
+        /** C and Z held as double-doubles (about 106 bits), for zooms between double's limit and about 1e-28. */
+        DOUBLE_DOUBLE,
+        /** Doubles relative to an arbitrary precision reference orbit (see PerturbationEngine), for any depth. */
+        PERTURBATION
+    }
+
+    // Interior detection settings
+    private boolean cardioidCheck = true;
+    private boolean bulbCheck = true;
+    private boolean periodicityCheck = true;
+    private double periodicityTolerance = 0.0;
+
+    // Number of pixels resolved by each interior shortcut since the last reset
+    private final LongAdder cardioidSkips = new LongAdder();
+    private final LongAdder bulbSkips = new LongAdder();
+    private final LongAdder periodicitySkips = new LongAdder();
+
+    // Number of iterations run since the last reset, in every arithmetic. Added once per pixel or batch of pixels.
+    private final LongAdder iterationCount = new LongAdder();
+
+    // Deep zoom settings and counters
+    private boolean seriesApproximation = true;
+    private boolean doubleDouble = true;
+    private final LongAdder perturbationRebases = new LongAdder();
+
+    // Julia mode: C is fixed and Z starts at the pixel's point
+    private boolean julia = false;
+    private double juliaReal;
+    private double juliaImaginary;
+
+    /**
+     * Creates a calculator which renders on a fork-join pool sized to the number of available processors.
+     */
+    public MandelbrotCalculator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a calculator which renders on a fork-join pool of the given size.
+     * @param parallelism the number of worker threads used by the parallel path.
+     */
+    public MandelbrotCalculator(int parallelism) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * @return the number of worker threads used by the parallel path.
+     */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Selects between the parallel (fork-join) path and a sequential loop on the calling thread.
+     * @param parallel true to split the frame across the pool, false to compute it on the calling thread.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public MandelbrotSolver getSolver() {
+        return solver;
+    }
+
+    /**
+     * Selects the strategy used to fill each tile of a frame.
+     * @param solver the solver, e.g. BruteForceSolver (every pixel) or RectangleSubdivisionSolver (Mariani-Silver).
+     */
+    public void setSolver(MandelbrotSolver solver) {
+        this.solver = solver;
+    }
+
+    public Kernel getKernel() {
+        return kernel;
+    }
+
+    /**
+     * Selects the escape-time loop used for runs of pixels. All of them give identical iteration values.
+     */
+    public void setKernel(Kernel kernel) {
+        this.kernel = kernel;
+    }
+
+    /**
+     * @return true if the VECTOR kernel runs on the Vector API, false if it falls back to the batched loop.
+     */
+    public static boolean isVectorAvailable() {
+        return VECTOR_KERNEL != null;
+    }
+
+    /**
+     * Function used to load the Vector API kernel, which is compiled separately against jdk.incubator.vector.
+     * @return the kernel, or null if its class or the module it needs cannot be loaded.
+     */
+    private static LaneKernel loadVectorKernel() {
+        try {
+            return (LaneKernel) Class.forName("model.VectorLaneKernel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    public boolean isCardioidCheck() {
+        return cardioidCheck;
+    }
+
+    /**
+     * Enables the closed-form test which returns maxIterations straight away for points inside the main cardioid.
+     * Only applied when radiusSquared is at least 4, where such points can never escape.
+     */
+    public void setCardioidCheck(boolean cardioidCheck) {
+        this.cardioidCheck = cardioidCheck;
+    }
+
+    public boolean isBulbCheck() {
+        return bulbCheck;
+    }
+
+    /**
+     * Enables the closed-form test which returns maxIterations straight away for points inside the period-2 bulb.
+     * Only applied when radiusSquared is at least 4, where such points can never escape.
+     */
+    public void setBulbCheck(boolean bulbCheck) {
+        this.bulbCheck = bulbCheck;
+    }
+
+    public boolean isPeriodicityCheck() {
+        return periodicityCheck;
+    }
+
+    /**
+     * Enables orbit cycle detection: Z is compared against a checkpoint saved at power-of-two iterations and,
+     * once it comes back to within the tolerance of it, the orbit is taken to be periodic and the point inside the set.
+     */
+    public void setPeriodicityCheck(boolean periodicityCheck) {
+        this.periodicityCheck = periodicityCheck;
+    }
+
+    public double getPeriodicityTolerance() {
+        return periodicityTolerance;
+    }
+
+    /**
+     * Sets how close (in each component) Z must return to the checkpoint to count as a cycle.
+     * The default of 0 only accepts exact repeats, which can never change a result; larger values find cycles sooner
+     * but may report a point that escapes very slowly as inside the set.
+     */
+    public void setPeriodicityTolerance(double periodicityTolerance) {
+        this.periodicityTolerance = periodicityTolerance;
+    }
+
+    public long getCardioidSkips() {
+        return cardioidSkips.sum();
+    }
+
+    public long getBulbSkips() {
+        return bulbSkips.sum();
+    }
+
+    public long getPeriodicitySkips() {
+        return periodicitySkips.sum();
+    }
+
+    /**
+     * @return the number of iterations of Z run since the last reset, not counting the ones skipped by the interior
+     * shortcuts or the series approximation.
+     */
+    public long getIterationCount() {
+        return iterationCount.sum();
+    }
+
+    public void resetIterationCount() {
+        iterationCount.reset();
+    }
+
+    /**
+     * Sets the interior shortcut counters back to zero.
+     */
+    public void resetSkipCounts() {
+        cardioidSkips.reset();
+        bulbSkips.reset();
+        periodicitySkips.reset();
+    }
+
+    public boolean isSeriesApproximation() {
+        return seriesApproximation;
+    }
+
+    /**
+     * Enables the series approximation in perturbed (deep zoom) renders, which skips the iterations every pixel shares.
+     */
+    public void setSeriesApproximation(boolean seriesApproximation) {
+        this.seriesApproximation = seriesApproximation;
+    }
+
+    public boolean isDoubleDouble() {
+        return doubleDouble;
+    }
+
+    /**
+     * Enables double-double arithmetic for views in its range of spacings; when off, calcMandelbrotCentred uses perturbation there instead.
+     * Double-double needs no reference orbit and cannot glitch, but costs about twice as much per iteration as a perturbed pixel
+     * and does not benefit from the series approximation.
+     */
+    public void setDoubleDouble(boolean doubleDouble) {
+        this.doubleDouble = doubleDouble;
+    }
+
+    public boolean isJulia() {
+        return julia;
+    }
+
+    public double getJuliaReal() {
+        return juliaReal;
+    }
+
+    public double getJuliaImaginary() {
+        return juliaImaginary;
+    }
+
+    /**
+     * Switches to rendering the Julia set of the given constant C: every method then iterates Z_n+1 = Z_n^2 + C with
+     * Z_0 = the pixel's point instead of Z_0 = 0 and C = the point. The Mandelbrot set's interior shortcuts do not hold
+     * for Julia sets and are skipped; cycle detection still applies. Julia sets are rendered in double arithmetic at any
+     * spacing, as the deep zoom paths (double-double and perturbation) follow the Mandelbrot set's orbits.
+     */
+    public void setJulia(double juliaReal, double juliaImaginary) {
+        this.julia = true;
+        this.juliaReal = juliaReal;
+        this.juliaImaginary = juliaImaginary;
+    }
+
+    /**
+     * Switches back to rendering the Mandelbrot set.
+     */
+    public void setMandelbrot() {
+        this.julia = false;
+    }
+
+    /**
+     * Switches to rendering whichever set a structure describes, the Mandelbrot set or one of its Julia sets.
+     */
+    public void setFractal(MandelbrotStruct struct) {
+        if (struct.isJulia()) {
+            setJulia(struct.getJuliaReal(), struct.getJuliaImag());
+        } else {
+            setMandelbrot();
+        }
+    }
+
+    /**
+     * @return how many times a pixel of a perturbed render has been rebased onto its reference orbit.
+     */
+    public long getPerturbationRebases() {
+        return perturbationRebases.sum();
+    }
+
+    /**
+     * Method which picks the cheapest arithmetic that still resolves neighbouring pixels.
+     * @param pixelSpacing the smaller of the real and imaginary pixel steps.
+     * @param magnitude the largest absolute value of any coordinate in the view.
+     * @return the arithmetic calcMandelbrotCentred uses for such a view.
+     */
+    public static Arithmetic arithmeticFor(double pixelSpacing, double magnitude) {
+        if (pixelSpacing >= magnitude * DOUBLE_RELATIVE_SPACING) {
+            return Arithmetic.DOUBLE;
+        }
+        if (pixelSpacing >= magnitude * DOUBLE_DOUBLE_RELATIVE_SPACING) {
+            return Arithmetic.DOUBLE_DOUBLE;
+        }
+        return Arithmetic.PERTURBATION;
+    }
+
 
 
     /**
@@ -66,9 +408,24 @@ public class MandelbrotCalculator {
      * @param cImaginary the imaginary component (akin to Y component) of the constant C.
      * @param maxIterations the maximum number of iterations over which to iterate the equation until assuming Z will remain bounded.
      * @param radiusSquared the squared of the radius to use when determining whether Z escaped the circle in the complex plain or remained bounded. The value used is commonly 4.0.
+     * @param state where to record the final orbit if the loop stops at maxIterations, or null.
+     * @param smooth where to store the smooth count if Z escapes, or null.
+     * @param index the pixel's index in the frame, used with state and smooth.
      * @return the number iterations for the value of Z to grow outside of the bounding radius, or maxIterations if it never escaped.
      */
-    private int calcMandel(double cReal, double cImaginary, int maxIterations, double radiusSquared){
+    private int calcMandel(double cReal, double cImaginary, int maxIterations, double radiusSquared, ResumeState state, SmoothCounts smooth, int index){
+        return calcPoint(julia, juliaReal, juliaImaginary, cReal, cImaginary, maxIterations, radiusSquared, state, smooth, index);
+    }
+
+    /**
+     * Method which works out the escape count of a point for a fractal given explicitly rather than by setFractal.
+     *
+     * @param julia true for the Julia set of (juliaReal, juliaImaginary), false for the Mandelbrot set.
+     * @param cReal the real component of the point.
+     * @param cImaginary the imaginary component of the point.
+     * @return the number of iterations before Z escaped, or maxIterations.
+     */
+    private int calcPoint(boolean julia, double juliaReal, double juliaImaginary, double cReal, double cImaginary, int maxIterations, double radiusSquared, ResumeState state, SmoothCounts smooth, int index){
         // To work out Z_n+1 = Z_n^2 + C and establish whether C is in the Mandelbrot set or not
         // we need to
         //    square the current value of Z
@@ -78,10 +435,36 @@ public class MandelbrotCalculator {
         // Z = zr + i*zi
         // C = cr + i*ci
         // Z^2 = zr^2 + 2zr*i*zi + i^2*zi^2 = (zr^2 - zi^2) + i*2zr*zi
-        int iterations = 0;
-        double zr = 0;
-        double zi = 0;
+        if (julia) {
+            return iterateFrom(juliaReal, juliaImaginary, cReal, cImaginary, 0, maxIterations, radiusSquared, state, smooth, index); /*The point is Z_0*/
+        }
+        if (mandelbrotShortcut(cReal, cImaginary, radiusSquared)) {
+            return maxIterations;
+        }
+        return iterateFrom(cReal, cImaginary, 0, 0, 0, maxIterations, radiusSquared, state, smooth, index);
+    }
+
+    /**
+     * Method which carries on iterating Z_n+1 = Z_n^2 + C from a given Z_n, with cycle detection if enabled.
+     * Starting from Z_0 = 0 and n = 0 this is the escape-time loop of calcMandel; starting from a Z_n left by an earlier loop it
+     * returns exactly what that loop would have returned had it kept going.
+     *
+     * @param zr the real component of Z_n.
+     * @param zi the imaginary component of Z_n.
+     * @param iterations n, the number of iterations already done without escaping.
+     * @param state where to record how the loop ended if it stops at maxIterations, or null.
+     * @param smooth where to store the smooth count if Z escapes, or null.
+     * @param index the pixel's index in the frame, used with state and smooth.
+     * @return the number iterations for the value of Z to grow outside of the bounding radius, or maxIterations if it never escaped.
+     */
+    private int iterateFrom(double cReal, double cImaginary, double zr, double zi, int iterations, int maxIterations, double radiusSquared, ResumeState state, SmoothCounts smooth, int index){
         boolean outside = false;
+        int firstIteration = iterations;
+        // Checkpoint for cycle detection, moved on after 1, 2, 4, 8... iterations (Brent's method)
+        double savedZr = zr;
+        double savedZi = zi;
+        int checkpointStart = iterations;
+        int checkpointInterval = 1;
         while (iterations < maxIterations && !outside) {
             double zr2 = zr * zr;
             double zi2 = zi * zi;
@@ -92,10 +475,345 @@ public class MandelbrotCalculator {
             if ((zr2 + zi2) > radiusSquared)
                 outside = true;
             iterations++;
+            if (periodicityCheck && !outside) {
+                // Every value from the checkpoint to this one has been checked against the radius, so if the orbit is back at
+                // the checkpoint it will repeat the same values forever and never escape
+                if (Math.abs(zr - savedZr) <= periodicityTolerance && Math.abs(zi - savedZi) <= periodicityTolerance) {
+                    periodicitySkips.increment();
+                    iterationCount.add(iterations - firstIteration);
+                    if (state != null) {
+                        state.markInterior(index);
+                    }
+                    return maxIterations;
+                }
+                if (iterations == checkpointStart + checkpointInterval) {
+                    savedZr = zr;
+                    savedZi = zi;
+                    checkpointStart = iterations;
+                    checkpointInterval <<= 1;
+                }
+            }
+        }
+        iterationCount.add(iterations - firstIteration);
+        if (smooth != null && outside) {
+            smooth.store(index, iterations, zr, zi, cReal, cImaginary);
+        }
+        if (state != null && iterations == maxIterations) {
+            if (outside) {
+                state.markEscaped(index);
+            } else {
+                state.record(index, zr, zi);
+            }
         }
         return iterations;
     }
 
+    /**
+     * Method which carries out the escape-time loop of calcMandel in double-double arithmetic, for C given as hi + lo parts.
+     * Every step is an error-free transformation (see DoubleDouble) done in local variables, so nothing is allocated.
+     * The escape test only needs the hi parts. The closed-form interior tests are not applied, as C rounded to a double
+     * can land on the wrong side of the boundary at these spacings; cycle detection still is.
+     *
+     * @param smooth where to store the smooth count if Z escapes, or null.
+     * @param index the pixel's index in the frame, used with smooth.
+     * @return the number iterations for the value of Z to grow outside of the bounding radius, or maxIterations if it never escaped.
+     */
+    private int iterateDoubleDouble(double cRealHi, double cRealLo, double cImaginaryHi, double cImaginaryLo, int maxIterations, double radiusSquared, SmoothCounts smooth, int index){
+        double zrHi = 0, zrLo = 0, ziHi = 0, ziLo = 0;
+        double savedZrHi = 0, savedZrLo = 0, savedZiHi = 0, savedZiLo = 0;
+        int checkpointStart = 0;
+        int checkpointInterval = 1;
+        int iterations = 0;
+        while (iterations < maxIterations) {
+            /*zr^2*/
+            double product = zrHi * zrHi;
+            double error = DoubleDouble.twoProdError(zrHi, zrHi, product) + 2 * zrHi * zrLo;
+            double zr2Hi = product + error;
+            double zr2Lo = DoubleDouble.fastTwoSumError(product, error, zr2Hi);
+            /*zi^2*/
+            product = ziHi * ziHi;
+            error = DoubleDouble.twoProdError(ziHi, ziHi, product) + 2 * ziHi * ziLo;
+            double zi2Hi = product + error;
+            double zi2Lo = DoubleDouble.fastTwoSumError(product, error, zi2Hi);
+            /*zr * zi*/
+            product = zrHi * ziHi;
+            error = DoubleDouble.twoProdError(zrHi, ziHi, product) + (zrHi * ziLo + zrLo * ziHi);
+            double zrziHi = product + error;
+            double zrziLo = DoubleDouble.fastTwoSumError(product, error, zrziHi);
+            boolean outside = (zr2Hi + zi2Hi) > radiusSquared;
+
+            /*zr = zr^2 - zi^2 + cr*/
+            double sum = zr2Hi - zi2Hi;
+            error = DoubleDouble.twoSumError(zr2Hi, -zi2Hi, sum) + (zr2Lo - zi2Lo);
+            double partHi = sum + error;
+            double partLo = DoubleDouble.fastTwoSumError(sum, error, partHi);
+            sum = partHi + cRealHi;
+            error = DoubleDouble.twoSumError(partHi, cRealHi, sum) + (partLo + cRealLo);
+            zrHi = sum + error;
+            zrLo = DoubleDouble.fastTwoSumError(sum, error, zrHi);
+            /*zi = 2 zr zi + ci (doubling is exact)*/
+            sum = 2 * zrziHi + cImaginaryHi;
+            error = DoubleDouble.twoSumError(2 * zrziHi, cImaginaryHi, sum) + (2 * zrziLo + cImaginaryLo);
+            ziHi = sum + error;
+            ziLo = DoubleDouble.fastTwoSumError(sum, error, ziHi);
+
+            iterations++;
+            if (outside) {
+                if (smooth != null) {
+                    smooth.store(index, iterations, zrHi, ziHi, cRealHi, cImaginaryHi); /*Past the radius the hi parts are plenty*/
+                }
+                break;
+            }
+            if (periodicityCheck) {
+                /*As in iterateFrom, but comparing both parts*/
+                if (Math.abs((zrHi - savedZrHi) + (zrLo - savedZrLo)) <= periodicityTolerance
+                        && Math.abs((ziHi - savedZiHi) + (ziLo - savedZiLo)) <= periodicityTolerance) {
+                    periodicitySkips.increment();
+                    iterationCount.add(iterations);
+                    return maxIterations;
+                }
+                if (iterations == checkpointStart + checkpointInterval) {
+                    savedZrHi = zrHi;
+                    savedZrLo = zrLo;
+                    savedZiHi = ziHi;
+                    savedZiLo = ziLo;
+                    checkpointStart = iterations;
+                    checkpointInterval <<= 1;
+                }
+            }
+        }
+        iterationCount.add(iterations);
+        return iterations;
+    }
+
+    /**
+     * Method which calculates the iteration values of a run of pixels along one row, four points at a time.
+     * The four orbits are interleaved in local variables, so the CPU works on four independent multiply chains at once
+     * instead of waiting on the latency of one. Every lane performs exactly the operations of calcMandel in the same order
+     * and only counts iterations while it is active, so the values are identical to calcMandel.
+     * Once fewer than two lanes are still active, or after BATCHED_ITERATION_LIMIT iterations, the survivors are handed to
+     * iterateFrom, which also applies cycle detection.
+     *
+     * @param pixels the frame's pixel array.
+     * @param rowOffset index in pixels of the first pixel of the row.
+     * @param startX first pixel of the run (inclusive).
+     * @param endX last pixel of the run (exclusive).
+     * @param pointImaginary the imaginary component of the row's points: C, or Z_0 in Julia mode.
+     * @param state where iterateFrom records final orbits, or null.
+     * @param smooth where to store the smooth counts of the pixels which escape, or null.
+     */
+    private void calcMandelBatched(int[] pixels, int rowOffset, int startX, int endX, double minReal, double realStep, double pointImaginary, int maxIterations, double radiusSquared, ResumeState state, SmoothCounts smooth){
+        int x = startX;
+        double cImaginary = julia ? juliaImaginary : pointImaginary;
+        for (; x + LANES <= endX; x += LANES) {
+            double cr0 = minReal + x * realStep;
+            double cr1 = minReal + (x + 1) * realStep;
+            double cr2 = minReal + (x + 2) * realStep;
+            double cr3 = minReal + (x + 3) * realStep;
+            /*Lanes resolved by the closed-form tests start inactive with their final count*/
+            boolean interior0 = interiorShortcut(cr0, cImaginary, radiusSquared);
+            boolean interior1 = interiorShortcut(cr1, cImaginary, radiusSquared);
+            boolean interior2 = interiorShortcut(cr2, cImaginary, radiusSquared);
+            boolean interior3 = interiorShortcut(cr3, cImaginary, radiusSquared);
+            int active0 = interior0 ? 0 : 1;
+            int active1 = interior1 ? 0 : 1;
+            int active2 = interior2 ? 0 : 1;
+            int active3 = interior3 ? 0 : 1;
+            int count0 = active0 == 1 ? 0 : maxIterations;
+            int count1 = active1 == 1 ? 0 : maxIterations;
+            int count2 = active2 == 1 ? 0 : maxIterations;
+            int count3 = active3 == 1 ? 0 : maxIterations;
+            int resolvedCount = count0 + count1 + count2 + count3;
+            double zr0 = 0, zi0 = 0, zr1 = 0, zi1 = 0, zr2 = 0, zi2 = 0, zr3 = 0, zi3 = 0;
+            if (julia) {
+                /*The points are Z_0, and every lane iterates the fixed C*/
+                zr0 = cr0;
+                zr1 = cr1;
+                zr2 = cr2;
+                zr3 = cr3;
+                zi0 = zi1 = zi2 = zi3 = pointImaginary;
+                cr0 = cr1 = cr2 = cr3 = juliaReal;
+            }
+            int batchIterations = Math.min(maxIterations, BATCHED_ITERATION_LIMIT);
+            for (int iteration = 0; iteration < batchIterations && active0 + active1 + active2 + active3 > 1; iteration++) {
+                double zrSquared0 = zr0 * zr0, ziSquared0 = zi0 * zi0;
+                double nzi0 = 2 * zr0 * zi0 + cImaginary;
+                double nzr0 = zrSquared0 - ziSquared0 + cr0;
+                zr0 = active0 == 1 ? nzr0 : zr0; /*An escaped lane keeps its last Z, for the smooth count*/
+                zi0 = active0 == 1 ? nzi0 : zi0;
+                count0 += active0;
+                active0 &= (zrSquared0 + ziSquared0) > radiusSquared ? 0 : 1;
+
+                double zrSquared1 = zr1 * zr1, ziSquared1 = zi1 * zi1;
+                double nzi1 = 2 * zr1 * zi1 + cImaginary;
+                double nzr1 = zrSquared1 - ziSquared1 + cr1;
+                zr1 = active1 == 1 ? nzr1 : zr1; /*An escaped lane keeps its last Z, for the smooth count*/
+                zi1 = active1 == 1 ? nzi1 : zi1;
+                count1 += active1;
+                active1 &= (zrSquared1 + ziSquared1) > radiusSquared ? 0 : 1;
+
+                double zrSquared2 = zr2 * zr2, ziSquared2 = zi2 * zi2;
+                double nzi2 = 2 * zr2 * zi2 + cImaginary;
+                double nzr2 = zrSquared2 - ziSquared2 + cr2;
+                zr2 = active2 == 1 ? nzr2 : zr2; /*An escaped lane keeps its last Z, for the smooth count*/
+                zi2 = active2 == 1 ? nzi2 : zi2;
+                count2 += active2;
+                active2 &= (zrSquared2 + ziSquared2) > radiusSquared ? 0 : 1;
+
+                double zrSquared3 = zr3 * zr3, ziSquared3 = zi3 * zi3;
+                double nzi3 = 2 * zr3 * zi3 + cImaginary;
+                double nzr3 = zrSquared3 - ziSquared3 + cr3;
+                zr3 = active3 == 1 ? nzr3 : zr3; /*An escaped lane keeps its last Z, for the smooth count*/
+                zi3 = active3 == 1 ? nzi3 : zi3;
+                count3 += active3;
+                active3 &= (zrSquared3 + ziSquared3) > radiusSquared ? 0 : 1;
+            }
+            iterationCount.add(count0 + count1 + count2 + count3 - resolvedCount); /*Lanes resolved by the tests did not iterate*/
+            /*Lanes which escaped in the batch, possibly on the last iteration; the ones handed on below record their own*/
+            if (active0 == 0 && !interior0) {
+                recordEscape(rowOffset + x, count0, zr0, zi0, cr0, cImaginary, maxIterations, state, smooth);
+            }
+            if (active1 == 0 && !interior1) {
+                recordEscape(rowOffset + x + 1, count1, zr1, zi1, cr1, cImaginary, maxIterations, state, smooth);
+            }
+            if (active2 == 0 && !interior2) {
+                recordEscape(rowOffset + x + 2, count2, zr2, zi2, cr2, cImaginary, maxIterations, state, smooth);
+            }
+            if (active3 == 0 && !interior3) {
+                recordEscape(rowOffset + x + 3, count3, zr3, zi3, cr3, cImaginary, maxIterations, state, smooth);
+            }
+            pixels[rowOffset + x] = active0 == 1 ? iterateFrom(cr0, cImaginary, zr0, zi0, count0, maxIterations, radiusSquared, state, smooth, rowOffset + x) : count0;
+            pixels[rowOffset + x + 1] = active1 == 1 ? iterateFrom(cr1, cImaginary, zr1, zi1, count1, maxIterations, radiusSquared, state, smooth, rowOffset + x + 1) : count1;
+            pixels[rowOffset + x + 2] = active2 == 1 ? iterateFrom(cr2, cImaginary, zr2, zi2, count2, maxIterations, radiusSquared, state, smooth, rowOffset + x + 2) : count2;
+            pixels[rowOffset + x + 3] = active3 == 1 ? iterateFrom(cr3, cImaginary, zr3, zi3, count3, maxIterations, radiusSquared, state, smooth, rowOffset + x + 3) : count3;
+        }
+        for (; x < endX; x++) {
+            pixels[rowOffset + x] = calcMandel(minReal + x * realStep, pointImaginary, maxIterations, radiusSquared, state, smooth, rowOffset + x);
+        }
+    }
+
+    /**
+     * Method which calculates the iteration values of a run of pixels along one row with the Vector API kernel.
+     * The points are laid out in arrays, run through VECTOR_KERNEL for up to BATCHED_ITERATION_LIMIT iterations, and then
+     * finished exactly as calcMandelBatched finishes its lanes, so the values are identical to calcMandel.
+     * Points past the kernel's last whole vector are left active and go to iterateFrom from Z_0.
+     *
+     * @param pixels the frame's pixel array.
+     * @param rowOffset index in pixels of the first pixel of the row.
+     * @param startX first pixel of the run (inclusive).
+     * @param endX last pixel of the run (exclusive).
+     * @param pointImaginary the imaginary component of the row's points: C, or Z_0 in Julia mode.
+     * @param state where iterateFrom records final orbits, or null.
+     * @param smooth where to store the smooth counts of the pixels which escape, or null.
+     */
+    private void calcMandelVector(int[] pixels, int rowOffset, int startX, int endX, double minReal, double realStep, double pointImaginary, int maxIterations, double radiusSquared, ResumeState state, SmoothCounts smooth){
+        int length = endX - startX;
+        double cImaginary = julia ? juliaImaginary : pointImaginary;
+        double[] zr = new double[length];
+        double[] zi = new double[length];
+        double[] cr = new double[length];
+        int[] counts = new int[length];
+        boolean[] active = new boolean[length];
+        boolean[] interior = new boolean[length];
+        long resolvedCount = 0;
+        for (int i = 0; i < length; i++) {
+            double pointReal = minReal + (startX + i) * realStep;
+            /*Points resolved by the closed-form tests start inactive with their final count*/
+            interior[i] = interiorShortcut(pointReal, cImaginary, radiusSquared);
+            active[i] = !interior[i];
+            if (interior[i]) {
+                counts[i] = maxIterations;
+                resolvedCount += maxIterations;
+            }
+            if (julia) {
+                zr[i] = pointReal;
+                zi[i] = pointImaginary;
+                cr[i] = juliaReal;
+            } else {
+                cr[i] = pointReal;
+            }
+        }
+        VECTOR_KERNEL.iterate(zr, zi, cr, cImaginary, counts, active, length, Math.min(maxIterations, BATCHED_ITERATION_LIMIT), radiusSquared);
+        long totalCount = 0;
+        for (int count : counts) {
+            totalCount += count;
+        }
+        iterationCount.add(totalCount - resolvedCount); /*Points resolved by the tests did not iterate*/
+        for (int i = 0; i < length; i++) {
+            int index = rowOffset + startX + i;
+            if (active[i]) {
+                pixels[index] = iterateFrom(cr[i], cImaginary, zr[i], zi[i], counts[i], maxIterations, radiusSquared, state, smooth, index);
+            } else {
+                if (!interior[i]) {
+                    recordEscape(index, counts[i], zr[i], zi[i], cr[i], cImaginary, maxIterations, state, smooth);
+                }
+                pixels[index] = counts[i];
+            }
+        }
+    }
+
+    /**
+     * Method which records a point that escaped within a batch as iterateFrom would have: its smooth count and, if it
+     * escaped on the last iteration, its status for a later resume.
+     *
+     * @param count the point's iteration value.
+     * @param zr the real component of the point's last Z.
+     * @param zi the imaginary component of the point's last Z.
+     */
+    private static void recordEscape(int index, int count, double zr, double zi, double cReal, double cImaginary, int maxIterations, ResumeState state, SmoothCounts smooth) {
+        if (smooth != null) {
+            smooth.store(index, count, zr, zi, cReal, cImaginary);
+        }
+        if (state != null && count == maxIterations) {
+            state.markEscaped(index);
+        }
+    }
+
+    /**
+     * Method which applies the enabled closed-form interior tests to C, counting the pixels they resolve.
+     * @return true if C is known to be inside the set without iterating.
+     */
+    private boolean interiorShortcut(double cReal, double cImaginary, double radiusSquared) {
+        return !julia && mandelbrotShortcut(cReal, cImaginary, radiusSquared);
+    }
+
+    /**
+     * Method which applies the enabled closed-form interior tests of the Mandelbrot set to C, whatever fractal is set.
+     * @return true if C is known to be inside the Mandelbrot set without iterating.
+     */
+    private boolean mandelbrotShortcut(double cReal, double cImaginary, double radiusSquared) {
+        if (radiusSquared < BOUNDED_ORBIT_RADIUS_SQUARED) {
+            return false;
+        }
+        if (cardioidCheck && inMainCardioid(cReal, cImaginary)) {
+            cardioidSkips.increment();
+            return true;
+        }
+        if (bulbCheck && inPeriod2Bulb(cReal, cImaginary)) {
+            bulbSkips.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Method which tests whether C lies in the main cardioid of the Mandelbrot set, using q(q + (x - 1/4)) <= y^2 / 4 with q = (x - 1/4)^2 + y^2.
+     */
+    private static boolean inMainCardioid(double cReal, double cImaginary) {
+        double shiftedReal = cReal - 0.25;
+        double imaginary2 = cImaginary * cImaginary;
+        double q = shiftedReal * shiftedReal + imaginary2;
+        return q * (q + shiftedReal) <= 0.25 * imaginary2;
+    }
+
+    /**
+     * Method which tests whether C lies in the period-2 bulb, the disc of radius 1/4 centred on -1.
+     */
+    private static boolean inPeriod2Bulb(double cReal, double cImaginary) {
+        double shiftedReal = cReal + 1.0;
+        return shiftedReal * shiftedReal + cImaginary * cImaginary <= 0.0625;
+    }
+
 
 
     /**
@@ -110,22 +828,577 @@ public class MandelbrotCalculator {
      * @return the 2-D integer array mandelbrotData[yResolution][xResolution] containing the for each [y][x] pixel the number of iterations needed until Z escaped the bounding radius, or maxIterations otherwise.
      */
     public int[][] calcMandelbrotSet(int xResolution, int yResolution, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared){
-        int[][] mandelbrotData = new int[yResolution][xResolution];
-        double realRange = maxReal - minReal;
+        FrameBuffer frame = new FrameBuffer(xResolution, yResolution);
+        calcMandelbrotSet(frame, minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared, NEVER_CANCELLED);
+        return frame.toArray();
+    }
+
+    /**
+     * Method to calculate the Mandelbrot set into an existing frame buffer, which can be abandoned part way through.
+     * The token is polled once per tile, so a stale render stops within a tile's worth of work.
+     * @param frame the buffer to fill; its width and height are the x and y resolution.
+     * @param token polled to find out whether the caller still wants the result.
+     * @throws CancellationException if the token reported cancellation before the frame was complete.
+     */
+    public void calcMandelbrotSet(FrameBuffer frame, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared, RenderToken token){
+        calcMandelbrotRegion(frame, 0, frame.getWidth(), 0, frame.getHeight(), minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared, token);
+    }
 
+    /**
+     * Method to calculate one pass of a progressive (coarse-to-fine) render into an existing frame.
+     * A pass computes the pixels lying on a grid of the given step and fills the step x step block below and to the right of each with its value,
+     * so the frame can be displayed as a blocky preview. Pixels that also lie on the grid of the previous (twice as coarse) pass are skipped,
+     * as their value and block are already in place. Running passes with steps 2^n, ..., 2, 1 therefore computes every pixel exactly once.
+     * @param frame the frame being refined; must hold the previous passes.
+     * @param pixelStep the grid step of this pass. Must be a power of two.
+     * @param firstPass true if there is no coarser pass already in the array.
+     * @throws CancellationException if the token reported cancellation before the pass was complete.
+     */
+    public void calcMandelbrotPass(FrameBuffer frame, int pixelStep, boolean firstPass, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared, RenderToken token){
+        int yResolution = frame.getHeight();
+        int xResolution = frame.getWidth();
         double realStep = (maxReal - minReal)/xResolution;
         double imaginaryStep = (maxImaginary - minImaginary)/yResolution;
+        int coarseStep = pixelStep * 2;
+        int passRows = (yResolution + pixelStep - 1) / pixelStep;
+        ResumeState state = frame.getResumeState();
+        SmoothCounts smooth = SmoothCounts.of(frame, radiusSquared);
+        /*Each pass counts the pixels it computes, on top of the passes before*/
+        IterationHistogram previous = firstPass ? null : frame.getHistogram();
+        WorkerHistograms histograms = frame.isHistogramKept() && (firstPass || previous != null) ? new WorkerHistograms(maxIterations) : null;
+
+        forEachIndex(passRows, passRow -> {
+            IterationHistogram counted = histograms != null ? histograms.local() : null;
+            int y = passRow * pixelStep;
+            double cImaginary = minImaginary + y * imaginaryStep;
+            boolean onCoarseRow = !firstPass && y % coarseStep == 0;
+            int blockHeight = Math.min(pixelStep, yResolution - y);
+            for (int x = 0; x < xResolution; x += pixelStep) {
+                if (onCoarseRow && x % coarseStep == 0) {
+                    continue; /*Computed by the previous pass*/
+                }
+                double cReal = minReal + x * realStep;
+                int index = frame.rowOffset(y) + x;
+                if (smooth != null) {
+                    smooth.clear(index); /*Still holds the coarser block's count; a point escaping on the last iteration has its own*/
+                }
+                int value = calcMandel(cReal, cImaginary, maxIterations, radiusSquared, state, smooth, index);
+                float smoothValue = smooth != null ? smooth.get(index) : Float.NaN;
+                if (counted != null) {
+                    counted.add(value);
+                }
+                int blockEnd = Math.min(x + pixelStep, xResolution);
+                for (int blockY = y; blockY < y + blockHeight; blockY++) {
+                    frame.fillRow(blockY, x, blockEnd, value, smoothValue);
+                }
+            }
+        }, token);
+        frame.setHistogram(histograms != null ? histograms.merge(previous) : null);
+    }
+
+    /**
+     * Method to calculate a rectangular region of an existing frame, leaving the other pixels untouched.
+     * Pixels are mapped across the whole frame exactly as in calcMandelbrotSet, so a region filled here matches a full render.
+     * @param frame the frame to fill; its width and height are the x and y resolution.
+     * @param startX first column of the region (inclusive).
+     * @param endX last column of the region (exclusive).
+     * @param startY first row of the region (inclusive).
+     * @param endY last row of the region (exclusive).
+     * @throws CancellationException if the token reported cancellation before the region was complete.
+     */
+    public void calcMandelbrotRegion(FrameBuffer frame, int startX, int endX, int startY, int endY, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared, RenderToken token){
+        calcMandelbrotRegion(frame, startX, endX, startY, endY, minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared, null, token);
+    }
+
+    /**
+     * Method to calculate a rectangular region of an existing frame as calcMandelbrotRegion does, also adding the region's
+     * values to a histogram. Used to count a frame assembled from parts, which the caller attaches once every part is counted.
+     * @param counts the histogram the region's values are added to, counting at least maxIterations; or null.
+     * @throws CancellationException if the token reported cancellation before the region was complete; counts is then unchanged.
+     */
+    public void calcMandelbrotRegion(FrameBuffer frame, int startX, int endX, int startY, int endY, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared, IterationHistogram counts, RenderToken token){
+        int yResolution = frame.getHeight();
+        int xResolution = frame.getWidth();
+        double realStep = (maxReal - minReal)/xResolution;
+        double imaginaryStep = (maxImaginary - minImaginary)/yResolution;
+
+        /*Each pixel is mapped from its index (rather than accumulated) so every tile gives the same values whichever thread computes it.*/
+        boolean vector = kernel == Kernel.VECTOR && VECTOR_KERNEL != null;
+        boolean batched = kernel == Kernel.BATCHED || (kernel == Kernel.VECTOR && !vector);
+        ResumeState state = frame.getResumeState();
+        SmoothCounts smooth = SmoothCounts.of(frame, radiusSquared);
+        MandelbrotSolver.PixelCalculator pixels = new MandelbrotSolver.PixelCalculator() {
+            @Override
+            public int calcPixel(int x, int y) {
+                return calcMandel(minReal + x * realStep, minImaginary + y * imaginaryStep, maxIterations, radiusSquared, state, smooth, frame.rowOffset(y) + x);
+            }
+
+            @Override
+            public void calcRow(FrameBuffer rowFrame, int rowStartX, int rowEndX, int y) {
+                if (vector) {
+                    calcMandelVector(rowFrame.getPixels(), rowFrame.rowOffset(y), rowStartX, rowEndX, minReal, realStep, minImaginary + y * imaginaryStep, maxIterations, radiusSquared, state, smooth);
+                } else if (batched) {
+                    calcMandelBatched(rowFrame.getPixels(), rowFrame.rowOffset(y), rowStartX, rowEndX, minReal, realStep, minImaginary + y * imaginaryStep, maxIterations, radiusSquared, state, smooth);
+                } else {
+                    MandelbrotSolver.PixelCalculator.super.calcRow(rowFrame, rowStartX, rowEndX, y);
+                }
+            }
+        };
+        solveRegion(frame, startX, endX, startY, endY, pixels, maxIterations, counts, token);
+    }
 
+    /**
+     * Method which splits a region of a frame into tiles and has the selected solver fill each of them from the given pixel calculator.
+     * If the frame keeps a histogram and the region is the whole frame, each tile is counted by the worker which filled it
+     * (while it is still in cache) and the frame is given the merged histogram; a partly recomputed frame is left without one.
+     * Tiles are counted the same way when counts is given, and the merged counts are added to it.
+     */
+    private void solveRegion(FrameBuffer frame, int startX, int endX, int startY, int endY, MandelbrotSolver.PixelCalculator pixels, int maxIterations, IterationHistogram counts, RenderToken token){
+        MandelbrotSolver regionSolver = solver;
+        int tileColumns = (endX - startX + TILE_SIZE - 1) / TILE_SIZE;
+        int tileRows = (endY - startY + TILE_SIZE - 1) / TILE_SIZE;
+        boolean wholeFrame = startX == 0 && startY == 0 && endX == frame.getWidth() && endY == frame.getHeight();
+        WorkerHistograms histograms = (frame.isHistogramKept() && wholeFrame) || counts != null ? new WorkerHistograms(maxIterations) : null;
+        forEachIndex(tileColumns * tileRows, tile -> {
+            int tileX = startX + (tile % tileColumns) * TILE_SIZE;
+            int tileY = startY + (tile / tileColumns) * TILE_SIZE;
+            int tileEndX = Math.min(tileX + TILE_SIZE, endX);
+            int tileEndY = Math.min(tileY + TILE_SIZE, endY);
+            regionSolver.solveTile(frame, tileX, tileEndX, tileY, tileEndY, pixels);
+            if (histograms != null) {
+                IterationHistogram counted = histograms.local();
+                for (int y = tileY; y < tileEndY; y++) {
+                    counted.addRun(frame.getPixels(), frame.rowOffset(y) + tileX, tileEndX - tileX);
+                }
+            }
+        }, token);
+        IterationHistogram counted = histograms != null ? histograms.merge(null) : null;
+        if (counts != null) {
+            counts.merge(counted);
+        }
+        frame.setHistogram(frame.isHistogramKept() && wholeFrame ? counted : null);
+    }
 
-        for (int y = 0; y < yResolution; y++) {
+    /**
+     * Method to raise the iteration budget of a finished frame in place, only iterating the pixels which had not escaped.
+     * The frame must hold the same view rendered with a smaller maxIterations and carry the ResumeState recorded then.
+     * Pixels recorded as RESUMABLE carry on from their saved Z, periodic ones are set straight to the new budget,
+     * and pixels at the old budget with nothing recorded are computed afresh; every other pixel had escaped and keeps its value.
+     * The result is the same as a full render with the new budget, and the state is updated so the budget can be raised again.
+     * @param frame the frame to refine, with its ResumeState attached.
+     * @param maxIterations the new budget, at least the one the state was recorded with.
+     * @throws CancellationException if the token reported cancellation; the frame and state are then only partly updated.
+     */
+    public void resumeMandelbrotSet(FrameBuffer frame, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared, RenderToken token){
+        ResumeState state = frame.getResumeState();
+        if (state == null || maxIterations < state.getMaxIterations()) {
+            throw new IllegalStateException("Frame has no state to resume to " + maxIterations + " iterations");
+        }
+        int xResolution = frame.getWidth();
+        int yResolution = frame.getHeight();
+        double realStep = (maxReal - minReal)/xResolution;
+        double imaginaryStep = (maxImaginary - minImaginary)/yResolution;
+        int previousMaxIterations = state.getMaxIterations();
+        int[] pixels = frame.getPixels();
+        SmoothCounts smooth = SmoothCounts.of(frame, radiusSquared);
+        /*The copied frame's histogram, with the pixels iterated further moved from the old budget to their new value*/
+        IterationHistogram previous = frame.getHistogram();
+        WorkerHistograms histograms = frame.isHistogramKept() && previous != null ? new WorkerHistograms(maxIterations) : null;
+
+        forEachIndex(yResolution, y -> {
             double cImaginary = minImaginary + y * imaginaryStep;
+            int offset = frame.rowOffset(y);
+            IterationHistogram counted = histograms != null ? histograms.local() : null;
             for (int x = 0; x < xResolution; x++) {
-                double cReal = minReal + x * realStep;
-                mandelbrotData[y][x] = calcMandel(cReal, cImaginary, maxIterations, radiusSquared);
-                cReal = cReal + realStep;
+                int index = offset + x;
+                if (pixels[index] != previousMaxIterations) {
+                    continue; /*Escaped, and would escape at the same iteration again*/
+                }
+                switch (state.getStatus(index)) {
+                    case ResumeState.RESUMABLE:
+                        pixels[index] = julia
+                                ? iterateFrom(juliaReal, juliaImaginary, state.getZReal(index), state.getZImag(index), previousMaxIterations, maxIterations, radiusSquared, state, smooth, index)
+                                : iterateFrom(minReal + x * realStep, cImaginary, state.getZReal(index), state.getZImag(index), previousMaxIterations, maxIterations, radiusSquared, state, smooth, index);
+                        break;
+                    case ResumeState.INTERIOR:
+                        pixels[index] = maxIterations;
+                        break;
+                    case ResumeState.ESCAPED:
+                        break;
+                    default:
+                        pixels[index] = calcMandel(minReal + x * realStep, cImaginary, maxIterations, radiusSquared, state, smooth, index);
+                }
+                if (counted != null) {
+                    counted.move(previousMaxIterations, pixels[index]);
+                }
             }
+        }, token);
+        frame.setHistogram(histograms != null ? histograms.merge(previous) : null);
+        state.setMaxIterations(maxIterations);
+    }
+
+    /**
+     * Method to calculate the Mandelbrot set for a view given by its centre and pixel spacing, with the arithmetic picked by arithmeticFor
+     * (double-double only if enabled). In Julia mode doubles are always used.
+     * Pixel (x, y) is at centre + ((x - width / 2) * realStep, (y - height / 2) * imaginaryStep), whichever arithmetic is used.
+     * @param frame the buffer to fill; its width and height are the x and y resolution.
+     * @param centreReal the real component at the centre of the view.
+     * @param centreImaginary the imaginary component at the centre of the view.
+     * @param realStep the real distance between neighbouring pixels.
+     * @param imaginaryStep the imaginary distance between neighbouring pixels.
+     * @throws CancellationException if the token reported cancellation before the frame was complete.
+     */
+    public void calcMandelbrotCentred(FrameBuffer frame, BigDecimal centreReal, BigDecimal centreImaginary, double realStep, double imaginaryStep, int maxIterations, double radiusSquared, RenderToken token){
+        double halfWidth = frame.getWidth() / 2.0;
+        double halfHeight = frame.getHeight() / 2.0;
+        double magnitude = Math.max(Math.abs(centreReal.doubleValue()) + halfWidth * realStep, Math.abs(centreImaginary.doubleValue()) + halfHeight * imaginaryStep);
+        switch (julia ? Arithmetic.DOUBLE : arithmeticFor(Math.min(realStep, imaginaryStep), magnitude)) {
+            case DOUBLE:
+                double minReal = centreReal.doubleValue() - halfWidth * realStep;
+                double minImaginary = centreImaginary.doubleValue() - halfHeight * imaginaryStep;
+                calcMandelbrotSet(frame, minReal, minReal + frame.getWidth() * realStep, minImaginary, minImaginary + frame.getHeight() * imaginaryStep, maxIterations, radiusSquared, token);
+                break;
+            case DOUBLE_DOUBLE:
+                if (doubleDouble) {
+                    calcMandelbrotDoubleDouble(frame, centreReal, centreImaginary, realStep, imaginaryStep, maxIterations, radiusSquared, token);
+                } else {
+                    calcMandelbrotPerturbed(frame, centreReal, centreImaginary, realStep, imaginaryStep, maxIterations, radiusSquared, token);
+                }
+                break;
+            default:
+                calcMandelbrotPerturbed(frame, centreReal, centreImaginary, realStep, imaginaryStep, maxIterations, radiusSquared, token);
         }
-        return mandelbrotData;
     }
-}
 
+    /**
+     * Method to calculate the Mandelbrot set with every pixel iterated in double-double arithmetic (about 106 bits).
+     * Much cheaper than perturbation for zooms just past the reach of doubles, with no reference orbit or glitches.
+     * Pixels are mapped as in calcMandelbrotCentred and the tiles are filled by the selected solver.
+     * @param frame the buffer to fill; its width and height are the x and y resolution.
+     * @param centreReal the real component at the centre of the view.
+     * @param centreImaginary the imaginary component at the centre of the view.
+     * @param realStep the real distance between neighbouring pixels.
+     * @param imaginaryStep the imaginary distance between neighbouring pixels.
+     * @throws CancellationException if the token reported cancellation before the frame was complete.
+     */
+    public void calcMandelbrotDoubleDouble(FrameBuffer frame, BigDecimal centreReal, BigDecimal centreImaginary, double realStep, double imaginaryStep, int maxIterations, double radiusSquared, RenderToken token){
+        double halfWidth = frame.getWidth() / 2.0;
+        double halfHeight = frame.getHeight() / 2.0;
+        double centreRealHi = DoubleDouble.hi(centreReal);
+        double centreRealLo = DoubleDouble.lo(centreReal, centreRealHi);
+        double centreImaginaryHi = DoubleDouble.hi(centreImaginary);
+        double centreImaginaryLo = DoubleDouble.lo(centreImaginary, centreImaginaryHi);
+        SmoothCounts smooth = SmoothCounts.of(frame, radiusSquared);
+        /*C = centre + offset, with the offset (a few thousand pixel steps at most) exact enough as a double*/
+        solveRegion(frame, 0, frame.getWidth(), 0, frame.getHeight(), (x, y) -> {
+            double offsetReal = (x - halfWidth) * realStep;
+            double offsetImaginary = (y - halfHeight) * imaginaryStep;
+            double sum = centreRealHi + offsetReal;
+            double error = DoubleDouble.twoSumError(centreRealHi, offsetReal, sum) + centreRealLo;
+            double cRealHi = sum + error;
+            double cRealLo = DoubleDouble.fastTwoSumError(sum, error, cRealHi);
+            sum = centreImaginaryHi + offsetImaginary;
+            error = DoubleDouble.twoSumError(centreImaginaryHi, offsetImaginary, sum) + centreImaginaryLo;
+            double cImaginaryHi = sum + error;
+            double cImaginaryLo = DoubleDouble.fastTwoSumError(sum, error, cImaginaryHi);
+            return iterateDoubleDouble(cRealHi, cRealLo, cImaginaryHi, cImaginaryLo, maxIterations, radiusSquared, smooth, frame.rowOffset(y) + x);
+        }, maxIterations, null, token);
+    }
+
+    /**
+     * Method to calculate the Mandelbrot set for a deep zoom, where the pixel spacing is too small for C to be held as a double.
+     * A reference orbit is computed at the centre with arbitrary precision and every pixel is iterated as a double-precision
+     * difference from it (see PerturbationEngine). Pixel (x, y) is at centre + ((x - width / 2) * realStep, (y - height / 2) * imaginaryStep),
+     * the same point calcMandelbrotSet would use for a view with that centre and spacing.
+     * @param frame the buffer to fill; its width and height are the x and y resolution.
+     * @param centreReal the real component at the centre of the view.
+     * @param centreImaginary the imaginary component at the centre of the view.
+     * @param realStep the real distance between neighbouring pixels.
+     * @param imaginaryStep the imaginary distance between neighbouring pixels.
+     * @throws CancellationException if the token reported cancellation before the frame was complete.
+     */
+    public void calcMandelbrotPerturbed(FrameBuffer frame, BigDecimal centreReal, BigDecimal centreImaginary, double realStep, double imaginaryStep, int maxIterations, double radiusSquared, RenderToken token){
+        int xResolution = frame.getWidth();
+        int yResolution = frame.getHeight();
+        double halfWidth = xResolution / 2.0;
+        double halfHeight = yResolution / 2.0;
+        double maxDelta = Math.hypot(halfWidth * realStep, halfHeight * imaginaryStep);
+        PerturbationEngine engine = new PerturbationEngine(centreReal, centreImaginary, Math.min(realStep, imaginaryStep), maxDelta, maxIterations, radiusSquared, seriesApproximation, token);
+        int[] pixels = frame.getPixels();
+        SmoothCounts smooth = SmoothCounts.of(frame, radiusSquared);
+        WorkerHistograms histograms = frame.isHistogramKept() ? new WorkerHistograms(maxIterations) : null;
+        try {
+            forEachIndex(yResolution, y -> {
+                double deltaImaginary = (y - halfHeight) * imaginaryStep;
+                int offset = frame.rowOffset(y);
+                for (int x = 0; x < xResolution; x++) {
+                    pixels[offset + x] = engine.calcPixel((x - halfWidth) * realStep, deltaImaginary, smooth, offset + x);
+                }
+                if (histograms != null) {
+                    histograms.local().addRun(pixels, offset, xResolution);
+                }
+            }, token);
+            frame.setHistogram(histograms != null ? histograms.merge(null) : null);
+        } finally {
+            perturbationRebases.add(engine.getRebases());
+            iterationCount.add(engine.getIterationCount());
+        }
+    }
+
+    /**
+     * Method to take sub-pixel samples of the boundary pixels of a frame already filled by calcMandelbrotCentred, for adaptive anti-aliasing.
+     * A pixel is on a boundary if one of its four neighbours in the frame differs from it by more than threshold iterations, or if exactly
+     * one of the two reached maxIterations. Only those pixels are sampled, gridSize x gridSize times each: the pixel's footprint (one step
+     * wide, centred on the point the pixel was computed at) is split into a grid and each cell sampled at a random point within it, which
+     * breaks up the moire a regular grid leaves on fine filaments. The jitter is seeded by the pixel's index, so the samples are repeatable.
+     * Samples are spread over the pool and use the same arithmetic as calcMandelbrotCentred would for the view; each has a smooth count if the frame keeps them.
+     * @param frame the frame, filled for the given view.
+     * @param fractal the view whose fractal (Mandelbrot or Julia, with its constant) the frame shows; the fractal set on this calculator is not used.
+     * @param centreReal the real component at the centre of the view.
+     * @param centreImaginary the imaginary component at the centre of the view.
+     * @param realStep the real distance between neighbouring pixels.
+     * @param imaginaryStep the imaginary distance between neighbouring pixels.
+     * @param threshold the largest difference in iterations between neighbours that is not a boundary.
+     * @param gridSize the number of samples along each side of a pixel.
+     * @return the samples, with the number of pixels refined.
+     * @throws CancellationException if the token reported cancellation before every sample was taken.
+     */
+    public BoundarySamples sampleBoundary(FrameBuffer frame, MandelbrotStruct fractal, BigDecimal centreReal, BigDecimal centreImaginary, double realStep, double imaginaryStep, int maxIterations, double radiusSquared, int threshold, int gridSize, RenderToken token){
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        double halfWidth = width / 2.0;
+        double halfHeight = height / 2.0;
+        int[] pixels = frame.getPixels();
+
+        /*Find the boundary pixels, a row per index, then gather them in frame order*/
+        boolean[] boundary = new boolean[pixels.length];
+        forEachIndex(height, y -> {
+            int offset = frame.rowOffset(y);
+            for (int x = 0; x < width; x++) {
+                int value = pixels[offset + x];
+                boundary[offset + x] = (x > 0 && isEdge(value, pixels[offset + x - 1], threshold, maxIterations))
+                        || (x + 1 < width && isEdge(value, pixels[offset + x + 1], threshold, maxIterations))
+                        || (y > 0 && isEdge(value, pixels[offset - width + x], threshold, maxIterations))
+                        || (y + 1 < height && isEdge(value, pixels[offset + width + x], threshold, maxIterations));
+            }
+        }, token);
+        int boundaryCount = 0;
+        for (boolean edge : boundary) {
+            boundaryCount += edge ? 1 : 0;
+        }
+        int[] pixelIndices = new int[boundaryCount];
+        for (int index = 0, next = 0; index < pixels.length; index++) {
+            if (boundary[index]) {
+                pixelIndices[next++] = index;
+            }
+        }
+        int samplesPerPixel = gridSize * gridSize;
+        BoundarySamples samples = new BoundarySamples(pixelIndices, samplesPerPixel, frame.getSmooth() != null);
+        int[] values = samples.getValues();
+        SmoothCounts smooth = SmoothCounts.into(samples.getSmooth(), radiusSquared);
+
+        /*Point samplers for the view's arithmetic, given the offset from the centre in pixels*/
+        double magnitude = Math.max(Math.abs(centreReal.doubleValue()) + halfWidth * realStep, Math.abs(centreImaginary.doubleValue()) + halfHeight * imaginaryStep);
+        boolean sampleJulia = fractal.isJulia();
+        Arithmetic arithmetic = sampleJulia ? Arithmetic.DOUBLE : arithmeticFor(Math.min(realStep, imaginaryStep), magnitude);
+        PerturbationEngine engine = null;
+        SamplePoint sampler;
+        if (arithmetic == Arithmetic.DOUBLE) {
+            double centreRealValue = centreReal.doubleValue();
+            double centreImaginaryValue = centreImaginary.doubleValue();
+            double sampleJuliaReal = fractal.getJuliaReal();
+            double sampleJuliaImaginary = fractal.getJuliaImag();
+            sampler = (offsetX, offsetY, index) -> calcPoint(sampleJulia, sampleJuliaReal, sampleJuliaImaginary,
+                    centreRealValue + offsetX * realStep, centreImaginaryValue + offsetY * imaginaryStep, maxIterations, radiusSquared, null, smooth, index);
+        } else if (arithmetic == Arithmetic.DOUBLE_DOUBLE && doubleDouble) {
+            double centreRealHi = DoubleDouble.hi(centreReal);
+            double centreRealLo = DoubleDouble.lo(centreReal, centreRealHi);
+            double centreImaginaryHi = DoubleDouble.hi(centreImaginary);
+            double centreImaginaryLo = DoubleDouble.lo(centreImaginary, centreImaginaryHi);
+            sampler = (offsetX, offsetY, index) -> {
+                double offsetReal = offsetX * realStep;
+                double offsetImaginary = offsetY * imaginaryStep;
+                double sum = centreRealHi + offsetReal;
+                double error = DoubleDouble.twoSumError(centreRealHi, offsetReal, sum) + centreRealLo;
+                double cRealHi = sum + error;
+                double cRealLo = DoubleDouble.fastTwoSumError(sum, error, cRealHi);
+                sum = centreImaginaryHi + offsetImaginary;
+                error = DoubleDouble.twoSumError(centreImaginaryHi, offsetImaginary, sum) + centreImaginaryLo;
+                double cImaginaryHi = sum + error;
+                double cImaginaryLo = DoubleDouble.fastTwoSumError(sum, error, cImaginaryHi);
+                return iterateDoubleDouble(cRealHi, cRealLo, cImaginaryHi, cImaginaryLo, maxIterations, radiusSquared, smooth, index);
+            };
+        } else {
+            double maxDelta = Math.hypot((halfWidth + 1) * realStep, (halfHeight + 1) * imaginaryStep);
+            PerturbationEngine perturbation = new PerturbationEngine(centreReal, centreImaginary, Math.min(realStep, imaginaryStep), maxDelta, maxIterations, radiusSquared, seriesApproximation, token);
+            engine = perturbation;
+            sampler = (offsetX, offsetY, index) -> perturbation.calcPixel(offsetX * realStep, offsetY * imaginaryStep, smooth, index);
+        }
+
+        double cellSize = 1.0 / gridSize;
+        float[] smoothValues = samples.getSmooth();
+        boolean coarseFirst = gridSize % 2 == 0;
+        try {
+            forEachIndex((boundaryCount + BOUNDARY_CHUNK - 1) / BOUNDARY_CHUNK, chunk -> {
+                int end = Math.min(pixelIndices.length, (chunk + 1) * BOUNDARY_CHUNK);
+                double[] jitters = new double[2 * samplesPerPixel];
+                for (int pixel = chunk * BOUNDARY_CHUNK; pixel < end; pixel++) {
+                    int index = pixelIndices[pixel];
+                    double pixelX = index % width - halfWidth - 0.5; /*Lower left corner of the footprint*/
+                    double pixelY = index / width - halfHeight - 0.5;
+                    SplittableRandom jitter = new SplittableRandom(index * JITTER_SEED);
+                    for (int cell = 0; cell < jitters.length; cell++) {
+                        jitters[cell] = jitter.nextDouble();
+                    }
+                    int first = pixel * samplesPerPixel;
+                    /*With an even grid, sample one cell of each 2 x 2 block first; if those agree the pixel is only partly on the
+                    boundary (e.g. its neighbour is the edge), and each stands for its block*/
+                    int coarseStep = coarseFirst ? 2 : 1;
+                    boolean agree = true;
+                    int coarseValue = -1;
+                    for (int cellY = 0; cellY < gridSize; cellY += coarseStep) {
+                        for (int cellX = 0; cellX < gridSize; cellX += coarseStep) {
+                            int cell = cellY * gridSize + cellX;
+                            int value = sampler.calc(pixelX + (cellX + jitters[2 * cell]) * cellSize, pixelY + (cellY + jitters[2 * cell + 1]) * cellSize, first + cell);
+                            values[first + cell] = value;
+                            agree &= coarseValue < 0 || !isEdge(value, coarseValue, threshold, maxIterations);
+                            coarseValue = coarseValue < 0 ? value : coarseValue;
+                        }
+                    }
+                    if (!coarseFirst) {
+                        continue;
+                    }
+                    for (int cellY = 0; cellY < gridSize; cellY++) {
+                        for (int cellX = 0; cellX < gridSize; cellX++) {
+                            int cell = cellY * gridSize + cellX;
+                            if (cellX % 2 == 0 && cellY % 2 == 0) {
+                                continue; /*Already sampled*/
+                            }
+                            if (agree) {
+                                int blockCell = (cellY & ~1) * gridSize + (cellX & ~1);
+                                values[first + cell] = values[first + blockCell];
+                                if (smoothValues != null) {
+                                    smoothValues[first + cell] = smoothValues[first + blockCell];
+                                }
+                            } else {
+                                values[first + cell] = sampler.calc(pixelX + (cellX + jitters[2 * cell]) * cellSize, pixelY + (cellY + jitters[2 * cell + 1]) * cellSize, first + cell);
+                            }
+                        }
+                    }
+                }
+            }, token);
+        } finally {
+            if (engine != null) {
+                perturbationRebases.add(engine.getRebases());
+                iterationCount.add(engine.getIterationCount());
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Method which tells whether two neighbouring values are far enough apart to need anti-aliasing.
+     */
+    private static boolean isEdge(int value, int neighbour, int threshold, int maxIterations) {
+        return Math.abs(value - neighbour) > threshold || (value >= maxIterations) != (neighbour >= maxIterations);
+    }
+
+    /**
+     * Iteration value of one sample point, given by its offset in pixels from the centre of the view.
+     */
+    private interface SamplePoint {
+        int calc(double offsetX, double offsetY, int index);
+    }
+
+    /**
+     * Method which runs the given work for every index (row or tile) in [0, count), on the pool or the calling thread depending on the selected path.
+     * The token is polled before each index.
+     */
+    private void forEachIndex(int count, IndexedWork work, RenderToken token){
+        if (parallel) {
+            pool.invoke(new IndexRangeTask(0, count, work, token));
+        } else {
+            runRange(0, count, work, token);
+        }
+    }
+
+    /**
+     * Method which runs the given work for indices [start, end), polling the token before each one.
+     */
+    private static void runRange(int start, int end, IndexedWork work, RenderToken token){
+        for (int index = start; index < end; index++) {
+            if (token.isCancelled()) {
+                throw new CancellationException("Render superseded");
+            }
+            work.run(index);
+        }
+    }
+
+    /**
+     * Work done for one row or tile of a frame.
+     */
+    private interface IndexedWork {
+        void run(int index);
+    }
+
+    /**
+     * Histograms of the workers filling one frame, one per thread so counting needs no synchronisation.
+     */
+    private static class WorkerHistograms {
+        private final int maxIterations;
+        private final ConcurrentHashMap<Thread, IterationHistogram> byThread = new ConcurrentHashMap<>();
+
+        WorkerHistograms(int maxIterations) {
+            this.maxIterations = maxIterations;
+        }
+
+        /**
+         * @return the calling thread's histogram. Fetched once per row or tile, not per pixel.
+         */
+        IterationHistogram local() {
+            return byThread.computeIfAbsent(Thread.currentThread(), thread -> new IterationHistogram(maxIterations));
+        }
+
+        /**
+         * @param start counts to add the workers' onto, or null to start from zero. Left unchanged.
+         * @return the sum of start and every worker's histogram.
+         */
+        IterationHistogram merge(IterationHistogram start) {
+            IterationHistogram total = start != null ? new IterationHistogram(start, maxIterations) : new IterationHistogram(maxIterations);
+            for (IterationHistogram counted : byThread.values()) {
+                total.merge(counted);
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Fork-join task covering a range of rows or tiles. Ranges are halved until they are small enough to compute directly,
+     * so idle workers can steal the remaining halves of ranges that run through the (expensive) interior of the set.
+     */
+    private static class IndexRangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int start;
+        private final int end;
+        private final IndexedWork work;
+        private final RenderToken token;
+
+        IndexRangeTask(int start, int end, IndexedWork work, RenderToken token) {
+            this.start = start;
+            this.end = end;
+            this.work = work;
+            this.token = token;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= SPLIT_THRESHOLD) {
+                runRange(start, end, work, token);
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new IndexRangeTask(start, middle, work, token),
+                        new IndexRangeTask(middle, end, work, token));
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package model;
+
+/**
+ * Strategy used by MandelbrotCalculator to fill one tile of a frame with iteration values.
+ * The calculator splits a frame into tiles and hands them to the solver, possibly from several threads at once,
+ * so implementations must not keep per-tile state in fields.
+ *
+ * @author rarpda
+ */
+public interface MandelbrotSolver {
+
+    /**
+     * Fills pixels [startX, endX) x [startY, endY) of the frame.
+     *
+     * @param frame          the frame being rendered.
+     * @param startX         first column of the tile (inclusive).
+     * @param endX           last column of the tile (exclusive).
+     * @param startY         first row of the tile (inclusive).
+     * @param endY           last row of the tile (exclusive).
+     * @param pixels         computes the iteration value of a single pixel.
+     */
+    void solveTile(FrameBuffer frame, int startX, int endX, int startY, int endY, PixelCalculator pixels);
+
+    /**
+     * Iteration values of the frame being rendered.
+     */
+    interface PixelCalculator {
+        int calcPixel(int x, int y);
+
+        /**
+         * Fills pixels [startX, endX) of row y. Solvers should prefer this for runs of pixels, as the calculator
+         * may compute a run faster than the same pixels one at a time.
+         */
+        default void calcRow(FrameBuffer frame, int startX, int endX, int y) {
+            int[] pixels = frame.getPixels();
+            int offset = frame.rowOffset(y);
+            for (int x = startX; x < endX; x++) {
+                pixels[offset + x] = calcPixel(x, y);
+            }
+        }
+    }
+}
@@ -1,14 +1,24 @@
 package model;
 
+import java.math.BigDecimal;
+import java.util.Objects;
+
 /**
  * Structure for all required variable inputs
+ * The view is held as an exact centre and span (width and height in the complex plane), so zooming and panning
+ * never lose precision. The double bounds are derived from them when needed for rendering.
+ * A structure either describes a view of the Mandelbrot set, or (see setJulia) of the Julia set of a fixed constant C,
+ * in which case the view's points are the starting values of Z.
  *
  * @author rarpda
  */
 public class MandelbrotStruct {
 
+    private static final BigDecimal HALF = new BigDecimal("0.5");
 
     public MandelbrotStruct() {
+        setRealBounds(new BigDecimal(MandelbrotCalculator.INITIAL_MIN_REAL), new BigDecimal(MandelbrotCalculator.INITIAL_MAX_REAL));
+        setImagBounds(new BigDecimal(MandelbrotCalculator.INITIAL_MIN_IMAGINARY), new BigDecimal(MandelbrotCalculator.INITIAL_MAX_IMAGINARY));
     }
 
     /**
@@ -16,53 +26,130 @@ public class MandelbrotStruct {
      */
     public MandelbrotStruct(MandelbrotStruct original) {
 
-        this.minReal = original.minReal;
-        this.maxReal = original.maxReal;
-        this.minImaginary = original.minImaginary;
-        this.maxImaginary = original.maxImaginary;
+        this.centreReal = original.centreReal;
+        this.centreImaginary = original.centreImaginary;
+        this.spanReal = original.spanReal;
+        this.spanImaginary = original.spanImaginary;
         this.maxIterations = original.maxIterations;
         this.radiusSquared = original.radiusSquared;
+        this.julia = original.julia;
+        this.juliaReal = original.juliaReal;
+        this.juliaImaginary = original.juliaImaginary;
     }
 
 
-    private double minReal = MandelbrotCalculator.INITIAL_MIN_REAL;
-    private double maxReal = MandelbrotCalculator.INITIAL_MAX_REAL;
-    private double minImaginary = MandelbrotCalculator.INITIAL_MIN_IMAGINARY;
-    private double maxImaginary = MandelbrotCalculator.INITIAL_MAX_IMAGINARY;
+    private BigDecimal centreReal;
+    private BigDecimal centreImaginary;
+    private BigDecimal spanReal;
+    private BigDecimal spanImaginary;
     private int maxIterations = MandelbrotCalculator.INITIAL_MAX_ITERATIONS;
     private double radiusSquared = MandelbrotCalculator.DEFAULT_RADIUS_SQUARED;
+    private boolean julia;
+    private double juliaReal;
+    private double juliaImaginary;
+
+    /*Exact view*/
+    public BigDecimal getCentreReal() {
+        return centreReal;
+    }
+
+    public BigDecimal getCentreImag() {
+        return centreImaginary;
+    }
+
+    public BigDecimal getSpanReal() {
+        return spanReal;
+    }
+
+    public BigDecimal getSpanImag() {
+        return spanImaginary;
+    }
+
+    /**
+     * Function to move the view without changing its size.
+     */
+    public void setCentre(BigDecimal centreReal, BigDecimal centreImag) {
+        this.centreReal = centreReal;
+        this.centreImaginary = centreImag;
+    }
+
+    /**
+     * Function to resize the view around its centre.
+     */
+    public void setSpan(BigDecimal spanReal, BigDecimal spanImag) {
+        this.spanReal = spanReal;
+        this.spanImaginary = spanImag;
+    }
+
+    /**
+     * @return the lower real bound, exactly.
+     */
+    public BigDecimal getMinRealExact() {
+        return centreReal.subtract(spanReal.multiply(HALF));
+    }
+
+    /**
+     * @return the upper real bound, exactly.
+     */
+    public BigDecimal getMaxRealExact() {
+        return centreReal.add(spanReal.multiply(HALF));
+    }
+
+    /**
+     * @return the lower imaginary bound, exactly.
+     */
+    public BigDecimal getMinImagExact() {
+        return centreImaginary.subtract(spanImaginary.multiply(HALF));
+    }
+
+    /**
+     * @return the upper imaginary bound, exactly.
+     */
+    public BigDecimal getMaxImagExact() {
+        return centreImaginary.add(spanImaginary.multiply(HALF));
+    }
 
-    /*Getters and Setters*/
+    private void setRealBounds(BigDecimal min, BigDecimal max) {
+        centreReal = min.add(max).multiply(HALF);
+        spanReal = max.subtract(min);
+    }
+
+    private void setImagBounds(BigDecimal min, BigDecimal max) {
+        centreImaginary = min.add(max).multiply(HALF);
+        spanImaginary = max.subtract(min);
+    }
+
+    /*Getters and Setters. The bounds are rounded to the nearest double; setting one keeps the opposite bound.*/
     public double getMinReal() {
-        return minReal;
+        return getMinRealExact().doubleValue();
     }
 
     public void setMinReal(double minReal) {
-        this.minReal = minReal;
+        setRealBounds(new BigDecimal(minReal), getMaxRealExact());
     }
 
     public double getMaxReal() {
-        return maxReal;
+        return getMaxRealExact().doubleValue();
     }
 
     public void setMaxReal(double maxReal) {
-        this.maxReal = maxReal;
+        setRealBounds(getMinRealExact(), new BigDecimal(maxReal));
     }
 
     public double getMinImag() {
-        return minImaginary;
+        return getMinImagExact().doubleValue();
     }
 
     public void setMinImag(double minImag) {
-        this.minImaginary = minImag;
+        setImagBounds(new BigDecimal(minImag), getMaxImagExact());
     }
 
     public double getMaxImag() {
-        return maxImaginary;
+        return getMaxImagExact().doubleValue();
     }
 
     public void setMaxImag(double maxImag) {
-        this.maxImaginary = maxImag;
+        setImagBounds(getMinImagExact(), new BigDecimal(maxImag));
     }
 
     public int getMaxIterations() {
@@ -80,4 +167,79 @@ public class MandelbrotStruct {
     public void setRadiusSquared(double radiusSquared) {
         this.radiusSquared = radiusSquared;
     }
+
+    public boolean isJulia() {
+        return julia;
+    }
+
+    /**
+     * @return the real component of the Julia set's constant C, 0 for the Mandelbrot set.
+     */
+    public double getJuliaReal() {
+        return juliaReal;
+    }
+
+    /**
+     * @return the imaginary component of the Julia set's constant C, 0 for the Mandelbrot set.
+     */
+    public double getJuliaImag() {
+        return juliaImaginary;
+    }
+
+    /**
+     * Function to make this a view of the Julia set of the given constant C. The view itself is not changed.
+     */
+    public void setJulia(double juliaReal, double juliaImag) {
+        this.julia = true;
+        this.juliaReal = juliaReal;
+        this.juliaImaginary = juliaImag;
+    }
+
+    /**
+     * Function to make this a view of the Mandelbrot set again. The view itself is not changed.
+     */
+    public void setMandelbrot() {
+        this.julia = false;
+        this.juliaReal = 0;
+        this.juliaImaginary = 0;
+    }
+
+    /**
+     * Two structures are equal when they describe the same view of the same set with the same iteration settings.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof MandelbrotStruct)) {
+            return false;
+        }
+        MandelbrotStruct struct = (MandelbrotStruct) other;
+        return isSameView(struct) && maxIterations == struct.maxIterations;
+    }
+
+    /**
+     * Function used to compare every parameter but the iteration budget.
+     *
+     * @return true if the other struct shows the same view, whatever either's maxIterations.
+     */
+    public boolean isSameView(MandelbrotStruct struct) {
+        return centreReal.compareTo(struct.centreReal) == 0
+                && centreImaginary.compareTo(struct.centreImaginary) == 0
+                && spanReal.compareTo(struct.spanReal) == 0
+                && spanImaginary.compareTo(struct.spanImaginary) == 0
+                && Double.compare(radiusSquared, struct.radiusSquared) == 0
+                && julia == struct.julia
+                && Double.compare(juliaReal, struct.juliaReal) == 0
+                && Double.compare(juliaImaginary, struct.juliaImaginary) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        /*Trailing zeros are stripped so that equal values with different scales hash alike*/
+        return Objects.hash(centreReal.stripTrailingZeros(), centreImaginary.stripTrailingZeros(),
+                spanReal.stripTrailingZeros(), spanImaginary.stripTrailingZeros(), maxIterations, radiusSquared,
+                julia, juliaReal, juliaImaginary);
+    }
 }
@@ -0,0 +1,256 @@
+package model;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deep zoom iteration using perturbation theory.
+ * One reference orbit Z_n is computed at the centre of the view with BigDecimal arithmetic, then every pixel
+ * C = centre + dC is iterated in doubles as a difference from it:
+ * dZ_n+1 = 2 Z_n dZ_n + dZ_n^2 + dC, with Z_n + dZ_n being the pixel's own orbit.
+ * The differences stay representable as doubles far below the spacing where C itself no longer is.
+ *
+ * Glitches, where the pixel's orbit passes closer to 0 than its difference from the reference (|Z_n + dZ_n| < |dZ_n|),
+ * or the reference escapes before the pixel, are handled by rebasing: the pixel carries on from the start of the
+ * reference orbit with dZ = Z_n + dZ_n.
+ *
+ * Optionally a cubic series approximation dZ_n ~ A_n dC + B_n dC^2 + C_n dC^3 is used to skip the first iterations,
+ * which are the same for every pixel to within the series' accuracy.
+ *
+ * @author rarpda
+ */
+public class PerturbationEngine {
+
+    /* Decimal digits kept on top of those needed to resolve a pixel */
+    private static final int GUARD_DIGITS = 12;
+    private static final int MIN_PRECISION = 20;
+    /* The series is trusted while its cubic term is this much smaller than its quadratic one */
+    private static final double SERIES_TOLERANCE = 1e-6;
+    /* The reference orbit is followed until it passes this squared radius, well beyond any normal bailout */
+    private static final double REFERENCE_ESCAPE_RADIUS_SQUARED = 1e6;
+
+    private final int maxIterations;
+    private final double radiusSquared;
+    private final double[] referenceReal;
+    private final double[] referenceImag;
+    private final int referenceLength;
+    /* The reference point rounded to double, enough to carry on an orbit already past the escape radius */
+    private final double centreRealValue;
+    private final double centreImagValue;
+
+    /* Series approximation, evaluated at iteration seriesSkip */
+    private int seriesSkip;
+    private double aReal, aImag, bReal, bImag, cReal, cImag;
+
+    private final LongAdder rebases = new LongAdder();
+    private final LongAdder iterationCount = new LongAdder(); /* Iterations run by calcPixel, after the series skip */
+
+    /**
+     * Builds the reference orbit (and series, if asked for) for a view.
+     *
+     * @param centreReal          real component of the reference point.
+     * @param centreImag          imaginary component of the reference point.
+     * @param pixelSpacing        the smaller of the real and imaginary pixel steps, used to pick the working precision.
+     * @param maxDelta            the largest |dC| of any pixel, used to decide how far the series can be trusted.
+     * @param maxIterations       the maximum number of iterations.
+     * @param radiusSquared       the squared escape radius.
+     * @param seriesApproximation true to skip early iterations with the series approximation.
+     */
+    public PerturbationEngine(BigDecimal centreReal, BigDecimal centreImag, double pixelSpacing, double maxDelta, int maxIterations, double radiusSquared, boolean seriesApproximation) {
+        this(centreReal, centreImag, pixelSpacing, maxDelta, maxIterations, radiusSquared, seriesApproximation, () -> false);
+    }
+
+    /**
+     * Builds the reference orbit (and series, if asked for) for a view, polling the token as the orbit is iterated.
+     *
+     * @param token the render's token, checked before each step of the reference orbit.
+     * @throws CancellationException if the token reported cancellation before the reference orbit was complete.
+     */
+    public PerturbationEngine(BigDecimal centreReal, BigDecimal centreImag, double pixelSpacing, double maxDelta, int maxIterations, double radiusSquared, boolean seriesApproximation, RenderToken token) {
+        this.maxIterations = maxIterations;
+        this.radiusSquared = radiusSquared;
+        this.referenceReal = new double[maxIterations + 1];
+        this.referenceImag = new double[maxIterations + 1];
+        this.referenceLength = calcReferenceOrbit(centreReal, centreImag, precisionFor(pixelSpacing), token);
+        this.centreRealValue = centreReal.doubleValue();
+        this.centreImagValue = centreImag.doubleValue();
+        if (seriesApproximation) {
+            calcSeries(maxDelta);
+        }
+    }
+
+    /**
+     * Function used to work out how many decimal digits the reference orbit needs for the given pixel spacing.
+     */
+    static int precisionFor(double pixelSpacing) {
+        int digits = (int) Math.ceil(-Math.log10(pixelSpacing)) + GUARD_DIGITS;
+        return Math.max(MIN_PRECISION, digits);
+    }
+
+    /**
+     * Function used to iterate the reference orbit, storing each Z_n rounded to double.
+     * Each step costs as much as thousands of double iterations, so the token is polled before every one.
+     *
+     * @return the number of orbit values stored.
+     * @throws CancellationException if the token reported cancellation.
+     */
+    private int calcReferenceOrbit(BigDecimal centreReal, BigDecimal centreImag, int precision, RenderToken token) {
+        MathContext context = new MathContext(precision);
+        BigDecimal two = BigDecimal.valueOf(2);
+        BigDecimal zr = BigDecimal.ZERO;
+        BigDecimal zi = BigDecimal.ZERO;
+        int length = 0;
+        for (int n = 0; n <= maxIterations; n++) {
+            if (token.isCancelled()) {
+                throw new CancellationException("Render superseded");
+            }
+            double real = zr.doubleValue();
+            double imag = zi.doubleValue();
+            referenceReal[n] = real;
+            referenceImag[n] = imag;
+            length++;
+            if (real * real + imag * imag > REFERENCE_ESCAPE_RADIUS_SQUARED) {
+                break;
+            }
+            BigDecimal newReal = zr.multiply(zr, context).subtract(zi.multiply(zi, context), context).add(centreReal, context);
+            BigDecimal newImag = two.multiply(zr, context).multiply(zi, context).add(centreImag, context);
+            zr = newReal;
+            zi = newImag;
+        }
+        return length;
+    }
+
+    /**
+     * Function used to find the last iteration at which the cubic series still describes every pixel,
+     * keeping its coefficients there.
+     */
+    private void calcSeries(double maxDelta) {
+        double ar = 0, ai = 0, br = 0, bi = 0, cr = 0, ci = 0;
+        seriesSkip = 0;
+        for (int n = 0; n < referenceLength - 1; n++) {
+            double zr = referenceReal[n];
+            double zi = referenceImag[n];
+            /* A' = 2ZA + 1, B' = 2ZB + A^2, C' = 2ZC + 2AB */
+            double nar = 2 * (zr * ar - zi * ai) + 1;
+            double nai = 2 * (zr * ai + zi * ar);
+            double nbr = 2 * (zr * br - zi * bi) + (ar * ar - ai * ai);
+            double nbi = 2 * (zr * bi + zi * br) + 2 * ar * ai;
+            double ncr = 2 * (zr * cr - zi * ci) + 2 * (ar * br - ai * bi);
+            double nci = 2 * (zr * ci + zi * cr) + 2 * (ar * bi + ai * br);
+            double bMagnitude = Math.hypot(nbr, nbi);
+            double cMagnitude = Math.hypot(ncr, nci);
+            if (cMagnitude * maxDelta > SERIES_TOLERANCE * bMagnitude || Double.isNaN(cMagnitude)) {
+                break; /*The next step would no longer be accurate*/
+            }
+            double nextReal = referenceReal[n + 1];
+            double nextImag = referenceImag[n + 1];
+            if (nextReal * nextReal + nextImag * nextImag > radiusSquared) {
+                break; /*Pixels near the reference may escape from here on*/
+            }
+            ar = nar; ai = nai; br = nbr; bi = nbi; cr = ncr; ci = nci;
+            seriesSkip = n + 1;
+        }
+        aReal = ar; aImag = ai;
+        bReal = br; bImag = bi;
+        cReal = cr; cImag = ci;
+    }
+
+    /**
+     * @return the number of iterations skipped for every pixel by the series approximation.
+     */
+    public int getSeriesSkip() {
+        return seriesSkip;
+    }
+
+    /**
+     * @return the number of orbit values in the reference, at most maxIterations + 1.
+     */
+    public int getReferenceLength() {
+        return referenceLength;
+    }
+
+    /**
+     * @return how many times a pixel has been rebased onto the start of the reference orbit.
+     */
+    public long getRebases() {
+        return rebases.sum();
+    }
+
+    /**
+     * @return the number of iterations run by calcPixel, not counting the ones skipped by the series approximation.
+     */
+    public long getIterationCount() {
+        return iterationCount.sum();
+    }
+
+    /**
+     * Method which calculates the iteration value of the point centre + dC, with the same meaning as MandelbrotCalculator's:
+     * the number of iterations for Z to grow outside of the bounding radius, or maxIterations if it never escaped.
+     *
+     * @param deltaReal real component of dC.
+     * @param deltaImag imaginary component of dC.
+     */
+    public int calcPixel(double deltaReal, double deltaImag) {
+        return calcPixel(deltaReal, deltaImag, null, 0);
+    }
+
+    /**
+     * Method which calculates the iteration value of the point centre + dC as calcPixel does, also storing its smooth
+     * count if it escapes.
+     *
+     * @param smooth where to store the smooth count, or null.
+     * @param index  the pixel's index in the frame.
+     */
+    int calcPixel(double deltaReal, double deltaImag, SmoothCounts smooth, int index) {
+        double dzr = 0;
+        double dzi = 0;
+        int iterations = 0;
+        if (seriesSkip > 0) {
+            /* dZ = A dC + B dC^2 + C dC^3 */
+            double d2r = deltaReal * deltaReal - deltaImag * deltaImag;
+            double d2i = 2 * deltaReal * deltaImag;
+            double d3r = d2r * deltaReal - d2i * deltaImag;
+            double d3i = d2r * deltaImag + d2i * deltaReal;
+            dzr = aReal * deltaReal - aImag * deltaImag + bReal * d2r - bImag * d2i + cReal * d3r - cImag * d3i;
+            dzi = aReal * deltaImag + aImag * deltaReal + bReal * d2i + bImag * d2r + cReal * d3i + cImag * d3r;
+            iterations = seriesSkip;
+        }
+        int referenceIndex = iterations;
+        int lastReference = referenceLength - 1;
+        while (iterations < maxIterations) {
+            double zr = referenceReal[referenceIndex];
+            double zi = referenceImag[referenceIndex];
+            double fullReal = zr + dzr;
+            double fullImag = zi + dzi;
+            double fullMagnitude = fullReal * fullReal + fullImag * fullImag;
+            if (fullMagnitude > radiusSquared) {
+                iterationCount.add(iterations + 1 - seriesSkip);
+                if (smooth != null) {
+                    /*fullReal + i fullImag is Z after `iterations` steps, one short of the count returned*/
+                    smooth.store(index, iterations, fullReal, fullImag, centreRealValue + deltaReal, centreImagValue + deltaImag);
+                }
+                return iterations + 1; /*Counted the same way as MandelbrotCalculator*/
+            }
+            if (fullMagnitude < dzr * dzr + dzi * dzi || referenceIndex == lastReference) {
+                /*Glitch or end of the reference: carry on from the start of the reference orbit*/
+                dzr = fullReal;
+                dzi = fullImag;
+                zr = 0;
+                zi = 0;
+                referenceIndex = 0;
+                rebases.increment();
+            }
+            /* dZ' = 2 Z dZ + dZ^2 + dC */
+            double newDzr = 2 * (zr * dzr - zi * dzi) + (dzr * dzr - dzi * dzi) + deltaReal;
+            double newDzi = 2 * (zr * dzi + zi * dzr) + 2 * dzr * dzi + deltaImag;
+            dzr = newDzr;
+            dzi = newDzi;
+            referenceIndex++;
+            iterations++;
+        }
+        iterationCount.add(maxIterations - seriesSkip);
+        return maxIterations;
+    }
+}
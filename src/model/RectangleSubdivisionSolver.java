@@ -0,0 +1,93 @@
+package model;
+
+/**
+ * Solver using the Mariani-Silver rectangle subdivision method.
+ * The border of the tile is computed first. If every border pixel has the same value the interior is filled with it
+ * without iterating; otherwise the rectangle is split in two along its longer side, the dividing line is computed,
+ * and both halves are handled the same way. Small rectangles are computed pixel by pixel.
+ * The fill is not exact: a uniform border, of the set or of one escape value, can hide features thinner than a pixel
+ * which pass between its border pixels, so a handful of pixels may differ from the brute force solver near the boundary.
+ *
+ * @author rarpda
+ */
+public class RectangleSubdivisionSolver implements MandelbrotSolver {
+
+    /* Rectangles with an interior narrower or shorter than this are computed pixel by pixel */
+    private static final int MIN_INTERIOR_SIZE = 3;
+
+    @Override
+    public void solveTile(FrameBuffer frame, int startX, int endX, int startY, int endY, PixelCalculator pixels) {
+        int right = endX - 1;
+        int bottom = endY - 1;
+        /*Compute the border of the tile*/
+        pixels.calcRow(frame, startX, endX, startY);
+        if (bottom != startY) {
+            pixels.calcRow(frame, startX, endX, bottom);
+        }
+        for (int y = startY + 1; y < bottom; y++) {
+            frame.set(startX, y, pixels.calcPixel(startX, y));
+            if (right != startX) {
+                frame.set(right, y, pixels.calcPixel(right, y));
+            }
+        }
+        subdivide(frame, startX, right, startY, bottom, pixels);
+    }
+
+    /**
+     * Function used to fill the interior of a rectangle whose border (inclusive bounds) has already been computed.
+     */
+    private void subdivide(FrameBuffer frame, int left, int right, int top, int bottom, PixelCalculator pixels) {
+        int interiorWidth = right - left - 1;
+        int interiorHeight = bottom - top - 1;
+        if (interiorWidth <= 0 || interiorHeight <= 0) {
+            return; /*Nothing inside the border*/
+        }
+        if (interiorWidth < MIN_INTERIOR_SIZE || interiorHeight < MIN_INTERIOR_SIZE) {
+            for (int y = top + 1; y < bottom; y++) {
+                pixels.calcRow(frame, left + 1, right, y);
+            }
+            return;
+        }
+        int borderValue = frame.get(left, top);
+        if (isUniformBorder(frame, left, right, top, bottom, borderValue)) {
+            for (int y = top + 1; y < bottom; y++) {
+                frame.fillRow(y, left + 1, right, borderValue);
+            }
+            return;
+        }
+        /*Split along the longer side, computing the dividing line which becomes a border of both halves*/
+        if (interiorWidth >= interiorHeight) {
+            int middle = (left + right) >>> 1;
+            for (int y = top + 1; y < bottom; y++) {
+                frame.set(middle, y, pixels.calcPixel(middle, y));
+            }
+            subdivide(frame, left, middle, top, bottom, pixels);
+            subdivide(frame, middle, right, top, bottom, pixels);
+        } else {
+            int middle = (top + bottom) >>> 1;
+            pixels.calcRow(frame, left + 1, right, middle);
+            subdivide(frame, left, right, top, middle, pixels);
+            subdivide(frame, left, right, middle, bottom, pixels);
+        }
+    }
+
+    /**
+     * Function used to check every border pixel of a rectangle (inclusive bounds) holds the given value.
+     */
+    private static boolean isUniformBorder(FrameBuffer frame, int left, int right, int top, int bottom, int value) {
+        int[] pixels = frame.getPixels();
+        int topOffset = frame.rowOffset(top);
+        int bottomOffset = frame.rowOffset(bottom);
+        for (int x = left; x <= right; x++) {
+            if (pixels[topOffset + x] != value || pixels[bottomOffset + x] != value) {
+                return false;
+            }
+        }
+        for (int y = top + 1; y < bottom; y++) {
+            if (frame.get(left, y) != value || frame.get(right, y) != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
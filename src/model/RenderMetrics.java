@@ -0,0 +1,314 @@
+package model;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Per-frame measurements of the interactive renderer: how long a frame took to compute, colour and copy to the screen,
+ * how many iterations it ran, how many pixels each interior shortcut resolved and how many of its tiles came from the cache;
+ * and how many pixels the last anti-aliased image or poster refined.
+ *
+ * Times are kept in rolling windows of the last FRAME_WINDOW frames, so the percentiles follow the current exploration
+ * rather than the whole session. Counters are read from the calculator and the tile cache at the start and the end of a
+ * frame, so recording costs a handful of sums per frame and nothing per pixel.
+ *
+ * The render thread calls beginFrame and endFrame, the GUI thread recordDraw, and JMX clients the getters; every method
+ * is synchronized, which is cheap at a few calls per frame.
+ *
+ * @author rarpda
+ */
+public class RenderMetrics implements RenderMetricsMBean {
+
+    final static int FRAME_WINDOW = 120; /* Frames the percentiles are taken over */
+    final static String OBJECT_NAME = "mandelbrot:type=RenderMetrics";
+    final static private double NANOS_PER_MILLI = 1e6;
+    final static private double NANOS_PER_SECOND = 1e9;
+
+    private final MandelbrotCalculator calculator;
+    private final TileCache tileCache;
+    private final RollingWindow computeNanos = new RollingWindow(FRAME_WINDOW);
+    private final RollingWindow colourNanos = new RollingWindow(FRAME_WINDOW);
+    private final RollingWindow blitNanos = new RollingWindow(FRAME_WINDOW);
+    private long frameCount;
+
+    /* Counters when the current frame began */
+    private long frameStart;
+    private long startIterations;
+    private long startCardioidSkips;
+    private long startBulbSkips;
+    private long startPeriodicitySkips;
+    private long startCacheHits;
+    private long startCacheMisses;
+
+    /* Results of the last frame */
+    private long lastIterations;
+    private double lastIterationsPerSecond;
+    private long lastCardioidSkips;
+    private long lastBulbSkips;
+    private long lastPeriodicitySkips;
+    private double lastCacheHitRate;
+
+    /* Last anti-aliased export: boundary pixels refined, out of all its pixels (0 if none yet) */
+    private long lastRefinedPixels;
+    private long lastExportPixels;
+
+    /**
+     * @param calculator the calculator whose iteration and shortcut counters are read.
+     * @param tileCache  the cache whose hit and miss counters are read.
+     */
+    public RenderMetrics(MandelbrotCalculator calculator, TileCache tileCache) {
+        this.calculator = calculator;
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * Method to publish these metrics to the platform MBean server under OBJECT_NAME, replacing any earlier registration.
+     *
+     * @throws JMException if the server refuses the bean.
+     */
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+    }
+
+    /**
+     * Method to mark the start of a frame's computation. A frame begun but never ended (e.g. cancelled) is not recorded.
+     */
+    public synchronized void beginFrame() {
+        frameStart = System.nanoTime();
+        startIterations = calculator.getIterationCount();
+        startCardioidSkips = calculator.getCardioidSkips();
+        startBulbSkips = calculator.getBulbSkips();
+        startPeriodicitySkips = calculator.getPeriodicitySkips();
+        startCacheHits = tileCache.getHits();
+        startCacheMisses = tileCache.getMisses();
+    }
+
+    /**
+     * Method to record the frame begun last, once it is complete.
+     */
+    public synchronized void endFrame() {
+        long elapsed = System.nanoTime() - frameStart;
+        computeNanos.add(elapsed);
+        frameCount++;
+        lastIterations = calculator.getIterationCount() - startIterations;
+        lastIterationsPerSecond = elapsed > 0 ? lastIterations * NANOS_PER_SECOND / elapsed : 0;
+        lastCardioidSkips = calculator.getCardioidSkips() - startCardioidSkips;
+        lastBulbSkips = calculator.getBulbSkips() - startBulbSkips;
+        lastPeriodicitySkips = calculator.getPeriodicitySkips() - startPeriodicitySkips;
+        long hits = tileCache.getHits() - startCacheHits;
+        long lookups = hits + tileCache.getMisses() - startCacheMisses;
+        lastCacheHitRate = lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Method to record how long a frame took to turn into colours and to copy onto the screen.
+     */
+    public synchronized void recordDraw(long colourNanos, long blitNanos) {
+        this.colourNanos.add(colourNanos);
+        this.blitNanos.add(blitNanos);
+    }
+
+    /**
+     * Method to record how many pixels of a saved image or poster were refined by adaptive anti-aliasing.
+     *
+     * @param refinedPixels the boundary pixels which were sampled.
+     * @param exportPixels  every pixel of the image.
+     */
+    public synchronized void recordAntiAliasing(long refinedPixels, long exportPixels) {
+        lastRefinedPixels = refinedPixels;
+        lastExportPixels = exportPixels;
+    }
+
+    @Override
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public synchronized double getComputeMillisMean() {
+        return computeNanos.mean() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized double getComputeMillisP50() {
+        return computeNanos.percentile(0.5) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized double getComputeMillisP90() {
+        return computeNanos.percentile(0.9) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized double getComputeMillisP99() {
+        return computeNanos.percentile(0.99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized double getComputeMillisMax() {
+        return computeNanos.percentile(1) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized double getColourMillisP50() {
+        return colourNanos.percentile(0.5) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized double getColourMillisP99() {
+        return colourNanos.percentile(0.99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized double getBlitMillisP50() {
+        return blitNanos.percentile(0.5) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized double getBlitMillisP99() {
+        return blitNanos.percentile(0.99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized long getLastIterations() {
+        return lastIterations;
+    }
+
+    @Override
+    public synchronized double getLastIterationsPerSecond() {
+        return lastIterationsPerSecond;
+    }
+
+    @Override
+    public synchronized long getLastCardioidSkips() {
+        return lastCardioidSkips;
+    }
+
+    @Override
+    public synchronized long getLastBulbSkips() {
+        return lastBulbSkips;
+    }
+
+    @Override
+    public synchronized long getLastPeriodicitySkips() {
+        return lastPeriodicitySkips;
+    }
+
+    @Override
+    public synchronized double getLastCacheHitRate() {
+        return lastCacheHitRate;
+    }
+
+    @Override
+    public synchronized long getLastRefinedPixels() {
+        return lastRefinedPixels;
+    }
+
+    @Override
+    public synchronized long getLastExportPixels() {
+        return lastExportPixels;
+    }
+
+    /**
+     * @return the metrics as a few lines of text, e.g. for an overlay on the view.
+     */
+    @Override
+    public synchronized String getSummary() {
+        String summary = String.format("Compute %.1f ms (p50 %.1f, p99 %.1f)%n"
+                        + "Colour %.2f ms, blit %.2f ms (p50)%n"
+                        + "Iterations %,d (%.1f M/s)%n"
+                        + "Skipped: cardioid %,d, bulb %,d, periodic %,d%n"
+                        + "Cache hits %.0f%%",
+                computeNanos.latest() / NANOS_PER_MILLI, getComputeMillisP50(), getComputeMillisP99(),
+                getColourMillisP50(), getBlitMillisP50(),
+                lastIterations, lastIterationsPerSecond / 1e6,
+                lastCardioidSkips, lastBulbSkips, lastPeriodicitySkips,
+                lastCacheHitRate * 100);
+        if (lastExportPixels > 0) {
+            summary += String.format("%nLast export anti-aliased %,d of %,d pixels", lastRefinedPixels, lastExportPixels);
+        }
+        return summary;
+    }
+
+    /**
+     * Method to forget every frame recorded so far.
+     */
+    @Override
+    public synchronized void reset() {
+        computeNanos.clear();
+        colourNanos.clear();
+        blitNanos.clear();
+        frameCount = 0;
+        lastIterations = 0;
+        lastIterationsPerSecond = 0;
+        lastCardioidSkips = 0;
+        lastBulbSkips = 0;
+        lastPeriodicitySkips = 0;
+        lastCacheHitRate = 0;
+        lastRefinedPixels = 0;
+        lastExportPixels = 0;
+    }
+
+    /**
+     * Ring buffer of the last few samples, sorted on demand for percentiles.
+     */
+    private static class RollingWindow {
+        private final long[] samples;
+        private final long[] sorted;
+        private int next;
+        private int count;
+
+        RollingWindow(int size) {
+            samples = new long[size];
+            sorted = new long[size];
+        }
+
+        void add(long sample) {
+            samples[next] = sample;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        void clear() {
+            next = 0;
+            count = 0;
+        }
+
+        long latest() {
+            return count == 0 ? 0 : samples[(next + samples.length - 1) % samples.length];
+        }
+
+        double mean() {
+            if (count == 0) {
+                return 0;
+            }
+            double total = 0;
+            for (int index = 0; index < count; index++) {
+                total += samples[index];
+            }
+            return total / count;
+        }
+
+        /**
+         * @param fraction between 0 and 1, 1 being the largest sample.
+         * @return the nearest-rank percentile, or 0 before the first sample.
+         */
+        long percentile(double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+            System.arraycopy(samples, 0, sorted, 0, count); /*The first count slots are the samples until the buffer wraps*/
+            Arrays.sort(sorted, 0, count);
+            int rank = (int) Math.ceil(fraction * count);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+}
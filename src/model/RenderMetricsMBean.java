@@ -0,0 +1,51 @@
+package model;
+
+/**
+ * Management interface of RenderMetrics, as shown by JConsole or any other JMX client.
+ * Times are in milliseconds, over the last RenderMetrics.FRAME_WINDOW frames; the "Last" attributes describe the latest frame.
+ *
+ * @author rarpda
+ */
+public interface RenderMetricsMBean {
+
+    long getFrameCount();
+
+    double getComputeMillisMean();
+
+    double getComputeMillisP50();
+
+    double getComputeMillisP90();
+
+    double getComputeMillisP99();
+
+    double getComputeMillisMax();
+
+    double getColourMillisP50();
+
+    double getColourMillisP99();
+
+    double getBlitMillisP50();
+
+    double getBlitMillisP99();
+
+    long getLastIterations();
+
+    double getLastIterationsPerSecond();
+
+    long getLastCardioidSkips();
+
+    long getLastBulbSkips();
+
+    long getLastPeriodicitySkips();
+
+    double getLastCacheHitRate();
+
+    /* Pixels refined by anti-aliasing in the last saved image or poster, and all of its pixels */
+    long getLastRefinedPixels();
+
+    long getLastExportPixels();
+
+    String getSummary();
+
+    void reset();
+}
@@ -0,0 +1,14 @@
+package model;
+
+/**
+ * Handle given to the calculator so that a render which is no longer wanted can be abandoned.
+ *
+ * @author rarpda
+ */
+public interface RenderToken {
+
+    /**
+     * @return true if the render this token belongs to has been superseded and should stop.
+     */
+    boolean isCancelled();
+}
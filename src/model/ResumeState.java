@@ -0,0 +1,80 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Where the orbit of each pixel of a frame stood when the escape-time loop gave up at maxIterations, so that a render
+ * of the same view with a larger maxIterations can carry on from there instead of starting again from Z = 0.
+ * Only pixels whose value is maxIterations are of interest; for each of them the loop records one of:
+ * RESUMABLE (still inside the radius, with its Z), ESCAPED (escaped on the very last iteration) or INTERIOR
+ * (found to be periodic, so it never escapes). Pixels filled any other way stay UNKNOWN and are computed afresh.
+ *
+ * @author rarpda
+ */
+public class ResumeState {
+
+    static final byte UNKNOWN = 0;
+    static final byte RESUMABLE = 1;
+    static final byte ESCAPED = 2;
+    static final byte INTERIOR = 3;
+
+    private final double[] zReal;
+    private final double[] zImag;
+    private final byte[] status;
+    private int maxIterations;
+
+    /**
+     * @param width  width of the frames it records.
+     * @param height height of the frames it records.
+     */
+    public ResumeState(int width, int height) {
+        this.zReal = new double[width * height];
+        this.zImag = new double[width * height];
+        this.status = new byte[width * height];
+    }
+
+    /**
+     * @return the iteration budget the recorded orbits stopped at.
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Forgets every pixel, ready to record a render with the given budget.
+     */
+    void clear(int maxIterations) {
+        Arrays.fill(status, UNKNOWN);
+        this.maxIterations = maxIterations;
+    }
+
+    void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    void record(int index, double zr, double zi) {
+        zReal[index] = zr;
+        zImag[index] = zi;
+        status[index] = RESUMABLE;
+    }
+
+    void markEscaped(int index) {
+        status[index] = ESCAPED;
+    }
+
+    void markInterior(int index) {
+        status[index] = INTERIOR;
+    }
+
+    byte getStatus(int index) {
+        return status[index];
+    }
+
+    double getZReal(int index) {
+        return zReal[index];
+    }
+
+    double getZImag(int index) {
+        return zImag[index];
+    }
+}
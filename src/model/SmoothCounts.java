@@ -0,0 +1,89 @@
+package model;
+
+/**
+ * Writer of a frame's smooth (continuous) escape counts, set up once per render for its escape radius.
+ *
+ * An escaped point is iterated on until |Z|^2 passes radiusSquared^(2^BAILOUT_DOUBLINGS) (65536 for the usual 4), and its
+ * count taken as m - log2(ln|Z_m| / ln r) + BAILOUT_DOUBLINGS, where Z_m is the first value past that bailout and
+ * r = sqrt(radiusSquared). Measured that far out the value is the same on both sides of a band edge, so it grows smoothly
+ * across them; it stays within a couple of iterations of the integer count. Radii below 2 are treated as 2, since the
+ * logarithm needs r > 1.
+ *
+ * @author rarpda
+ */
+final class SmoothCounts {
+
+    /* Squarings of radiusSquared giving the larger bailout */
+    final static int BAILOUT_DOUBLINGS = 3;
+    /* Bounds the extra iterations for huge radii, where the larger bailout overflows */
+    final static int MAX_EXTRA_ITERATIONS = 16;
+    final static private double SMALLEST_RADIUS_SQUARED = 4.0;
+    final static private double LOG_2 = Math.log(2);
+
+    private final float[] values;
+    private final double bailout;
+    /* ln(ln r^2), so the count needs only ln|Z|^2 and its logarithm */
+    private final double logLogRadiusSquared;
+
+    private SmoothCounts(float[] values, double radiusSquared) {
+        this.values = values;
+        double radius = Math.max(radiusSquared, SMALLEST_RADIUS_SQUARED);
+        double power = radius;
+        for (int doubling = 0; doubling < BAILOUT_DOUBLINGS; doubling++) {
+            power *= power;
+        }
+        this.bailout = power;
+        this.logLogRadiusSquared = Math.log(Math.log(radius));
+    }
+
+    /**
+     * @return a writer into the frame's smooth counts, or null if the frame does not keep them.
+     */
+    static SmoothCounts of(FrameBuffer frame, double radiusSquared) {
+        return into(frame.getSmooth(), radiusSquared);
+    }
+
+    /**
+     * @return a writer into the given array, indexed as the caller chooses, or null if the array is null.
+     */
+    static SmoothCounts into(float[] values, double radiusSquared) {
+        return values == null ? null : new SmoothCounts(values, radiusSquared);
+    }
+
+    /**
+     * @return the smooth count stored for a pixel, NaN if it has none.
+     */
+    float get(int index) {
+        return values[index];
+    }
+
+    /**
+     * Method to mark a pixel as having no smooth count, before it is computed again.
+     */
+    void clear(int index) {
+        values[index] = Float.NaN;
+    }
+
+    /**
+     * Method to store the smooth count of an escaped point.
+     *
+     * @param index      the pixel's index in the frame.
+     * @param iterations a number of iterations the point has done, at or after it passed radiusSquared.
+     * @param zr         the real component of Z after that many iterations.
+     * @param zi         the imaginary component of Z after that many iterations.
+     */
+    void store(int index, int iterations, double zr, double zi, double cReal, double cImaginary) {
+        double magnitude = zr * zr + zi * zi;
+        int extra = 0;
+        while (magnitude <= bailout && extra < MAX_EXTRA_ITERATIONS) {
+            double nzi = 2 * zr * zi + cImaginary;
+            zr = zr * zr - zi * zi + cReal;
+            zi = nzi;
+            magnitude = zr * zr + zi * zi;
+            extra++;
+        }
+        /*Each iteration doubles ln|Z|, so the log2 term drops by one per extra iteration; the constant keeps it near the integer count*/
+        double fraction = (Math.log(Math.log(magnitude)) - logLogRadiusSquared) / LOG_2 - BAILOUT_DOUBLINGS;
+        values[index] = (float) Math.max(0, iterations + extra - fraction);
+    }
+}
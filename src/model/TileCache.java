@@ -0,0 +1,440 @@
+package model;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory cache of rendered tiles, evicting the least recently used tile once it holds more than a set number.
+ *
+ * Tiles lie on a lattice of the complex plane rather than of a frame: a view's pixel spacing (its level) and the position
+ * of its corner, measured in pixels from the origin, decide which lattice tile every pixel falls in. Spacings are quantised
+ * to LEVEL_DIGITS significant digits and corner positions to 1/PHASE_STEPS of a pixel, so the same view always maps onto
+ * the same tiles, and so does a view panned from it by whole pixels. A tile is identified by
+ * (level, tileX, tileY, maxIterations, radiusSquared) and holds the part of it that lay inside the frame it came from.
+ *
+ * A TileStore can be attached as a second level: tiles missing from memory are looked up in it, and every frame
+ * stored here is passed on to it as well, on an executor chosen by the caller so the render need not wait for it.
+ *
+ * @author rarpda
+ */
+public class TileCache {
+
+    /* Width and height of a tile in pixels */
+    public static final int TILE_SIZE = 32;
+    /* Significant digits of the pixel spacing that tell levels apart */
+    private static final int LEVEL_DIGITS = 12;
+    private static final MathContext LEVEL_CONTEXT = new MathContext(LEVEL_DIGITS);
+    /* Sub-pixel steps a lattice is positioned to */
+    private static final int PHASE_STEPS = 1024;
+    private static final BigInteger PHASE_STEPS_BIG = BigInteger.valueOf(PHASE_STEPS);
+    private static final BigInteger TILE_SIZE_BIG = BigInteger.valueOf(TILE_SIZE);
+
+    private final int maxTiles;
+    private final LinkedHashMap<TileKey, Tile> tiles;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder storeHits = new LongAdder();
+    private volatile TileStore store;
+
+    /**
+     * @param maxTiles the most tiles kept; each takes TILE_SIZE * TILE_SIZE ints.
+     */
+    public TileCache(int maxTiles) {
+        this.maxTiles = maxTiles;
+        /*Access order, so the eldest entry is the least recently used*/
+        this.tiles = new LinkedHashMap<TileKey, Tile>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TileKey, Tile> eldest) {
+                return size() > TileCache.this.maxTiles;
+            }
+        };
+    }
+
+    public int getMaxTiles() {
+        return maxTiles;
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    public TileStore getStore() {
+        return store;
+    }
+
+    /**
+     * Attaches a second level store, or detaches it if null.
+     */
+    public void setStore(TileStore store) {
+        this.store = store;
+    }
+
+    /**
+     * @return the number of lookups found, in memory or in the store.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lookups missing from memory but found in the store.
+     */
+    public long getStoreHits() {
+        return storeHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the fraction of lookups found in the cache, or 0 before the first lookup.
+     */
+    public double getHitRate() {
+        long found = hits.sum();
+        long total = found + misses.sum();
+        return total == 0 ? 0 : (double) found / total;
+    }
+
+    /**
+     * Sets the hit and miss counters back to zero.
+     */
+    public void resetCounts() {
+        hits.reset();
+        misses.reset();
+        storeHits.reset();
+    }
+
+    /**
+     * Drops every tile.
+     */
+    public synchronized void clear() {
+        tiles.clear();
+    }
+
+    /**
+     * Function used to work out which lattice tiles a frame of the given view covers.
+     *
+     * @param struct the view.
+     * @param width  width of the frame in pixels.
+     * @param height height of the frame in pixels.
+     * @return the tile grid of the frame.
+     */
+    public Grid grid(MandelbrotStruct struct, int width, int height) {
+        BigDecimal levelReal = struct.getSpanReal().divide(new BigDecimal(width), LEVEL_CONTEXT).stripTrailingZeros();
+        BigDecimal levelImag = struct.getSpanImag().divide(new BigDecimal(height), LEVEL_CONTEXT).stripTrailingZeros();
+        BigInteger positionX = latticePosition(struct.getMinRealExact(), levelReal);
+        BigInteger positionY = latticePosition(struct.getMinImagExact(), levelImag);
+        return new Grid(levelReal, levelImag, positionX, positionY, width, height, struct.getMaxIterations(), struct.getRadiusSquared(),
+                struct.isJulia(), struct.getJuliaReal(), struct.getJuliaImag());
+    }
+
+    /**
+     * Function used to find where a frame corner lies on the lattice of the given spacing.
+     *
+     * @return the corner's distance from the origin in 1/PHASE_STEPS of a pixel, rounded.
+     */
+    private static BigInteger latticePosition(BigDecimal corner, BigDecimal spacing) {
+        /*Enough digits for the integer part of corner / spacing and the sub-pixel phase*/
+        int integerDigits = Math.max(0, exponent(corner) - exponent(spacing) + 1);
+        BigDecimal pixels = corner.divide(spacing, new MathContext(integerDigits + 8));
+        return pixels.multiply(new BigDecimal(PHASE_STEPS)).setScale(0, RoundingMode.HALF_EVEN).toBigIntegerExact();
+    }
+
+    /**
+     * @return the power of ten of the leading digit of value.
+     */
+    private static int exponent(BigDecimal value) {
+        return value.precision() - value.scale() - 1;
+    }
+
+    /**
+     * Function used to copy one tile of a grid into the frame, if the cache holds all of the tile's part inside the frame.
+     * Counts a hit or a miss.
+     *
+     * @param counts histogram the copied pixels are added to, row by row as they are copied; or null.
+     * @return true if the tile was found and copied.
+     */
+    public boolean load(Grid grid, int column, int row, FrameBuffer frame, IterationHistogram counts) {
+        TileKey key = grid.key(column, row);
+        Tile tile;
+        synchronized (this) {
+            tile = tiles.get(key);
+        }
+        TileStore secondLevel = store;
+        boolean fromStore = false;
+        if (tile == null && secondLevel != null) {
+            tile = secondLevel.load(key.id());
+            if (tile != null) {
+                fromStore = true;
+                synchronized (this) {
+                    tiles.put(key, tile);
+                }
+            }
+        }
+        int startX = grid.tileStartX(column);
+        int startY = grid.tileStartY(row);
+        int clipStartX = Math.max(0, startX);
+        int clipEndX = Math.min(grid.width, startX + TILE_SIZE);
+        int clipStartY = Math.max(0, startY);
+        int clipEndY = Math.min(grid.height, startY + TILE_SIZE);
+        if (tile == null || !tile.covers(clipStartX - startX, clipEndX - startX, clipStartY - startY, clipEndY - startY)) {
+            misses.increment();
+            return false;
+        }
+        for (int y = clipStartY; y < clipEndY; y++) {
+            System.arraycopy(tile.pixels, (y - startY) * TILE_SIZE + clipStartX - startX, frame.getPixels(), frame.rowOffset(y) + clipStartX, clipEndX - clipStartX);
+            frame.clearSmooth(frame.rowOffset(y) + clipStartX, clipEndX - clipStartX); /*Tiles only hold the integer counts*/
+            if (counts != null) {
+                counts.addRun(frame.getPixels(), frame.rowOffset(y) + clipStartX, clipEndX - clipStartX);
+            }
+        }
+        hits.increment();
+        if (fromStore) {
+            storeHits.increment();
+        }
+        return true;
+    }
+
+    /**
+     * Function used to store every tile of a finished frame, and hand them to the second level store if one is attached.
+     *
+     * @param writer runs the second level store's write of the tiles, which are copies independent of the frame.
+     */
+    public void store(Grid grid, FrameBuffer frame, Executor writer) {
+        TileStore secondLevel = store;
+        Map<String, Tile> frameTiles = new HashMap<>();
+        for (int row = 0; row < grid.rows; row++) {
+            for (int column = 0; column < grid.columns; column++) {
+                Tile tile = store(grid, column, row, frame);
+                if (secondLevel != null) {
+                    frameTiles.put(grid.key(column, row).id(), tile);
+                }
+            }
+        }
+        if (secondLevel != null) {
+            writer.execute(() -> secondLevel.store(frameTiles));
+        }
+    }
+
+    /**
+     * Function used to store one tile of a finished frame in memory, replacing any copy already held.
+     *
+     * @return the stored tile.
+     */
+    private Tile store(Grid grid, int column, int row, FrameBuffer frame) {
+        int startX = grid.tileStartX(column);
+        int startY = grid.tileStartY(row);
+        int clipStartX = Math.max(0, startX);
+        int clipEndX = Math.min(grid.width, startX + TILE_SIZE);
+        int clipStartY = Math.max(0, startY);
+        int clipEndY = Math.min(grid.height, startY + TILE_SIZE);
+        Tile tile = new Tile(clipStartX - startX, clipEndX - startX, clipStartY - startY, clipEndY - startY);
+        for (int y = clipStartY; y < clipEndY; y++) {
+            System.arraycopy(frame.getPixels(), frame.rowOffset(y) + clipStartX, tile.pixels, (y - startY) * TILE_SIZE + clipStartX - startX, clipEndX - clipStartX);
+        }
+        TileKey key = grid.key(column, row);
+        synchronized (this) {
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * The lattice tiles covered by one frame. Column 0 and row 0 are the tiles holding the frame's first pixel,
+     * and may start before it.
+     */
+    public static final class Grid {
+        private final BigDecimal levelReal;
+        private final BigDecimal levelImag;
+        private final int phaseX;
+        private final int phaseY;
+        private final BigInteger firstTileX;
+        private final BigInteger firstTileY;
+        /* Frame coordinates of the first tile's corner, 0 or negative */
+        private final int offsetX;
+        private final int offsetY;
+        private final int width;
+        private final int height;
+        private final int columns;
+        private final int rows;
+        private final int maxIterations;
+        private final double radiusSquared;
+        /* Set and constant, so Julia tiles never stand in for Mandelbrot ones or for another constant's */
+        private final boolean julia;
+        private final double juliaReal;
+        private final double juliaImag;
+        private final int levelHash;
+
+        private Grid(BigDecimal levelReal, BigDecimal levelImag, BigInteger positionX, BigInteger positionY, int width, int height, int maxIterations, double radiusSquared,
+                     boolean julia, double juliaReal, double juliaImag) {
+            this.levelReal = levelReal;
+            this.levelImag = levelImag;
+            BigInteger[] pixelX = floorDivide(positionX, PHASE_STEPS_BIG);
+            BigInteger[] pixelY = floorDivide(positionY, PHASE_STEPS_BIG);
+            this.phaseX = pixelX[1].intValue();
+            this.phaseY = pixelY[1].intValue();
+            BigInteger[] tileX = floorDivide(pixelX[0], TILE_SIZE_BIG);
+            BigInteger[] tileY = floorDivide(pixelY[0], TILE_SIZE_BIG);
+            this.firstTileX = tileX[0];
+            this.firstTileY = tileY[0];
+            this.offsetX = -tileX[1].intValue();
+            this.offsetY = -tileY[1].intValue();
+            this.width = width;
+            this.height = height;
+            this.columns = (width - offsetX + TILE_SIZE - 1) / TILE_SIZE;
+            this.rows = (height - offsetY + TILE_SIZE - 1) / TILE_SIZE;
+            this.maxIterations = maxIterations;
+            this.radiusSquared = radiusSquared;
+            this.julia = julia;
+            this.juliaReal = juliaReal;
+            this.juliaImag = juliaImag;
+            this.levelHash = Objects.hash(levelReal, levelImag, phaseX, phaseY, maxIterations, radiusSquared, julia, juliaReal, juliaImag);
+        }
+
+        /**
+         * @return the quotient and the (non-negative) remainder of value / divisor, rounding the quotient down.
+         */
+        private static BigInteger[] floorDivide(BigInteger value, BigInteger divisor) {
+            BigInteger remainder = value.mod(divisor);
+            return new BigInteger[]{value.subtract(remainder).divide(divisor), remainder};
+        }
+
+        public int getColumns() {
+            return columns;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * @return the frame x coordinate of the tile column's first pixel, which may lie left of the frame.
+         */
+        public int tileStartX(int column) {
+            return offsetX + column * TILE_SIZE;
+        }
+
+        /**
+         * @return the frame y coordinate of the tile row's first pixel, which may lie above the frame.
+         */
+        public int tileStartY(int row) {
+            return offsetY + row * TILE_SIZE;
+        }
+
+        private TileKey key(int column, int row) {
+            return new TileKey(this, firstTileX.add(BigInteger.valueOf(column)), firstTileY.add(BigInteger.valueOf(row)));
+        }
+    }
+
+    /**
+     * Identity of a tile: the level (quantised spacing and sub-pixel phase), iteration settings and set from the grid,
+     * and the tile's lattice coordinates.
+     */
+    private static final class TileKey {
+        private final Grid grid;
+        private final BigInteger tileX;
+        private final BigInteger tileY;
+        private final int hash;
+
+        TileKey(Grid grid, BigInteger tileX, BigInteger tileY) {
+            this.grid = grid;
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.hash = 31 * (31 * grid.levelHash + tileX.hashCode()) + tileY.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof TileKey)) {
+                return false;
+            }
+            TileKey key = (TileKey) other;
+            return hash == key.hash && tileX.equals(key.tileX) && tileY.equals(key.tileY)
+                    && grid.maxIterations == key.grid.maxIterations
+                    && Double.compare(grid.radiusSquared, key.grid.radiusSquared) == 0
+                    && grid.julia == key.grid.julia
+                    && Double.compare(grid.juliaReal, key.grid.juliaReal) == 0
+                    && Double.compare(grid.juliaImag, key.grid.juliaImag) == 0
+                    && grid.phaseX == key.grid.phaseX && grid.phaseY == key.grid.phaseY
+                    && grid.levelReal.equals(key.grid.levelReal) && grid.levelImag.equals(key.grid.levelImag);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        /**
+         * @return a string holding every part of the key, the same in every run of the program. Mandelbrot tiles keep
+         * the ids they had before Julia tiles existed, so tiles already stored are still found.
+         */
+        String id() {
+            String id = grid.levelReal + "," + grid.levelImag + "," + grid.phaseX + "," + grid.phaseY + "," + tileX + "," + tileY
+                    + "," + grid.maxIterations + "," + grid.radiusSquared;
+            return grid.julia ? id + ",julia," + grid.juliaReal + "," + grid.juliaImag : id;
+        }
+    }
+
+    /**
+     * Iteration values of one tile, of which only the rectangle [startX, endX) x [startY, endY) is filled.
+     * Pixel (x, y) of the tile is at index y * TILE_SIZE + x.
+     */
+    public static final class Tile {
+        private final int[] pixels;
+        private final int startX;
+        private final int endX;
+        private final int startY;
+        private final int endY;
+
+        Tile(int startX, int endX, int startY, int endY) {
+            this(startX, endX, startY, endY, new int[TILE_SIZE * TILE_SIZE]);
+        }
+
+        /**
+         * @param pixels TILE_SIZE * TILE_SIZE values, of which the rectangle is used.
+         */
+        public Tile(int startX, int endX, int startY, int endY, int[] pixels) {
+            this.startX = startX;
+            this.endX = endX;
+            this.startY = startY;
+            this.endY = endY;
+            this.pixels = pixels;
+        }
+
+        public int[] getPixels() {
+            return pixels;
+        }
+
+        public int getStartX() {
+            return startX;
+        }
+
+        public int getEndX() {
+            return endX;
+        }
+
+        public int getStartY() {
+            return startY;
+        }
+
+        public int getEndY() {
+            return endY;
+        }
+
+        boolean covers(int fromX, int toX, int fromY, int toY) {
+            return startX <= fromX && toX <= endX && startY <= fromY && toY <= endY;
+        }
+    }
+}
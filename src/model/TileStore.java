@@ -0,0 +1,26 @@
+package model;
+
+import java.util.Map;
+
+/**
+ * Second level behind a TileCache, e.g. on disk, for tiles that should outlive the memory cache or the program.
+ * Tiles are identified by a string holding every part of their key.
+ *
+ * @author rarpda
+ */
+public interface TileStore {
+
+    /**
+     * @param tileId the tile's identity.
+     * @return the stored tile, or null if there is none.
+     */
+    TileCache.Tile load(String tileId);
+
+    /**
+     * Stores the tiles of one frame, replacing any stored under the same identity which hold less of the tile.
+     * Called on a background thread, possibly while tiles are being loaded.
+     *
+     * @param tiles the tiles, by identity.
+     */
+    void store(Map<String, TileCache.Tile> tiles);
+}
@@ -0,0 +1,119 @@
+package delegate;
+
+import model.TileCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the disk store only writes the tiles it lacks, keeps them between openings, evicts the oldest segments
+ * beyond its size limit, and reports unreadable segments to its error handler instead of failing.
+ *
+ * @author rarpda
+ */
+class TileStorageTest {
+
+    final static long MAX_BYTES = 1 << 20;
+
+    @TempDir
+    File directory;
+
+    static TileCache.Tile tile(int startX, int endX, int seed) {
+        int[] pixels = new int[TileCache.TILE_SIZE * TileCache.TILE_SIZE];
+        for (int index = 0; index < pixels.length; index++) {
+            pixels[index] = seed + index;
+        }
+        return new TileCache.Tile(startX, endX, 0, TileCache.TILE_SIZE, pixels);
+    }
+
+    int segmentCount() {
+        return directory.list((dir, name) -> name.endsWith(TileStorage.SEGMENT_SUFFIX)).length;
+    }
+
+    @Test
+    void writesOnlyTilesMissingFromTheIndex() throws IOException {
+        List<String> errors = new ArrayList<>();
+        TileStorage storage = new TileStorage(directory, MAX_BYTES, errors::add);
+        Map<String, TileCache.Tile> frame = new LinkedHashMap<>();
+        frame.put("a", tile(0, TileCache.TILE_SIZE, 1));
+        frame.put("b", tile(0, 16, 2));
+        storage.store(frame);
+        assertEquals(1, segmentCount());
+        long size = storage.getSizeBytes();
+
+        storage.store(frame); /*Nothing new*/
+        assertEquals(1, segmentCount());
+        assertEquals(size, storage.getSizeBytes());
+
+        frame.put("b", tile(0, TileCache.TILE_SIZE, 2)); /*More of b than was stored*/
+        frame.put("c", tile(0, TileCache.TILE_SIZE, 3));
+        storage.store(frame);
+        assertEquals(2, segmentCount());
+        assertTrue(storage.getSizeBytes() - size < size * 2, "a was written again");
+
+        TileStorage reopened = new TileStorage(directory, MAX_BYTES, errors::add);
+        assertEquals(3, reopened.getTileCount());
+        for (Map.Entry<String, TileCache.Tile> entry : frame.entrySet()) {
+            TileCache.Tile loaded = reopened.load(entry.getKey());
+            assertNotNull(loaded, entry.getKey());
+            assertEquals(entry.getValue().getEndX(), loaded.getEndX());
+            assertArrayEquals(entry.getValue().getPixels(), loaded.getPixels());
+        }
+        assertTrue(errors.isEmpty(), errors.toString());
+    }
+
+    @Test
+    void reopensAfterEviction() throws IOException {
+        /*Room for three single-tile segments, with a little to spare for their indexes*/
+        long maxBytes = 3 * (Integer.BYTES * (TileStorage.TILE_HEADER_INTS + (long) TileCache.TILE_SIZE * TileCache.TILE_SIZE) + 64);
+        List<String> errors = new ArrayList<>();
+        TileStorage storage = new TileStorage(directory, maxBytes, errors::add);
+        for (int seed = 0; seed < 5; seed++) {
+            Map<String, TileCache.Tile> frame = new LinkedHashMap<>();
+            frame.put("t" + seed, tile(0, TileCache.TILE_SIZE, seed));
+            storage.store(frame);
+        }
+        assertEquals(3, segmentCount());
+        assertEquals(3, storage.getTileCount());
+
+        TileStorage reopened = new TileStorage(directory, maxBytes, errors::add);
+        assertEquals(3, reopened.getTileCount());
+        assertEquals(storage.getSizeBytes(), reopened.getSizeBytes());
+        for (int seed = 0; seed < 5; seed++) {
+            TileCache.Tile loaded = reopened.load("t" + seed);
+            if (seed < 2) {
+                assertNull(loaded, "t" + seed + " was evicted");
+            } else {
+                assertNotNull(loaded, "t" + seed);
+                assertArrayEquals(tile(0, TileCache.TILE_SIZE, seed).getPixels(), loaded.getPixels());
+            }
+        }
+        assertTrue(errors.isEmpty(), errors.toString());
+    }
+
+    @Test
+    void reportsUnreadableSegments() throws IOException {
+        File corrupt = new File(directory, TileStorage.SEGMENT_PREFIX + 7 + TileStorage.SEGMENT_SUFFIX);
+        Files.write(corrupt.toPath(), "not a segment".getBytes(StandardCharsets.UTF_8));
+        List<String> errors = new ArrayList<>();
+        TileStorage storage = new TileStorage(directory, MAX_BYTES, errors::add);
+        assertEquals(1, errors.size());
+        assertFalse(corrupt.exists());
+        assertEquals(0, storage.getTileCount());
+    }
+}
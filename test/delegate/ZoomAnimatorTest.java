@@ -0,0 +1,54 @@
+package delegate;
+
+import model.MandelbrotStruct;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that animations interpolate between views of one fractal and cut between views of different fractals.
+ *
+ * @author rarpda
+ */
+class ZoomAnimatorTest {
+
+    final static int FRAMES_PER_SEGMENT = 4;
+
+    static MandelbrotStruct view(String span) {
+        MandelbrotStruct struct = new MandelbrotStruct();
+        struct.setSpan(new BigDecimal(span), new BigDecimal(span));
+        return struct;
+    }
+
+    @Test
+    void zoomsBetweenViewsOfOneFractal() {
+        List<MandelbrotStruct> frames = ZoomAnimator.frames(Arrays.asList(view("3"), view("0.003")), FRAMES_PER_SEGMENT);
+        assertEquals(FRAMES_PER_SEGMENT + 1, frames.size());
+        for (int index = 1; index < frames.size(); index++) {
+            assertTrue(frames.get(index).getSpanReal().compareTo(frames.get(index - 1).getSpanReal()) < 0, "frame " + index);
+        }
+    }
+
+    @Test
+    void cutsBetweenFractals() {
+        MandelbrotStruct mandelbrot = view("3");
+        MandelbrotStruct julia = view("3");
+        julia.setJulia(-0.8, 0.156);
+        MandelbrotStruct otherJulia = view("0.3");
+        otherJulia.setJulia(0.285, 0.01);
+        List<MandelbrotStruct> frames = ZoomAnimator.frames(Arrays.asList(mandelbrot, julia, otherJulia), FRAMES_PER_SEGMENT);
+        /*Same centre and span, but not the same view, so nothing is merged; each change of fractal is a single frame*/
+        assertEquals(3, frames.size());
+        assertFalse(frames.get(0).isJulia());
+        assertTrue(frames.get(1).isJulia());
+        assertEquals(-0.8, frames.get(1).getJuliaReal());
+        assertEquals(0.285, frames.get(2).getJuliaReal());
+        assertEquals(0, frames.get(2).getSpanReal().compareTo(new BigDecimal("0.3")));
+    }
+}
@@ -0,0 +1,95 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the double-double kernel against the double kernel where doubles resolve every pixel, and against BigDecimal
+ * iteration past the reach of doubles.
+ *
+ * @author rarpda
+ */
+class DoubleDoubleTest {
+
+    final static int RESOLUTION = 64;
+    final static int MAX_ITERATIONS = 512;
+    final static double RADIUS_SQUARED = 4.0;
+    /* centreReal, centreImag and span of shallow views */
+    final static String[][] SHALLOW_VIEWS = {
+            {"-0.65", "0", "2.7"},
+            {"-0.745", "0.105", "0.01"},
+    };
+    /* Near the boundary a few orbits are chaotic enough for rounding to change their count; a wrong orbit changes nearly every escaping pixel */
+    final static double MAX_MISMATCH_FRACTION = 0.01;
+    /* A view of 1e-20 by the Misiurewicz point i, where pixels escape within a hundred iterations but C needs 23 digits */
+    final static int DEEP_RESOLUTION = 16;
+    final static BigDecimal DEEP_CENTRE_REAL = new BigDecimal("0.00000000000000000000123");
+    final static BigDecimal DEEP_CENTRE_IMAG = new BigDecimal("1.00000000000000000000456");
+    final static double DEEP_SPAN = 1e-20;
+    final static MathContext BIG_DECIMAL_CONTEXT = new MathContext(50);
+
+    static FrameBuffer renderDoubleDouble(BigDecimal centreReal, BigDecimal centreImag, double step, int resolution) {
+        FrameBuffer frame = new FrameBuffer(resolution, resolution);
+        new MandelbrotCalculator().calcMandelbrotDoubleDouble(frame, centreReal, centreImag, step, step, MAX_ITERATIONS, RADIUS_SQUARED, () -> false);
+        return frame;
+    }
+
+    /**
+     * Function used to iterate one point with every value held as a BigDecimal, counting iterations as calcMandel does.
+     */
+    static int iterateBigDecimal(BigDecimal cReal, BigDecimal cImag) {
+        BigDecimal radius = new BigDecimal(RADIUS_SQUARED);
+        BigDecimal two = BigDecimal.valueOf(2);
+        BigDecimal zr = BigDecimal.ZERO;
+        BigDecimal zi = BigDecimal.ZERO;
+        for (int iterations = 0; iterations < MAX_ITERATIONS; iterations++) {
+            BigDecimal zrSquared = zr.multiply(zr, BIG_DECIMAL_CONTEXT);
+            BigDecimal ziSquared = zi.multiply(zi, BIG_DECIMAL_CONTEXT);
+            if (zrSquared.add(ziSquared, BIG_DECIMAL_CONTEXT).compareTo(radius) > 0) {
+                return iterations + 1; /*The step out of the radius is counted*/
+            }
+            BigDecimal nzi = two.multiply(zr).multiply(zi, BIG_DECIMAL_CONTEXT).add(cImag, BIG_DECIMAL_CONTEXT);
+            zr = zrSquared.subtract(ziSquared, BIG_DECIMAL_CONTEXT).add(cReal, BIG_DECIMAL_CONTEXT);
+            zi = nzi;
+        }
+        return MAX_ITERATIONS;
+    }
+
+    @Test
+    void matchesDoubleKernelWhenShallow() {
+        MandelbrotCalculator calculator = new MandelbrotCalculator();
+        for (String[] view : SHALLOW_VIEWS) {
+            BigDecimal centreReal = new BigDecimal(view[0]);
+            BigDecimal centreImag = new BigDecimal(view[1]);
+            double step = Double.parseDouble(view[2]) / RESOLUTION;
+            FrameBuffer expected = new FrameBuffer(RESOLUTION, RESOLUTION);
+            calculator.calcMandelbrotCentred(expected, centreReal, centreImag, step, step, MAX_ITERATIONS, RADIUS_SQUARED, () -> false);
+            int[] actual = renderDoubleDouble(centreReal, centreImag, step, RESOLUTION).getPixels();
+            int mismatches = 0;
+            for (int index = 0; index < actual.length; index++) {
+                mismatches += actual[index] != expected.getPixels()[index] ? 1 : 0;
+            }
+            assertTrue(mismatches <= MAX_MISMATCH_FRACTION * actual.length, mismatches + " pixels differ at span " + view[2]);
+        }
+    }
+
+    @Test
+    void matchesBigDecimalWhenDeep() {
+        double step = DEEP_SPAN / DEEP_RESOLUTION;
+        FrameBuffer frame = renderDoubleDouble(DEEP_CENTRE_REAL, DEEP_CENTRE_IMAG, step, DEEP_RESOLUTION);
+        int[] expected = new int[DEEP_RESOLUTION * DEEP_RESOLUTION];
+        for (int y = 0; y < DEEP_RESOLUTION; y++) {
+            for (int x = 0; x < DEEP_RESOLUTION; x++) {
+                BigDecimal cReal = DEEP_CENTRE_REAL.add(new BigDecimal((x - DEEP_RESOLUTION / 2.0) * step));
+                BigDecimal cImag = DEEP_CENTRE_IMAG.add(new BigDecimal((y - DEEP_RESOLUTION / 2.0) * step));
+                expected[frame.rowOffset(y) + x] = iterateBigDecimal(cReal, cImag);
+            }
+        }
+        assertArrayEquals(expected, frame.getPixels());
+    }
+}
@@ -0,0 +1,276 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks that the ways of rendering a frame which should agree do: the fork-join and sequential paths, the kernels
+ * (including the Vector API one, where its module is available), the interior shortcuts against plain iteration,
+ * frames built up in several steps against a fresh render, and the histogram counted during the render against the finished pixels.
+ *
+ * @author rarpda
+ */
+class MandelbrotCalculatorTest {
+
+    final static int RESOLUTION = 128;
+    final static int MAX_ITERATIONS = 512;
+    final static double RADIUS_SQUARED = 4.0;
+    /* minReal, maxReal, minImag, maxImag of the views the benchmarks use */
+    final static double[][] VIEWS = {
+            {-2.0, 0.7, -1.25, 1.25},
+            {-0.7500, -0.7400, 0.1000, 0.1100},
+            {-0.1330, -0.1130, 0.7350, 0.7550},
+            {-0.74364389, -0.74364387, 0.13182589, 0.13182591},
+    };
+    /* Views across the main cardioid, the period-2 bulb and the boundary between them */
+    final static double[][] INTERIOR_VIEWS = {
+            {-2.0, 0.7, -1.25, 1.25},
+            {-1.3, -0.2, -0.55, 0.55},
+            {-0.8, -0.7, -0.05, 0.05},
+    };
+
+    /**
+     * Function used to check that a frame built up in steps holds exactly what a fresh render of the same view does,
+     * including its smooth counts and histogram.
+     */
+    static void assertSameFrame(FrameBuffer expected, FrameBuffer actual, String message) {
+        assertArrayEquals(expected.getPixels(), actual.getPixels(), message + " pixels");
+        assertArrayEquals(expected.getSmooth(), actual.getSmooth(), message + " smooth counts");
+        IterationHistogram expectedHistogram = expected.getHistogram();
+        IterationHistogram actualHistogram = actual.getHistogram();
+        assertEquals(expectedHistogram.getMaxIterations(), actualHistogram.getMaxIterations(), message + " histogram size");
+        for (int value = 0; value <= expectedHistogram.getMaxIterations(); value++) {
+            assertEquals(expectedHistogram.getCount(value), actualHistogram.getCount(value), message + " count of " + value);
+        }
+    }
+
+    /* Views whose bounds and pixel steps are exact binary fractions, so a view moved by whole pixels samples exactly the same points */
+    final static double[][] DYADIC_VIEWS = {
+            {-1.5, 0.5, -1.0, 1.0},
+            {-0.75, -0.734375, 0.09375, 0.109375},
+    };
+
+    static FrameBuffer render(MandelbrotCalculator calculator, double[] view) {
+        return render(calculator, view, false);
+    }
+
+    static FrameBuffer render(MandelbrotCalculator calculator, double[] view, boolean smooth) {
+        FrameBuffer frame = new FrameBuffer(RESOLUTION, RESOLUTION);
+        frame.setHistogramKept(true);
+        frame.setSmooth(smooth);
+        calculator.calcMandelbrotSet(frame, view[0], view[1], view[2], view[3], MAX_ITERATIONS, RADIUS_SQUARED, () -> false);
+        return frame;
+    }
+
+    @Test
+    void parallelMatchesSequential() {
+        MandelbrotCalculator parallel = new MandelbrotCalculator(4);
+        MandelbrotCalculator sequential = new MandelbrotCalculator();
+        sequential.setParallel(false);
+        for (double[] view : VIEWS) {
+            assertArrayEquals(render(sequential, view).getPixels(), render(parallel, view).getPixels());
+        }
+    }
+
+    @Test
+    void kernelsAgree() {
+        MandelbrotCalculator scalar = new MandelbrotCalculator();
+        scalar.setKernel(MandelbrotCalculator.Kernel.SCALAR);
+        MandelbrotCalculator batched = new MandelbrotCalculator();
+        batched.setKernel(MandelbrotCalculator.Kernel.BATCHED);
+        for (double[] view : VIEWS) {
+            assertArrayEquals(render(scalar, view).getPixels(), render(batched, view).getPixels());
+        }
+    }
+
+    @Test
+    void kernelsRecordEscapesOnTheLastIteration() {
+        /*At this budget some seahorse pixels escape on the very last iteration, inside the batched loop*/
+        int budget = 256;
+        double[] view = VIEWS[1];
+        FrameBuffer expected = null;
+        ResumeState expectedState = null;
+        for (MandelbrotCalculator.Kernel kernel : MandelbrotCalculator.Kernel.values()) {
+            MandelbrotCalculator calculator = new MandelbrotCalculator();
+            calculator.setKernel(kernel);
+            FrameBuffer frame = new FrameBuffer(RESOLUTION, RESOLUTION);
+            frame.setSmooth(true);
+            ResumeState state = new ResumeState(RESOLUTION, RESOLUTION);
+            state.clear(budget);
+            frame.setResumeState(state);
+            calculator.calcMandelbrotSet(frame, view[0], view[1], view[2], view[3], budget, RADIUS_SQUARED, () -> false);
+            if (expected == null) {
+                expected = frame;
+                expectedState = state;
+                continue;
+            }
+            assertArrayEquals(expected.getPixels(), frame.getPixels(), kernel + " pixels");
+            assertArrayEquals(expected.getSmooth(), frame.getSmooth(), kernel + " smooth counts");
+            for (int index = 0; index < RESOLUTION * RESOLUTION; index++) {
+                assertEquals(expectedState.getStatus(index), state.getStatus(index), kernel + " status of " + index);
+            }
+        }
+    }
+
+    @Test
+    void vectorKernelMatchesScalar() {
+        assumeTrue(MandelbrotCalculator.isVectorAvailable(), "jdk.incubator.vector is not available");
+        MandelbrotCalculator scalar = new MandelbrotCalculator();
+        scalar.setKernel(MandelbrotCalculator.Kernel.SCALAR);
+        MandelbrotCalculator vector = new MandelbrotCalculator();
+        vector.setKernel(MandelbrotCalculator.Kernel.VECTOR);
+        for (double[] view : VIEWS) {
+            FrameBuffer expected = render(scalar, view, true);
+            FrameBuffer actual = render(vector, view, true);
+            assertArrayEquals(expected.getPixels(), actual.getPixels());
+            assertArrayEquals(expected.getSmooth(), actual.getSmooth());
+        }
+        scalar.setJulia(-0.8, 0.156);
+        vector.setJulia(-0.8, 0.156);
+        double[] juliaView = {-1.62, 1.62, -1.5, 1.5};
+        assertArrayEquals(render(scalar, juliaView, false).getPixels(), render(vector, juliaView, false).getPixels());
+    }
+
+    @Test
+    void interiorShortcutsKeepCounts() {
+        MandelbrotCalculator plain = new MandelbrotCalculator();
+        plain.setKernel(MandelbrotCalculator.Kernel.SCALAR);
+        plain.setCardioidCheck(false);
+        plain.setBulbCheck(false);
+        plain.setPeriodicityCheck(false);
+        for (MandelbrotCalculator.Kernel kernel : MandelbrotCalculator.Kernel.values()) {
+            MandelbrotCalculator shortcuts = new MandelbrotCalculator();
+            shortcuts.setKernel(kernel);
+            for (double[] view : INTERIOR_VIEWS) {
+                FrameBuffer expected = render(plain, view, true);
+                FrameBuffer actual = render(shortcuts, view, true);
+                assertArrayEquals(expected.getPixels(), actual.getPixels(), kernel + " pixels");
+                assertArrayEquals(expected.getSmooth(), actual.getSmooth(), kernel + " smooth counts");
+            }
+            /*Make sure every shortcut was taken, or the comparison proves nothing*/
+            assertTrue(shortcuts.getCardioidSkips() > 0, kernel + " cardioid");
+            assertTrue(shortcuts.getBulbSkips() > 0, kernel + " bulb");
+            assertTrue(shortcuts.getPeriodicitySkips() > 0, kernel + " periodicity");
+        }
+        assertEquals(0, plain.getCardioidSkips() + plain.getBulbSkips() + plain.getPeriodicitySkips());
+    }
+
+    @Test
+    void progressivePassesMatchFullRender() {
+        MandelbrotCalculator calculator = new MandelbrotCalculator();
+        for (double[] view : VIEWS) {
+            FrameBuffer frame = new FrameBuffer(RESOLUTION, RESOLUTION);
+            frame.setHistogramKept(true);
+            frame.setSmooth(true);
+            for (int pixelStep = 8; pixelStep >= 1; pixelStep /= 2) {
+                calculator.calcMandelbrotPass(frame, pixelStep, pixelStep == 8, view[0], view[1], view[2], view[3], MAX_ITERATIONS, RADIUS_SQUARED, () -> false);
+            }
+            assertSameFrame(render(calculator, view, true), frame, "progressive");
+        }
+    }
+
+    @Test
+    void panMatchesFullRender() {
+        MandelbrotCalculator calculator = new MandelbrotCalculator();
+        int[][] pans = {{10, -7}, {-33, 0}, {0, 50}, {-1, 1}};
+        for (double[] view : DYADIC_VIEWS) {
+            double step = (view[1] - view[0]) / RESOLUTION;
+            FrameBuffer last = render(calculator, view, true);
+            for (int[] pan : pans) {
+                int pixelsX = pan[0];
+                int pixelsY = pan[1];
+                double[] panned = {view[0] + pixelsX * step, view[1] + pixelsX * step, view[2] + pixelsY * step, view[3] + pixelsY * step};
+                /*As MandelModel.renderPan: pixel (x, y) is pixel (x + pixelsX, y + pixelsY) of the last frame, the exposed strips are computed*/
+                FrameBuffer frame = new FrameBuffer(RESOLUTION, RESOLUTION);
+                frame.setHistogramKept(true);
+                frame.setSmooth(true);
+                int keptStartX = Math.max(0, -pixelsX);
+                int keptEndX = Math.min(RESOLUTION, RESOLUTION - pixelsX);
+                int keptStartY = Math.max(0, -pixelsY);
+                int keptEndY = Math.min(RESOLUTION, RESOLUTION - pixelsY);
+                IterationHistogram counts = new IterationHistogram(MAX_ITERATIONS);
+                for (int y = keptStartY; y < keptEndY; y++) {
+                    frame.copyRun(last, last.rowOffset(y + pixelsY) + keptStartX + pixelsX, frame.rowOffset(y) + keptStartX, keptEndX - keptStartX);
+                    counts.addRun(frame.getPixels(), frame.rowOffset(y) + keptStartX, keptEndX - keptStartX);
+                }
+                int stripStartX = pixelsX > 0 ? keptEndX : 0;
+                int stripEndX = pixelsX > 0 ? RESOLUTION : keptStartX;
+                if (stripStartX < stripEndX) {
+                    calculator.calcMandelbrotRegion(frame, stripStartX, stripEndX, 0, RESOLUTION, panned[0], panned[1], panned[2], panned[3], MAX_ITERATIONS, RADIUS_SQUARED, counts, () -> false);
+                }
+                int stripStartY = pixelsY > 0 ? keptEndY : 0;
+                int stripEndY = pixelsY > 0 ? RESOLUTION : keptStartY;
+                if (stripStartY < stripEndY) {
+                    calculator.calcMandelbrotRegion(frame, keptStartX, keptEndX, stripStartY, stripEndY, panned[0], panned[1], panned[2], panned[3], MAX_ITERATIONS, RADIUS_SQUARED, counts, () -> false);
+                }
+                frame.setHistogram(counts);
+                assertSameFrame(render(calculator, panned, true), frame, "pan by " + pixelsX + ", " + pixelsY);
+            }
+        }
+    }
+
+    @Test
+    void resumeMatchesFullRender() {
+        MandelbrotCalculator calculator = new MandelbrotCalculator();
+        MandelbrotCalculator fresh = new MandelbrotCalculator();
+        for (double[] view : VIEWS) {
+            /*As MandelModel: render with a small budget recording the final orbits, then raise it twice*/
+            int budget = MAX_ITERATIONS / 8;
+            FrameBuffer frame = new FrameBuffer(RESOLUTION, RESOLUTION);
+            frame.setHistogramKept(true);
+            frame.setSmooth(true);
+            ResumeState state = new ResumeState(RESOLUTION, RESOLUTION);
+            state.clear(budget);
+            frame.setResumeState(state);
+            calculator.calcMandelbrotSet(frame, view[0], view[1], view[2], view[3], budget, RADIUS_SQUARED, () -> false);
+            while (budget < MAX_ITERATIONS) {
+                budget *= 4;
+                calculator.resumeMandelbrotSet(frame, view[0], view[1], view[2], view[3], budget, RADIUS_SQUARED, () -> false);
+                FrameBuffer expected = new FrameBuffer(RESOLUTION, RESOLUTION);
+                expected.setHistogramKept(true);
+                expected.setSmooth(true);
+                fresh.calcMandelbrotSet(expected, view[0], view[1], view[2], view[3], budget, RADIUS_SQUARED, () -> false);
+                assertSameFrame(expected, frame, "resumed to " + budget);
+            }
+        }
+    }
+
+    @Test
+    void histogramCountsEveryPixel() {
+        MandelbrotCalculator calculator = new MandelbrotCalculator();
+        for (double[] view : VIEWS) {
+            FrameBuffer frame = render(calculator, view);
+            long[] expected = new long[MAX_ITERATIONS + 1];
+            for (int value : frame.getPixels()) {
+                expected[Math.min(value, MAX_ITERATIONS)]++;
+            }
+            IterationHistogram histogram = frame.getHistogram();
+            assertEquals(MAX_ITERATIONS, histogram.getMaxIterations());
+            for (int value = 0; value <= MAX_ITERATIONS; value++) {
+                assertEquals(expected[value], histogram.getCount(value), "count of " + value);
+            }
+        }
+    }
+
+    @Test
+    void regionsAddUpToTheFrameHistogram() {
+        MandelbrotCalculator calculator = new MandelbrotCalculator();
+        for (double[] view : VIEWS) {
+            IterationHistogram expected = render(calculator, view).getHistogram();
+            /*An L-shaped strip and the rest, as a pan computes them*/
+            FrameBuffer frame = new FrameBuffer(RESOLUTION, RESOLUTION);
+            IterationHistogram counts = new IterationHistogram(MAX_ITERATIONS);
+            int split = RESOLUTION / 3;
+            calculator.calcMandelbrotRegion(frame, 0, split, 0, RESOLUTION, view[0], view[1], view[2], view[3], MAX_ITERATIONS, RADIUS_SQUARED, counts, () -> false);
+            calculator.calcMandelbrotRegion(frame, split, RESOLUTION, 0, split, view[0], view[1], view[2], view[3], MAX_ITERATIONS, RADIUS_SQUARED, counts, () -> false);
+            calculator.calcMandelbrotRegion(frame, split, RESOLUTION, split, RESOLUTION, view[0], view[1], view[2], view[3], MAX_ITERATIONS, RADIUS_SQUARED, counts, () -> false);
+            for (int value = 0; value <= MAX_ITERATIONS; value++) {
+                assertEquals(expected.getCount(value), counts.getCount(value), "count of " + value);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks perturbation against plain double iteration at a depth where doubles still resolve every pixel, and that
+ * building the reference orbit stops when its render is cancelled.
+ *
+ * @author rarpda
+ */
+class PerturbationEngineTest {
+
+    final static int RESOLUTION = 64;
+    final static int MAX_ITERATIONS = 1000;
+    final static double RADIUS_SQUARED = 4.0;
+    /* centreReal, centreImag and span of boundary views shallow enough for doubles to resolve every pixel */
+    final static double[][] VIEWS = {
+            {-0.743643887, 0.131825904, 1e-6},
+            {-0.743643887037151, 0.131825904205330, 1e-8},
+    };
+    /* Near the boundary a few orbits are chaotic enough for rounding to change their count; a wrong orbit changes nearly every escaping pixel */
+    final static double MAX_MISMATCH_FRACTION = 0.01;
+
+    /**
+     * Function used to iterate C in doubles with no shortcuts, counting as MandelbrotCalculator does.
+     */
+    static int iterateDouble(double cReal, double cImag, int maxIterations) {
+        double zr = 0;
+        double zi = 0;
+        for (int iterations = 0; iterations < maxIterations; iterations++) {
+            double zrSquared = zr * zr;
+            double ziSquared = zi * zi;
+            if (zrSquared + ziSquared > RADIUS_SQUARED) {
+                return iterations + 1; /*The step out of the radius is counted*/
+            }
+            zi = 2 * zr * zi + cImag;
+            zr = zrSquared - ziSquared + cReal;
+        }
+        return maxIterations;
+    }
+
+    @Test
+    void matchesDoubleIteration() {
+        for (double[] view : VIEWS) {
+            double step = view[2] / RESOLUTION;
+            for (boolean series : new boolean[]{false, true}) {
+                PerturbationEngine engine = new PerturbationEngine(new BigDecimal(view[0]), new BigDecimal(view[1]), step,
+                        Math.hypot(RESOLUTION / 2.0 * step, RESOLUTION / 2.0 * step), MAX_ITERATIONS, RADIUS_SQUARED, series);
+                int mismatches = 0;
+                int escaped = 0;
+                for (int y = 0; y < RESOLUTION; y++) {
+                    for (int x = 0; x < RESOLUTION; x++) {
+                        double deltaReal = (x - RESOLUTION / 2.0) * step;
+                        double deltaImag = (y - RESOLUTION / 2.0) * step;
+                        int expected = iterateDouble(view[0] + deltaReal, view[1] + deltaImag, MAX_ITERATIONS);
+                        mismatches += engine.calcPixel(deltaReal, deltaImag) != expected ? 1 : 0;
+                        escaped += expected < MAX_ITERATIONS ? 1 : 0;
+                    }
+                }
+                assertTrue(escaped > 0 && escaped < RESOLUTION * RESOLUTION, "view " + view[2] + " must cross the boundary");
+                assertTrue(mismatches <= MAX_MISMATCH_FRACTION * RESOLUTION * RESOLUTION,
+                        mismatches + " pixels differ at span " + view[2] + (series ? " with" : " without") + " the series");
+            }
+        }
+    }
+
+    @Test
+    void referenceOrbitStopsWhenCancelled() {
+        assertThrows(CancellationException.class, () -> new PerturbationEngine(new BigDecimal(VIEWS[1][0]), new BigDecimal(VIEWS[1][1]),
+                1e-12, 1e-10, MAX_ITERATIONS, RADIUS_SQUARED, true, () -> true));
+    }
+}
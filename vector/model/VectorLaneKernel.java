@@ -0,0 +1,50 @@
+package model;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * LaneKernel built with the JDK Vector API: each group of points fills one vector of the CPU's preferred width (8
+ * lanes with AVX-512, 4 with AVX2) and escaped lanes are masked off. Only lanewise multiplies, adds and subtracts are
+ * used, never a fused multiply-add, so every lane rounds exactly as the scalar loop does.
+ * Compiled and run with --add-modules jdk.incubator.vector.
+ *
+ * @author rarpda
+ */
+final class VectorLaneKernel implements LaneKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void iterate(double[] zr, double[] zi, double[] cr, double cImaginary, int[] counts, boolean[] active, int length, int maxIterations, double radiusSquared) {
+        int lanes = SPECIES.length();
+        double[] laneCounts = new double[lanes];
+        for (int i = 0; i < SPECIES.loopBound(length); i += lanes) {
+            DoubleVector zrVector = DoubleVector.fromArray(SPECIES, zr, i);
+            DoubleVector ziVector = DoubleVector.fromArray(SPECIES, zi, i);
+            DoubleVector crVector = DoubleVector.fromArray(SPECIES, cr, i);
+            VectorMask<Double> activeMask = VectorMask.fromArray(SPECIES, active, i);
+            /*Counts are held as doubles so they share the lanes of Z; they are exact far beyond any iteration budget*/
+            DoubleVector countVector = DoubleVector.zero(SPECIES);
+            for (int iteration = 0; iteration < maxIterations && activeMask.trueCount() > 1; iteration++) {
+                DoubleVector zrSquared = zrVector.mul(zrVector);
+                DoubleVector ziSquared = ziVector.mul(ziVector);
+                DoubleVector nzi = zrVector.mul(2.0).mul(ziVector).add(cImaginary);
+                DoubleVector nzr = zrSquared.sub(ziSquared).add(crVector);
+                zrVector = zrVector.blend(nzr, activeMask); /*An escaped lane keeps its last Z, for the smooth count*/
+                ziVector = ziVector.blend(nzi, activeMask);
+                countVector = countVector.add(1.0, activeMask);
+                activeMask = activeMask.andNot(zrSquared.add(ziSquared).compare(VectorOperators.GT, radiusSquared));
+            }
+            zrVector.intoArray(zr, i);
+            ziVector.intoArray(zi, i);
+            activeMask.intoArray(active, i);
+            countVector.intoArray(laneCounts, 0);
+            for (int lane = 0; lane < lanes; lane++) {
+                counts[i + lane] += (int) laneCounts[lane];
+            }
+        }
+    }
+}